@@ -0,0 +1,1498 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.nio.charset.Charset;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import utils.ConsoleFormatter;
+import utils.CurrencyFormat;
+import utils.InvertedIndex;
+import utils.ReceiptRenderer;
+import utils.ReceiptTemplate;
+import exceptions.ECommerceException;
+import exceptions.InsufficientStockException;
+
+/**
+ * Micro-benchmarks for the performance-sensitive parts of the system.
+ * Each benchmark is run by name, with an optional size argument:
+ * java BenchmarkRunner productStore 1000000
+ */
+public class BenchmarkRunner {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    // Results are written here so the JIT cannot drop the benchmarked work
+    private static volatile double sink;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: java BenchmarkRunner <benchmark> [size]");
+            System.out.println("Available benchmarks:");
+            System.out.println("  productStore");
+            System.out.println("  rejection");
+            System.out.println("  metrics");
+            System.out.println("  formatting");
+            System.out.println("  receipts");
+            System.out.println("  hotSku");
+            System.out.println("  reservations");
+            System.out.println("  catalog");
+            System.out.println("  nameSearch");
+            System.out.println("  bestsellers");
+            System.out.println("  customers");
+            System.out.println("  orderHistory");
+            System.out.println("  coupons");
+            System.out.println("  cartSavings");
+            System.out.println("  quote");
+            System.out.println("  currency");
+            System.out.println("  columnarCart");
+            System.out.println("  parallelValidation");
+            return;
+        }
+
+        String benchmark = args[0];
+
+        switch (benchmark) {
+            case "productStore":
+                runProductStore(intArg(args, 1_000_000));
+                break;
+            case "rejection":
+                runRejection(intArg(args, 1_000_000));
+                break;
+            case "metrics":
+                runMetrics(intArg(args, 10_000_000));
+                break;
+            case "formatting":
+                runFormatting(intArg(args, 100_000));
+                break;
+            case "receipts":
+                runReceipts(intArg(args, 10_000));
+                break;
+            case "hotSku":
+                runHotSku(intArg(args, 4_000_000));
+                break;
+            case "reservations":
+                runReservations(intArg(args, 1_000_000));
+                break;
+            case "catalog":
+                runCatalog(intArg(args, 1_000_000));
+                break;
+            case "nameSearch":
+                runNameSearch(intArg(args, 10_000_000));
+                break;
+            case "bestsellers":
+                runBestsellers(intArg(args, 10_000_000));
+                break;
+            case "customers":
+                runCustomers(intArg(args, 1_000_000));
+                break;
+            case "orderHistory":
+                runOrderHistory(intArg(args, 1_000_000));
+                break;
+            case "coupons":
+                runCoupons(intArg(args, 1_000_000));
+                break;
+            case "cartSavings":
+                runCartSavings(intArg(args, 1_000));
+                break;
+            case "quote":
+                runQuote(intArg(args, 10));
+                break;
+            case "currency":
+                runCurrency(intArg(args, 1_000));
+                break;
+            case "columnarCart":
+                runColumnarCart(intArg(args, 10_000));
+                break;
+            case "parallelValidation":
+                runParallelValidation(intArg(args, 50_000));
+                break;
+            default:
+                System.out.println("Unknown benchmark: " + benchmark);
+                break;
+        }
+    }
+
+    private static int intArg(String[] args, int defaultValue) {
+        return args.length > 1 ? Integer.parseInt(args[1]) : defaultValue;
+    }
+
+    /**
+     * Compares heap Product objects with the off-heap ProductStore columns:
+     * memory per SKU and a full price x quantity scan.
+     */
+    private static void runProductStore(int skus) {
+        System.out.println("PRODUCT STORE BENCHMARK (" + skus + " SKUs)");
+        System.out.println("==========================================");
+
+        LocalDate expiry = LocalDate.now().plusDays(30);
+
+        long heapBefore = usedHeap();
+        Product[] heapProducts = new Product[skus];
+        for (int i = 0; i < skus; i++) {
+            heapProducts[i] = i % 2 == 0
+                ? new ShippableExpirableProduct("Cheese " + i, 10 + i % 100, 50, 0.2, expiry)
+                : new ShippableProduct("TV " + i, 500 + i % 100, 5, 15.0);
+        }
+        long heapBytes = usedHeap() - heapBefore;
+
+        long storeHeapBefore = usedHeap();
+        ProductStore store = new ProductStore(skus);
+        for (int i = 0; i < skus; i++) {
+            if (i % 2 == 0) {
+                store.add("Cheese " + i, 10 + i % 100, 50, 0.2, expiry, true);
+            } else {
+                store.add("TV " + i, 500 + i % 100, 5, 15.0, null, true);
+            }
+        }
+        long storeHeapBytes = usedHeap() - storeHeapBefore;
+
+        System.out.printf("Heap objects:  %6.1f bytes/SKU (heap)%n", (double) heapBytes / skus);
+        System.out.printf("ProductStore:  %6.1f bytes/SKU (off-heap), %.1f bytes/SKU (heap)%n",
+            (double) store.allocatedBytes() / skus, (double) Math.max(0, storeHeapBytes) / skus);
+
+        double heapNanos = measure(() -> {
+            double total = 0;
+            for (Product product : heapProducts) {
+                total += product.getPrice() * product.getQuantity();
+            }
+            sink = total;
+        });
+        double storeNanos = measure(() -> sink = store.totalStockValue());
+
+        System.out.printf("Scan (heap objects):  %8.2f ms (%.2f ns/SKU)%n", heapNanos / 1e6, heapNanos / skus);
+        System.out.printf("Scan (ProductStore):  %8.2f ms (%.2f ns/SKU)%n", storeNanos / 1e6, storeNanos / skus);
+    }
+
+    /**
+     * Measures how many sold-out checkouts per second can be rejected through
+     * the result-code path, a stackless exception and a full exception.
+     */
+    private static void runRejection(int attempts) {
+        System.out.println("CHECKOUT REJECTION BENCHMARK (" + attempts + " attempts)");
+        System.out.println("==========================================");
+
+        Product tv = new ShippableProduct("TV", 5000, 5, 15.0);
+        Customer customer = new Customer("Flash Sale Buyer", 100000.0);
+        Cart cart = new Cart();
+        try {
+            cart.add(tv, 5);
+        } catch (InsufficientStockException e) {
+            throw new IllegalStateException(e);
+        }
+        tv.decreaseQuantity(5); // Sold out to someone else before checkout
+
+        double resultNanos = measure(() -> {
+            int rejected = 0;
+            for (int i = 0; i < attempts; i++) {
+                if (!CheckoutService.tryCheckout(customer, cart).isSuccess()) {
+                    rejected++;
+                }
+            }
+            sink = rejected;
+        });
+        double stacklessNanos = measure(() -> {
+            int rejected = 0;
+            for (int i = 0; i < attempts; i++) {
+                try {
+                    CheckoutService.tryCheckout(customer, cart).throwIfFailed();
+                } catch (ECommerceException e) {
+                    rejected += e.getErrorCode().length();
+                }
+            }
+            sink = rejected;
+        });
+        double fullNanos = measure(() -> {
+            int rejected = 0;
+            for (int i = 0; i < attempts; i++) {
+                try {
+                    CheckoutResult result = CheckoutService.tryCheckout(customer, cart);
+                    throw new InsufficientStockException(result.getProductName(),
+                        result.getRequestedQuantity(), result.getAvailableQuantity());
+                } catch (InsufficientStockException e) {
+                    rejected += e.getMessage().length();
+                }
+            }
+            sink = rejected;
+        });
+
+        printThroughput("Result code", attempts, resultNanos);
+        printThroughput("Stackless exception", attempts, stacklessNanos);
+        printThroughput("Stack trace + message", attempts, fullNanos);
+    }
+
+    /**
+     * Measures the cost of recording one checkout phase, then reads the
+     * recorded histograms back through the platform MBean server.
+     */
+    private static void runMetrics(int recordings) throws Exception {
+        System.out.println("CHECKOUT METRICS BENCHMARK (" + recordings + " recordings)");
+        System.out.println("==========================================");
+
+        CheckoutMetrics metrics = CheckoutMetrics.getInstance();
+        double nanos = measure(() -> {
+            long phaseStart = System.nanoTime();
+            for (int i = 0; i < recordings; i++) {
+                phaseStart = metrics.endPhase(CheckoutPhase.VALIDATION, phaseStart);
+            }
+            sink = phaseStart;
+        });
+        double clockNanos = measure(() -> {
+            long last = 0;
+            for (int i = 0; i < recordings; i++) {
+                last += System.nanoTime();
+            }
+            sink = last;
+        });
+        System.out.printf("Cost per recorded phase: %.1f ns (of which %.1f ns is the clock read)%n",
+            nanos / recordings, clockNanos / recordings);
+
+        metrics.recordError("INSUFFICIENT_STOCK");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(CheckoutMetrics.OBJECT_NAME);
+        TabularData phases = (TabularData) server.getAttribute(name, "PhaseLatencies");
+        for (Object row : phases.values()) {
+            CompositeData entry = (CompositeData) row;
+            CompositeData snapshot = (CompositeData) entry.get("value");
+            System.out.printf("JMX %-10s count=%d p50=%dns p99=%dns%n",
+                entry.get("key"), snapshot.get("count"), snapshot.get("p50"), snapshot.get("p99"));
+        }
+        System.out.println("JMX ErrorCounts: " + ((TabularData) server.getAttribute(name, "ErrorCounts")).values());
+    }
+
+    /**
+     * Compares building receipt lines with DecimalFormat and String.format
+     * against the ConsoleFormatter append methods, then checks that formatting
+     * from many threads at once gives the same output as a private DecimalFormat.
+     */
+    private static void runFormatting(int receipts) throws Exception {
+        System.out.println("RECEIPT FORMATTING BENCHMARK (" + receipts + " receipts)");
+        System.out.println("==========================================");
+
+        String[] names = {"Cheese", "Biscuits", "TV", "Gaming Laptop", "Mobile scratch card"};
+        double[] prices = {100, 150, 5000, 1200, 50};
+        DecimalFormat legacyCurrency = new DecimalFormat("#,##0.00");
+
+        double legacyNanos = measure(() -> {
+            int length = 0;
+            for (int r = 0; r < receipts; r++) {
+                StringBuilder receipt = new StringBuilder();
+                double subtotal = 0;
+                for (int i = 0; i < names.length; i++) {
+                    double itemTotal = prices[i] * (i + 1);
+                    subtotal += itemTotal;
+                    receipt.append(String.format("%-3dx %-20s %10s", i + 1, names[i],
+                        "$" + legacyCurrency.format(itemTotal))).append('\n');
+                }
+                receipt.append(String.valueOf('─').repeat(45)).append('\n');
+                receipt.append(String.format("%-25s %10s", "Subtotal", "$" + legacyCurrency.format(subtotal)))
+                    .append('\n');
+                length += receipt.length();
+            }
+            sink = length;
+        });
+
+        double appendNanos = measure(() -> {
+            int length = 0;
+            StringBuilder receipt = new StringBuilder(1024);
+            StringBuilder amount = new StringBuilder(16);
+            for (int r = 0; r < receipts; r++) {
+                receipt.setLength(0);
+                double subtotal = 0;
+                for (int i = 0; i < names.length; i++) {
+                    double itemTotal = prices[i] * (i + 1);
+                    subtotal += itemTotal;
+                    amount.setLength(0);
+                    ConsoleFormatter.appendCurrency(amount, itemTotal);
+                    ConsoleFormatter.appendLineItem(receipt, i + 1, names[i], amount, 20).append('\n');
+                }
+                receipt.append(ConsoleFormatter.createSeparator('─', 45)).append('\n');
+                amount.setLength(0);
+                ConsoleFormatter.appendCurrency(amount, subtotal);
+                ConsoleFormatter.appendSummaryLine(receipt, "Subtotal", amount, 25).append('\n');
+                length += receipt.length();
+            }
+            sink = length;
+        });
+
+        System.out.printf("DecimalFormat + String.format: %8.0f ns/receipt%n", legacyNanos / receipts);
+        System.out.printf("ConsoleFormatter append:       %8.0f ns/receipt%n", appendNanos / receipts);
+
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> mismatches = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            mismatches.add(pool.submit(() -> {
+                DecimalFormat expected = new DecimalFormat("#,##0.00");
+                Random random = new Random(seed);
+                int wrong = 0;
+                for (int i = 0; i < receipts; i++) {
+                    double value = random.nextInt(100_000_000) / 100.0;
+                    if (!ConsoleFormatter.formatCurrency(value).equals("$" + expected.format(value))) {
+                        wrong++;
+                    }
+                }
+                return wrong;
+            }));
+        }
+        int wrong = 0;
+        for (Future<Integer> result : mismatches) {
+            wrong += result.get();
+        }
+        pool.shutdown();
+        System.out.println("Concurrent formatting on " + threads + " threads: " + wrong + " mismatches");
+    }
+
+    /**
+     * Compares printing each receipt as its own string with rendering a whole
+     * batch of receipts from a compiled template and writing it out once.
+     */
+    private static void runReceipts(int batchSize) throws Exception {
+        System.out.println("RECEIPT RENDERING BENCHMARK (" + batchSize + " receipts per batch)");
+        System.out.println("==========================================");
+
+        Charset charset = ConsoleFormatter.consoleCharset();
+        String[] names = {"Cheese", "Biscuits", "TV", "Gaming Laptop", "Mobile scratch card"};
+        double[] prices = {100, 150, 5000, 1200, 50};
+        CountingOutputStream out = new CountingOutputStream();
+        PrintStream printer = new PrintStream(out, false, charset.name());
+
+        double stringNanos = measure(() -> {
+            StringBuilder receipt = new StringBuilder(1024);
+            StringBuilder amount = new StringBuilder(16);
+            for (int r = 0; r < batchSize; r++) {
+                receipt.setLength(0);
+                receipt.append('\n').append(ConsoleFormatter.BOLD).append("Cart Contents:")
+                    .append(ConsoleFormatter.RESET).append('\n');
+                receipt.append(ConsoleFormatter.createSeparator('─', 40)).append('\n');
+                double total = 0;
+                for (int i = 0; i < names.length; i++) {
+                    double itemTotal = prices[i] * (i + 1);
+                    total += itemTotal;
+                    amount.setLength(0);
+                    ConsoleFormatter.appendCurrency(amount, itemTotal);
+                    ConsoleFormatter.appendLineItem(receipt, i + 1, names[i], amount, 15).append('\n');
+                }
+                receipt.append(ConsoleFormatter.createSeparator('─', 40)).append('\n');
+                amount.setLength(0);
+                ConsoleFormatter.appendCurrency(amount, total);
+                ConsoleFormatter.appendSummaryLine(receipt, "Cart Total:", amount, 20).append('\n');
+                printer.print(receipt);
+                printer.flush();
+            }
+        });
+        long stringWrites = out.writes;
+        long stringBytes = out.bytes;
+
+        ReceiptTemplate template = ReceiptTemplate.compile(
+            "\n{@bold}Cart Contents:{@reset}\n{%─:40}\n"
+            + "{#lines}{quantity:int:<3}x {name:<15} {amount:money:>10}\n{/lines}"
+            + "{%─:40}\n{'Cart Total:':<20} {total:money:>10}\n", charset);
+        int lines = template.slot("lines");
+        int quantity = template.slot("quantity");
+        int name = template.slot("name");
+        int amountSlot = template.slot("amount");
+        int totalSlot = template.slot("total");
+        ReceiptTemplate.Data data = template.newData();
+        ReceiptRenderer renderer = new ReceiptRenderer(charset, true);
+
+        out.reset();
+        double templateNanos = measure(() -> {
+            for (int r = 0; r < batchSize; r++) {
+                data.clear();
+                double total = 0;
+                for (int i = 0; i < names.length; i++) {
+                    double itemTotal = prices[i] * (i + 1);
+                    total += itemTotal;
+                    data.addRow(lines);
+                    data.set(quantity, i + 1);
+                    data.set(name, names[i]);
+                    data.set(amountSlot, itemTotal);
+                }
+                data.set(totalSlot, total);
+                renderer.render(template, data);
+            }
+            try {
+                renderer.writeTo(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        long rounds = WARMUP_ROUNDS + MEASURED_ROUNDS;
+
+        System.out.printf("StringBuilder + print:      %8.0f ns/receipt, %d writes per batch%n",
+            stringNanos / batchSize, stringWrites / rounds);
+        System.out.printf("Compiled template, batched: %8.0f ns/receipt, %d writes per batch%n",
+            templateNanos / batchSize, out.writes / rounds);
+        System.out.println("Same bytes: " + (stringBytes == out.bytes));
+    }
+
+    /**
+     * Output stream that discards its input, counting write calls and bytes.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        long writes;
+        long bytes;
+
+        @Override
+        public void write(int b) {
+            writes++;
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+            bytes += len;
+        }
+
+        void reset() {
+            writes = 0;
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Many threads buying single units of one product, with the stock held in
+     * one locked field and split into per-core shards, at increasing thread counts.
+     */
+    private static void runHotSku(int units) throws Exception {
+        System.out.println("HOT SKU BENCHMARK (" + units + " units sold per run)");
+        System.out.println("==========================================");
+
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double lockedNanos = sellOut(new Product("Flash Sale TV", 5000, units), threads, units);
+
+            // ProductStore quantities are a CAS loop on an off-heap column
+            ProductStore store = new ProductStore(1);
+            double casNanos = sellOut(store.view(store.add("Flash Sale TV", 5000, units, 0, null, false)),
+                threads, units);
+
+            Product sharded = new Product("Flash Sale TV", 5000, units);
+            sharded.enableShardedStock(threads);
+            double shardedNanos = sellOut(sharded, threads, units);
+
+            Product combining = new Product("Flash Sale TV", 5000, units);
+            combining.enableCombiningStock();
+            double combiningNanos = sellOut(combining, threads, units);
+
+            System.out.printf("%2d threads: locked %12.0f, CAS %12.0f, sharded %12.0f, combining %12.0f ops/s%n",
+                threads, units / (lockedNanos / 1e9), units / (casNanos / 1e9),
+                units / (shardedNanos / 1e9), units / (combiningNanos / 1e9));
+        }
+    }
+
+    /**
+     * Sells every unit of a product from several threads at once.
+     *
+     * @return Elapsed nanoseconds
+     */
+    private static double sellOut(Product product, int threads, int units) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> sold = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            sold.add(pool.submit(() -> {
+                start.await();
+                int count = 0;
+                while (product.tryDecreaseQuantity(1)) {
+                    count++;
+                }
+                return count;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        int total = 0;
+        for (Future<Integer> result : sold) {
+            total += result.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        if (total != units || product.getQuantity() != 0) {
+            throw new IllegalStateException("Sold " + total + " of " + units + " units, "
+                + product.getQuantity() + " left");
+        }
+        return elapsed;
+    }
+
+    /**
+     * Creates and cancels millions of stock reservations, then lets a batch of
+     * short-lived ones expire and checks that every reserved unit came back.
+     */
+    private static void runReservations(int count) throws Exception {
+        System.out.println("STOCK RESERVATION BENCHMARK (" + count + " reservations)");
+        System.out.println("==========================================");
+
+        ReservationManager manager = new ReservationManager(30, TimeUnit.MINUTES);
+        Product product = new Product("Flash Sale TV", 5000, count);
+        ReservationManager.Reservation[] reservations = new ReservationManager.Reservation[count];
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            reservations[i] = manager.reserve(product, 1);
+        }
+        long reserveNanos = System.nanoTime() - start;
+        Thread.sleep(100); // let the wheel thread file them into slots
+        long heapAfter = usedHeap();
+        System.out.println("Outstanding reservations: " + manager.getOutstandingCount());
+        System.out.printf("Memory per reservation: %d bytes%n", (heapAfter - heapBefore) / count);
+
+        start = System.nanoTime();
+        for (ReservationManager.Reservation reservation : reservations) {
+            reservation.releaseAll();
+        }
+        long releaseNanos = System.nanoTime() - start;
+        printThroughput("Reserve", count, reserveNanos);
+        printThroughput("Release", count, releaseNanos);
+        System.out.println("Stock after release: " + product.getQuantity() + " (expected " + count + ")");
+        manager.shutdown();
+
+        ReservationManager shortLived = new ReservationManager(200, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < count; i++) {
+            shortLived.reserve(product, 1);
+        }
+        start = System.nanoTime();
+        while (shortLived.getOutstandingCount() > 0) {
+            Thread.sleep(10);
+        }
+        System.out.printf("All %d expired %.0f ms after the last was created (TTL 200 ms)%n",
+            count, (System.nanoTime() - start) / 1e6);
+        System.out.println("Stock after expiry: " + product.getQuantity() + " (expected " + count + ")");
+        shortLived.shutdown();
+    }
+
+    /**
+     * Builds a catalog index over a million products and times listing-page
+     * queries against a full scan that filters and sorts the same products.
+     */
+    private static void runCatalog(int count) {
+        System.out.println("CATALOG INDEX BENCHMARK (" + count + " products)");
+        System.out.println("==========================================");
+
+        LocalDate today = LocalDate.now();
+        Random random = new Random(42);
+        Product[] products = new Product[count];
+        for (int i = 0; i < count; i++) {
+            double price = 1 + random.nextInt(500_000) / 100.0;
+            int quantity = random.nextInt(10) == 0 ? 0 : random.nextInt(100);
+            products[i] = i % 3 == 0
+                ? new ShippableExpirableProduct("Cheese " + i, price, quantity, random.nextInt(5000) / 1000.0,
+                    today.plusDays(random.nextInt(365)))
+                : new ShippableProduct("TV " + i, price, quantity, random.nextInt(30_000) / 1000.0);
+        }
+
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        CatalogIndex catalog = new CatalogIndex(count);
+        for (Product product : products) {
+            catalog.add(product);
+        }
+        catalog.query().count(); // builds the sorted indexes
+        long buildNanos = System.nanoTime() - start;
+        System.out.printf("Build: %.0f ms, %d bytes/product%n", buildNanos / 1e6, (usedHeap() - heapBefore) / count);
+
+        LocalDate weekAhead = today.plusDays(7);
+        int queries = 1000;
+        double pageNanos = measure(() -> {
+            int found = 0;
+            for (int q = 0; q < queries; q++) {
+                double from = 100 + q;
+                found += catalog.query().priceBetween(from, from + 200).inStock().weightBetween(0, 10)
+                    .ids(q % 5 * 20, 20).length;
+            }
+            sink = found;
+        }) / queries;
+        double expiryNanos = measure(() -> {
+            int found = 0;
+            for (int q = 0; q < queries; q++) {
+                found += catalog.query().expiringBetween(today, weekAhead).inStock().ids(0, 20).length;
+            }
+            sink = found;
+        }) / queries;
+        double countNanos = measure(() -> {
+            int found = 0;
+            for (int q = 0; q < 10; q++) {
+                found += catalog.query().priceBetween(1000, 1500).inStock().count();
+            }
+            sink = found;
+        }) / 10;
+        double scanNanos = measure(() -> {
+            List<Product> matches = new ArrayList<>();
+            for (Product product : products) {
+                if (product.getPrice() >= 100 && product.getPrice() <= 300 && product.getQuantity() > 0
+                        && ((Shippable) product).getWeight() <= 10) {
+                    matches.add(product);
+                }
+            }
+            matches.sort((a, b) -> Double.compare(a.getPrice(), b.getPrice()));
+            sink = matches.subList(0, Math.min(20, matches.size())).size();
+        });
+
+        System.out.printf("Price band page (index):    %10.1f us/query%n", pageNanos / 1e3);
+        System.out.printf("Expiring this week (index): %10.1f us/query%n", expiryNanos / 1e3);
+        System.out.printf("Price band count (index):   %10.1f us/query%n", countNanos / 1e3);
+        System.out.printf("Price band page (scan):     %10.1f us/query%n", scanNanos / 1e3);
+
+        // Stock changes reach the index straight away
+        Product first = catalog.get(catalog.query().priceBetween(100, 300).inStock().ids(0, 1)[0]);
+        int before = catalog.query().priceBetween(100, 300).inStock().count();
+        first.decreaseQuantity(first.getQuantity());
+        int after = catalog.query().priceBetween(100, 300).inStock().count();
+        System.out.println("In-stock matches after selling out one product: " + after + " (expected " + (before - 1) + ")");
+    }
+
+    /**
+     * Indexes millions of generated product names and times word search,
+     * search-as-you-type and completion suggestions against them.
+     */
+    private static void runNameSearch(int count) {
+        System.out.println("NAME SEARCH BENCHMARK (" + count + " product names)");
+        System.out.println("==========================================");
+
+        // Names like "Kalomi Organic Cheese 500g", drawn with a skew so some words are far more common
+        String[] syllables = {"ka", "lo", "mi", "ne", "ru", "so", "ta", "vi", "ze", "po", "da", "fe", "gu", "chi", "bo"};
+        Random random = new Random(42);
+        String[] brands = words(random, syllables, 2000, 3);
+        String[] adjectives = {"Organic", "Fresh", "Red", "Green", "Large", "Small", "Smart", "Classic", "Premium",
+            "Crispy", "Frozen", "Wireless", "Portable", "Spicy", "Sweet", "Light", "Family", "Mini", "Golden", "Dark"};
+        String[] nouns = words(random, syllables, 500, 2);
+        String[] sizes = {"100g", "250g", "500g", "1kg", "2kg", "6pack", "12pack", "32gb", "64gb", "128gb"};
+
+        InvertedIndex index = new InvertedIndex();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        StringBuilder name = new StringBuilder();
+        for (int id = 0; id < count; id++) {
+            name.setLength(0);
+            name.append(skewed(random, brands)).append(' ').append(skewed(random, adjectives)).append(' ')
+                .append(skewed(random, nouns)).append(' ').append(sizes[random.nextInt(sizes.length)]);
+            index.add(id, name.toString());
+        }
+        long buildNanos = System.nanoTime() - start;
+        long heapBytes = usedHeap() - heapBefore;
+        System.out.printf("Indexed in %.1f s: %d words, %.1f bytes/name of postings, %.1f bytes/name of heap%n",
+            buildNanos / 1e9, index.getTermCount(), (double) index.getPostingsBytes() / count,
+            (double) heapBytes / count);
+
+        String commonNoun = nouns[0].toLowerCase();
+        String[] queries = {
+            commonNoun.substring(0, 2),
+            "organic " + commonNoun.substring(0, 3),
+            "red " + commonNoun + " 5",
+            brands[0].toLowerCase() + " fresh ",
+            "zzz"
+        };
+        for (String query : queries) {
+            double nanos = measure(() -> {
+                int found = 0;
+                for (int q = 0; q < 100; q++) {
+                    found += index.search(query, 20).length;
+                }
+                sink = found;
+            }) / 100;
+            System.out.printf("Search %-24s %3d results %10.1f us%n", "'" + query + "':",
+                index.search(query, 20).length, nanos / 1e3);
+        }
+        for (String prefix : new String[] {"k", "ka", "kalo"}) {
+            double nanos = measure(() -> {
+                int found = 0;
+                for (int q = 0; q < 100; q++) {
+                    found += index.suggest(prefix, 8).size();
+                }
+                sink = found;
+            }) / 100;
+            System.out.printf("Suggest %-23s %s %.1f us%n", "'" + prefix + "':", index.suggest(prefix, 8), nanos / 1e3);
+        }
+    }
+
+    private static String[] words(Random random, String[] syllables, int count, int maxSyllables) {
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < count) {
+            StringBuilder word = new StringBuilder();
+            int length = 2 + random.nextInt(maxSyllables);
+            for (int i = 0; i < length; i++) {
+                word.append(syllables[random.nextInt(syllables.length)]);
+            }
+            word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+
+    private static String skewed(Random random, String[] words) {
+        double r = random.nextDouble();
+        return words[(int) (r * r * words.length)];
+    }
+
+    /**
+     * Streams skewed sales of 100,000 products through a bestseller tracker, from
+     * several threads, and compares its top 10 with exact counts.
+     */
+    private static void runBestsellers(int sales) throws Exception {
+        System.out.println("BESTSELLER TRACKER BENCHMARK (" + sales + " sales of 100000 products)");
+        System.out.println("==========================================");
+
+        int productCount = 100_000;
+        Product[] products = new Product[productCount];
+        for (int i = 0; i < productCount; i++) {
+            products[i] = new Product("Product " + i, 1 + i % 500, 0);
+        }
+        // Zipf-like popularity: product i sells in proportion to 1 / (i + 1)
+        double[] cumulative = new double[productCount];
+        double sum = 0;
+        for (int i = 0; i < productCount; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int perThread = sales / threads;
+        int[][] picks = new int[threads][perThread];
+        long[] exact = new long[productCount];
+        Random random = new Random(42);
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                int product = Math.min(productCount - 1, index >= 0 ? index : -index - 1);
+                picks[t][i] = product;
+                exact[product]++;
+            }
+        }
+
+        BestsellerTracker tracker = new BestsellerTracker(1024);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int[] mine = picks[t];
+            done.add(pool.submit(() -> {
+                start.await();
+                for (int product : mine) {
+                    tracker.record(products[product], 1, products[product].getPrice());
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : done) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        printThroughput("Record (" + threads + " threads)", perThread * threads, elapsed);
+
+        long queryStart = System.nanoTime();
+        List<BestsellerTracker.Bestseller> top = tracker.topByUnits(10);
+        System.out.printf("Top 10 query, folding in what the merger has not: %.1f ms%n",
+            (System.nanoTime() - queryStart) / 1e6);
+        System.out.println("Rank  Product          Estimated      Exact   Max error");
+        for (int rank = 0; rank < top.size(); rank++) {
+            BestsellerTracker.Bestseller bestseller = top.get(rank);
+            int id = Integer.parseInt(bestseller.getProduct().getName().substring("Product ".length()));
+            System.out.printf("%4d  %-14s %11d %10d %11d%n", rank + 1, bestseller.getProduct().getName(),
+                bestseller.getAmount(), exact[id], bestseller.getError());
+        }
+    }
+
+    /**
+     * Compares heap Customer objects in a HashMap by name with the off-heap
+     * CustomerDirectory: memory per account, lookups by name and balance updates.
+     */
+    private static void runCustomers(int accounts) {
+        System.out.println("CUSTOMER DIRECTORY BENCHMARK (" + accounts + " accounts)");
+        System.out.println("==========================================");
+
+        long heapBefore = usedHeap();
+        HashMap<String, Customer> heapCustomers = new HashMap<>();
+        for (int i = 0; i < accounts; i++) {
+            heapCustomers.put("Customer " + i, new Customer("Customer " + i, 1000.0));
+        }
+        long heapBytes = usedHeap() - heapBefore;
+
+        long directoryHeapBefore = usedHeap();
+        CustomerDirectory directory = new CustomerDirectory(accounts);
+        for (int i = 0; i < accounts; i++) {
+            directory.add("Customer " + i, 1000.0);
+        }
+        long directoryHeapBytes = usedHeap() - directoryHeapBefore;
+
+        System.out.printf("Heap objects + HashMap: %6.1f bytes/account (heap)%n", (double) heapBytes / accounts);
+        System.out.printf("CustomerDirectory:      %6.1f bytes/account (off-heap), %.1f bytes/account (heap)%n",
+            (double) directory.allocatedBytes() / accounts, (double) Math.max(0, directoryHeapBytes) / accounts);
+
+        int lookups = Math.min(accounts, 1_000_000);
+        String[] queries = new String[lookups];
+        Random random = new Random(42);
+        for (int i = 0; i < lookups; i++) {
+            queries[i] = "Customer " + random.nextInt(accounts);
+        }
+        double heapLookupNanos = measure(() -> {
+            long found = 0;
+            for (String query : queries) {
+                found += heapCustomers.get(query).getName().length();
+            }
+            sink = found;
+        });
+        double directoryLookupNanos = measure(() -> {
+            long found = 0;
+            for (String query : queries) {
+                found += directory.find(query);
+            }
+            sink = found;
+        });
+        printThroughput("Lookup (HashMap)", lookups, heapLookupNanos);
+        printThroughput("Lookup (directory)", lookups, directoryLookupNanos);
+
+        int[] ids = new int[lookups];
+        Customer[] heapTargets = new Customer[lookups];
+        for (int i = 0; i < lookups; i++) {
+            ids[i] = directory.find(queries[i]);
+            heapTargets[i] = heapCustomers.get(queries[i]);
+        }
+        double heapUpdateNanos = measure(() -> {
+            for (Customer customer : heapTargets) {
+                customer.tryDeductBalance(1.25);
+                customer.addBalance(1.25);
+            }
+        });
+        double directoryUpdateNanos = measure(() -> {
+            for (int id : ids) {
+                directory.tryDeduct(id, 125);
+                directory.credit(id, 125);
+            }
+        });
+        printThroughput("Charge+refund (heap)", lookups, heapUpdateNanos);
+        printThroughput("Charge+refund (dir)", lookups, directoryUpdateNanos);
+        System.out.printf("Total balance held: $%.2f (expected $%.2f)%n",
+            directory.totalBalanceCents() / 100.0, accounts * 1000.0);
+    }
+
+    /**
+     * Records orders for a population of customers, then looks up customers who
+     * never ordered (answered by the Bloom filter alone) and returning customers
+     * (confirmed against the exact set), and measures the false-positive rate.
+     */
+    private static void runOrderHistory(int customers) {
+        System.out.println("ORDER HISTORY BENCHMARK (" + customers + " customers)");
+        System.out.println("==========================================");
+
+        OrderHistory history = new OrderHistory(customers, 0.01);
+        for (int i = 0; i < customers; i++) {
+            history.recordOrder(new Customer("Customer " + i, 1000.0));
+        }
+        System.out.printf("Filter: %d bits (%.1f bits/customer), %d probes, expected false positives %.2f%%%n",
+            history.getFilter().getBitCount(), (double) history.getFilter().getBitCount() / customers,
+            history.getFilter().getHashCount(), history.getFilter().expectedFalsePositiveRate(customers) * 100);
+
+        int lookups = Math.min(customers, 1_000_000);
+        Customer[] unseenSample = new Customer[lookups];
+        Customer[] returningSample = new Customer[lookups];
+        Random random = new Random(42);
+        for (int i = 0; i < lookups; i++) {
+            unseenSample[i] = new Customer("Visitor " + i, 1000.0);
+            returningSample[i] = new Customer("Customer " + random.nextInt(customers), 1000.0);
+        }
+
+        int falsePositives = 0;
+        for (Customer customer : unseenSample) {
+            if (history.getFilter().mightContain(OrderHistory.key(customer.getName()))) {
+                falsePositives++;
+            }
+        }
+        System.out.printf("Measured false positives: %.2f%%%n", falsePositives * 100.0 / lookups);
+
+        double unseenNanos = measure(() -> {
+            int found = 0;
+            for (Customer customer : unseenSample) {
+                found += history.hasOrdered(customer) ? 1 : 0;
+            }
+            sink = found;
+        });
+        double returningNanos = measure(() -> {
+            int found = 0;
+            for (Customer customer : returningSample) {
+                found += history.hasOrdered(customer) ? 1 : 0;
+            }
+            sink = found;
+        });
+        printThroughput("Lookup (new customer)", lookups, unseenNanos);
+        printThroughput("Lookup (returning)", lookups, returningNanos);
+    }
+
+    /**
+     * Loads single-use coupon codes into a CouponBook and into a ConcurrentHashMap
+     * of counters, compares memory and lookups, then has several threads race to
+     * redeem every code and checks that none was redeemed twice.
+     */
+    private static void runCoupons(int codes) throws Exception {
+        System.out.println("COUPON BENCHMARK (" + codes + " codes)");
+        System.out.println("==========================================");
+
+        String alphabet = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789";
+        Random random = new Random(42);
+        String[] texts = new String[codes];
+        Set<String> unique = new HashSet<>();
+        for (int i = 0; i < codes; i++) {
+            String code;
+            do {
+                char[] chars = new char[10];
+                for (int c = 0; c < chars.length; c++) {
+                    chars[c] = alphabet.charAt(random.nextInt(alphabet.length()));
+                }
+                code = new String(chars);
+            } while (!unique.add(code));
+            texts[i] = code;
+        }
+        unique = null;
+
+        long mapBefore = usedHeap();
+        ConcurrentHashMap<String, AtomicInteger> map = new ConcurrentHashMap<>();
+        for (String text : texts) {
+            map.put(new String(text), new AtomicInteger(1));
+        }
+        long mapBytes = usedHeap() - mapBefore;
+
+        CouponBook.Offer offer = CouponBook.Offer.percentOff(10);
+        long bookBefore = usedHeap();
+        CouponBook book = new CouponBook(codes);
+        for (String text : texts) {
+            book.add(text, offer, 1);
+        }
+        long bookBytes = usedHeap() - bookBefore;
+        System.out.printf("ConcurrentHashMap: %6.1f bytes/code%n", (double) mapBytes / codes);
+        System.out.printf("CouponBook:        %6.1f bytes/code%n", (double) bookBytes / codes);
+
+        int lookups = Math.min(codes, 1_000_000);
+        String[] queries = new String[lookups];
+        for (int i = 0; i < lookups; i++) {
+            queries[i] = texts[random.nextInt(codes)];
+        }
+        double mapNanos = measure(() -> {
+            int available = 0;
+            for (String query : queries) {
+                available += map.get(query).get();
+            }
+            sink = available;
+        });
+        double bookNanos = measure(() -> {
+            int available = 0;
+            for (String query : queries) {
+                available += book.find(query).getRemainingUses();
+            }
+            sink = available;
+        });
+        printThroughput("Lookup (map)", lookups, mapNanos);
+        printThroughput("Lookup (CouponBook)", lookups, bookNanos);
+
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        CouponBook.Coupon[] coupons = new CouponBook.Coupon[codes];
+        for (int i = 0; i < codes; i++) {
+            coupons[i] = book.find(texts[i]);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> done = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * (codes / threads);
+            done.add(pool.submit(() -> {
+                start.await();
+                int redeemed = 0;
+                // Every thread tries every code, starting at a different point
+                for (int i = 0; i < codes; i++) {
+                    if (coupons[(offset + i) % codes].tryRedeem()) {
+                        redeemed++;
+                    }
+                }
+                return redeemed;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        long redeemed = 0;
+        for (Future<Integer> future : done) {
+            redeemed += future.get();
+        }
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        printThroughput("Redeem (" + threads + " threads)", codes * threads, elapsed);
+        System.out.println("Codes redeemed: " + redeemed + " of " + codes + " single-use codes"
+            + (redeemed == codes ? " (none twice)" : " (DOUBLE REDEMPTION)"));
+    }
+
+    /**
+     * Compares working out a cart's discounts from scratch after every click
+     * with reading the running summary the cart keeps up to date.
+     */
+    private static void runCartSavings(int lines) throws Exception {
+        System.out.println("CART SAVINGS BENCHMARK (" + lines + " cart lines)");
+        System.out.println("==========================================");
+
+        Cart cart = new Cart();
+        Product[] products = new Product[lines];
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new CountingOutputStream()));
+        try {
+            for (int i = 0; i < lines; i++) {
+                products[i] = new Product("Product " + i, 1 + i % 50, 1_000_000);
+                cart.add(products[i], 1 + i % 3);
+            }
+        } finally {
+            System.setOut(console);
+        }
+
+        int clicks = 100_000;
+        double scratchNanos = measure(() -> {
+            double savings = 0;
+            for (int c = 0; c < clicks; c++) {
+                double subtotal = 0;
+                int items = 0;
+                for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+                    subtotal += entry.getKey().getPrice() * entry.getValue();
+                    items += entry.getValue();
+                }
+                for (CartDiscount rule : CartDiscount.values()) {
+                    if (rule.appliesTo(subtotal, items)) {
+                        savings += rule.amountOf(subtotal);
+                    }
+                }
+            }
+            sink = savings;
+        });
+        double summaryNanos = measure(() -> {
+            double savings = 0;
+            for (int c = 0; c < clicks; c++) {
+                savings += cart.getSavings();
+            }
+            sink = savings;
+        });
+        System.out.printf("From scratch:     %10.1f ns per click%n", scratchNanos / clicks);
+        System.out.printf("Running summary:  %10.1f ns per click%n", summaryNanos / clicks);
+
+        Product extra = products[0];
+        System.setOut(new PrintStream(new CountingOutputStream()));
+        double changeNanos;
+        try {
+            changeNanos = measure(() -> {
+                try {
+                    for (int c = 0; c < clicks; c++) {
+                        cart.add(extra, 1);
+                        cart.remove(extra, 1);
+                    }
+                } catch (InsufficientStockException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } finally {
+            System.setOut(console);
+        }
+        System.out.printf("Add + remove, summary included: %.1f ns per pair%n", changeNanos / clicks);
+        System.out.printf("Summary: %d items, $%.2f, savings $%.2f%n",
+            cart.getItemCount(), cart.getSubtotal(), cart.getSavings());
+    }
+
+    /**
+     * Prices a cart with a side-effect-free quote, against the only way to get
+     * the same numbers before: a checkout that is turned down at the balance check.
+     */
+    private static void runQuote(int lines) throws Exception {
+        System.out.println("PRICE QUOTE BENCHMARK (" + lines + " cart lines)");
+        System.out.println("==========================================");
+
+        Cart cart = new Cart();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new CountingOutputStream()));
+        try {
+            for (int i = 0; i < lines; i++) {
+                Product product = i % 2 == 0
+                    ? new ShippableProduct("Product " + i, 10 + i % 50, 1_000_000, 0.5)
+                    : new Product("Product " + i, 10 + i % 50, 1_000_000);
+                cart.add(product, 1 + i % 3);
+            }
+        } finally {
+            System.setOut(console);
+        }
+        Customer customer = new Customer("Quote Benchmark", 2000);
+        Customer broke = new Customer("Quote Benchmark Broke", 0);
+
+        int quotes = 100_000;
+        double quoteNanos = measure(() -> {
+            double total = 0;
+            for (int q = 0; q < quotes; q++) {
+                total += CheckoutService.quote(customer, cart).getTotal();
+            }
+            sink = total;
+        });
+        double checkoutNanos = measure(() -> {
+            double required = 0;
+            for (int q = 0; q < quotes; q++) {
+                required += CheckoutService.tryCheckout(broke, cart).getRequiredAmount();
+            }
+            sink = required;
+        });
+        printThroughput("Quote", quotes, quoteNanos);
+        printThroughput("Rejected checkout", quotes, checkoutNanos);
+
+        PriceQuote quote = CheckoutService.quote(customer, cart);
+        System.out.printf("Quote: %d discounts, total $%.2f; balance still $%.2f%n",
+            quote.getDiscounts().size(), quote.getTotal(), customer.getBalance());
+    }
+
+    /**
+     * Prices carts in dollars and in euros: precomputed converted prices against
+     * converting and rounding every line, checkouts in both currencies, and
+     * cached currency formats against a NumberFormat per amount.
+     */
+    private static void runCurrency(int lines) throws Exception {
+        System.out.println("MULTI-CURRENCY BENCHMARK (" + lines + " cart lines)");
+        System.out.println("==========================================");
+
+        FxRates previous = FxRates.getCurrent();
+        Map<String, Double> unitsPerDollar = new HashMap<>();
+        unitsPerDollar.put("EUR", 0.92);
+        unitsPerDollar.put("GBP", 0.79);
+        unitsPerDollar.put("JPY", 151.3);
+        FxRates rates = FxRates.of(unitsPerDollar);
+        FxRates.setCurrent(rates);
+        FxRates.Rate dollars = rates.getBase();
+        FxRates.Rate euros = rates.get("EUR");
+        CurrencyFormat euroFormat = euros.getFormat();
+
+        Cart cart = new Cart();
+        Product[] products = new Product[lines];
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new CountingOutputStream()));
+        try {
+            for (int i = 0; i < lines; i++) {
+                products[i] = new Product("Product " + i, 0.99 + i % 50, 1_000_000_000);
+                cart.add(products[i], 1 + i % 3);
+            }
+        } finally {
+            System.setOut(console);
+        }
+        Map<Product, Integer> items = cart.getItems();
+
+        int passes = Math.max(10, 10_000_000 / lines);
+        double baseNanos = measure(() -> {
+            double total = 0;
+            for (int p = 0; p < passes; p++) {
+                for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                    total += entry.getKey().getPrice() * entry.getValue();
+                }
+            }
+            sink = total;
+        });
+        double convertNanos = measure(() -> {
+            double total = 0;
+            for (int p = 0; p < passes; p++) {
+                for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                    total += euroFormat.round(entry.getKey().getPrice() * 0.92) * entry.getValue();
+                }
+            }
+            sink = total;
+        });
+        double precomputedNanos = measure(() -> {
+            double total = 0;
+            for (int p = 0; p < passes; p++) {
+                for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                    total += entry.getKey().getPrice(euros) * entry.getValue();
+                }
+            }
+            sink = total;
+        });
+        long pricedLines = (long) passes * lines;
+        System.out.printf("%-28s %6.2f ns per line%n", "Dollar prices:", baseNanos / pricedLines);
+        System.out.printf("%-28s %6.2f ns per line%n", "Euros, converted per line:", convertNanos / pricedLines);
+        System.out.printf("%-28s %6.2f ns per line%n", "Euros, precomputed:", precomputedNanos / pricedLines);
+
+        Customer customer = new Customer("Currency Benchmark", 1e15);
+        int checkouts = Math.max(10, 100_000 / lines);
+        double dollarCheckoutNanos = measure(() -> {
+            double total = 0;
+            for (int c = 0; c < checkouts; c++) {
+                total += CheckoutService.tryCheckout(customer, cart).getTotal();
+            }
+            sink = total;
+        });
+        double euroCheckoutNanos = measure(() -> {
+            double total = 0;
+            for (int c = 0; c < checkouts; c++) {
+                total += CheckoutService.tryCheckout(customer, cart, "EUR").getTotal();
+            }
+            sink = total;
+        });
+        printThroughput("Checkout in USD", checkouts, dollarCheckoutNanos);
+        printThroughput("Checkout in EUR", checkouts, euroCheckoutNanos);
+
+        int amounts = 1_000_000;
+        double cachedNanos = measure(() -> {
+            int length = 0;
+            for (int i = 0; i < amounts; i++) {
+                length += CurrencyFormat.of("EUR").format(i * 0.37).length();
+            }
+            sink = length;
+        });
+        double numberFormatNanos = measure(() -> {
+            int length = 0;
+            for (int i = 0; i < amounts; i++) {
+                length += NumberFormat.getCurrencyInstance(Locale.GERMANY).format(i * 0.37).length();
+            }
+            sink = length;
+        });
+        printThroughput("Cached CurrencyFormat", amounts, cachedNanos);
+        printThroughput("NumberFormat per amount", amounts, numberFormatNanos);
+        System.out.println("Sample: " + euroFormat.format(1234.5) + ", "
+            + rates.get("JPY").getFormat().format(1234.5));
+        FxRates.setCurrent(previous);
+    }
+
+    /**
+     * Totals a large cart the way checkout did line by line, with a walk of the
+     * map per total and a quantity lookup per shippable line, against filling
+     * CartColumns in one walk and summing the columns.
+     */
+    private static void runColumnarCart(int lines) throws Exception {
+        System.out.println("COLUMNAR CART BENCHMARK (" + lines + " cart lines)");
+        System.out.println("==========================================");
+
+        Cart cart = new Cart();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new CountingOutputStream()));
+        try {
+            String[] names = {"Cheese", "TV", "Scratch Card", "Laptop", "Biscuits"};
+            for (int i = 0; i < lines; i++) {
+                String name = names[i % names.length] + " " + i;
+                Product product = i % 3 == 0
+                    ? new Product(name, 0.99 + i % 50, 1_000_000)
+                    : new ShippableProduct(name, 0.99 + i % 50, 1_000_000, 0.1 + i % 7);
+                cart.add(product, 1 + i % 5);
+            }
+        } finally {
+            System.setOut(console);
+        }
+        Map<Product, Integer> items = cart.getItems();
+        FxRates.Rate dollars = FxRates.getCurrent().getBase();
+
+        int passes = Math.max(5, 2_000_000 / lines);
+        double[] walked = new double[3];
+        double walkNanos = measure(() -> {
+            double check = 0;
+            for (int p = 0; p < passes; p++) {
+                double subtotal = 0;
+                List<Shippable> shippable = new ArrayList<>();
+                for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                    Product product = entry.getKey();
+                    subtotal += product.getPrice(dollars) * entry.getValue();
+                    if (product instanceof Shippable) {
+                        shippable.add((Shippable) product);
+                    }
+                }
+                double weight = 0;
+                for (Shippable item : shippable) {
+                    weight += item.getWeight() * items.get((Product) item);
+                }
+                double tax = 0;
+                for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                    Product product = entry.getKey();
+                    tax += product.getPrice(dollars) * entry.getValue() * product.getTaxCategory().getRate();
+                }
+                walked[0] = subtotal;
+                walked[1] = weight;
+                walked[2] = tax;
+                check += subtotal + weight + tax;
+            }
+            sink = check;
+        });
+        double[] summed = new double[3];
+        double columnNanos = measure(() -> {
+            double check = 0;
+            for (int p = 0; p < passes; p++) {
+                CartColumns columns = new CartColumns(items.size());
+                for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+                    Product product = entry.getKey();
+                    columns.price(columns.add(product, entry.getValue()), product.getPrice(dollars));
+                }
+                summed[0] = columns.subtotal();
+                summed[1] = columns.weight();
+                summed[2] = columns.tax();
+                check += summed[0] + summed[1] + summed[2];
+            }
+            sink = check;
+        });
+        CartColumns filled = new CartColumns(items.size());
+        for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+            filled.price(filled.add(entry.getKey(), entry.getValue()), entry.getKey().getPrice(dollars));
+        }
+        double sumNanos = measure(() -> {
+            double check = 0;
+            for (int p = 0; p < passes; p++) {
+                check += filled.subtotal() + filled.weight() + filled.tax();
+            }
+            sink = check;
+        });
+        long totalled = (long) passes * lines;
+        System.out.printf("%-30s %6.2f ns per line%n", "Map walks, line by line:", walkNanos / totalled);
+        System.out.printf("%-30s %6.2f ns per line (%.1fx)%n", "One walk into columns + sums:",
+            columnNanos / totalled, walkNanos / columnNanos);
+        System.out.printf("%-30s %6.2f ns per line (%.1fx)%n", "Column sums alone:",
+            sumNanos / totalled, walkNanos / sumNanos);
+        System.out.printf("Subtotal %.2f vs %.2f, weight %.2f vs %.2f, tax %.2f vs %.2f%n",
+            walked[0], summed[0], walked[1], summed[1], walked[2], summed[2]);
+
+        Customer customer = new Customer("Columnar Benchmark", 1e15);
+        int quotes = Math.max(5, 200_000 / lines);
+        double quoteNanos = measure(() -> {
+            double total = 0;
+            for (int q = 0; q < quotes; q++) {
+                total += CheckoutService.quote(customer, cart).getTotal();
+            }
+            sink = total;
+        });
+        System.out.printf("Quote: %.1f us per cart%n", quoteNanos / quotes / 1000);
+    }
+
+    /**
+     * Validates and prices carts of growing size on the calling thread against
+     * fork/join tasks on the common pool, then with a sold-out line early in
+     * the cart to show both stopping at the first failure.
+     */
+    private static void runParallelValidation(int lines) throws Exception {
+        System.out.println("PARALLEL VALIDATION BENCHMARK (" + lines + " cart lines)");
+        System.out.println("================================================");
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        System.out.printf("%d cores, common pool parallelism %d; checkout validates in parallel from %d lines%s%n",
+            Runtime.getRuntime().availableProcessors(), parallelism, CheckoutService.PARALLEL_VALIDATION_LINES,
+            parallelism > 1 ? "" : " (off here, one worker)");
+
+        FxRates.Rate dollars = FxRates.getCurrent().getBase();
+        System.out.printf("%-12s %14s %14s %8s%n", "Lines", "Sequential", "Fork/join", "Speedup");
+        for (int size : new int[] {1_000, CheckoutService.PARALLEL_VALIDATION_LINES, lines}) {
+            Cart cart = largeCart(size);
+            CartColumns columns = columnsOf(cart);
+            int passes = Math.max(5, 1_000_000 / size);
+            CheckoutResult[] failures = new CheckoutResult[1];
+            double sequentialNanos = measure(() -> {
+                for (int p = 0; p < passes; p++) {
+                    failures[0] = CheckoutService.validateColumns(cart, columns, dollars, false);
+                    sink = failures[0] == null ? p : -p;
+                }
+            });
+            double parallelNanos = measure(() -> {
+                for (int p = 0; p < passes; p++) {
+                    failures[0] = CheckoutService.validateColumns(cart, columns, dollars, true);
+                    sink = failures[0] == null ? p : -p;
+                }
+            });
+            System.out.printf("%-12d %11.1f us %11.1f us %7.2fx%n", size,
+                sequentialNanos / passes / 1000, parallelNanos / passes / 1000, sequentialNanos / parallelNanos);
+        }
+
+        Cart cart = largeCart(lines);
+        CartColumns columns = columnsOf(cart);
+        Product soldOut = columns.product(lines / 10);
+        soldOut.decreaseQuantity(soldOut.getQuantity());
+        int passes = Math.max(5, 1_000_000 / lines);
+        CheckoutResult[] failures = new CheckoutResult[2];
+        double sequentialNanos = measure(() -> {
+            for (int p = 0; p < passes; p++) {
+                failures[0] = CheckoutService.validateColumns(cart, columns, dollars, false);
+            }
+        });
+        double parallelNanos = measure(() -> {
+            for (int p = 0; p < passes; p++) {
+                failures[1] = CheckoutService.validateColumns(cart, columns, dollars, true);
+            }
+        });
+        System.out.printf("Sold out at line %d: sequential %.1f us (%s), fork/join %.1f us (%s)%n", lines / 10,
+            sequentialNanos / passes / 1000, failures[0].getProductName(),
+            parallelNanos / passes / 1000, failures[1].getProductName());
+    }
+
+    private static Cart largeCart(int lines) throws Exception {
+        Cart cart = new Cart();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new CountingOutputStream()));
+        try {
+            for (int i = 0; i < lines; i++) {
+                String name = "Part " + i;
+                Product product = i % 3 == 0
+                    ? new Product(name, 0.99 + i % 50, 1_000_000)
+                    : new ShippableProduct(name, 0.99 + i % 50, 1_000_000, 0.1 + i % 7);
+                cart.add(product, 1 + i % 5);
+            }
+        } finally {
+            System.setOut(console);
+        }
+        return cart;
+    }
+
+    /**
+     * Gets the lines of a cart in the order checkout walks them.
+     */
+    private static CartColumns columnsOf(Cart cart) {
+        Map<Product, Integer> items = cart.getItems();
+        CartColumns columns = new CartColumns(items.size());
+        for (Map.Entry<Product, Integer> entry : items.entrySet()) {
+            columns.add(entry.getKey(), entry.getValue());
+        }
+        return columns;
+    }
+
+    private static void printThroughput(String label, int operations, double nanos) {
+        System.out.printf("%-24s %12.0f ops/s (%.1f ns/op)%n",
+            label + ":", operations / (nanos / 1e9), nanos / operations);
+    }
+
+    /**
+     * Runs the task through warmup rounds and returns the best measured time.
+     *
+     * @return Fastest round in nanoseconds
+     */
+    private static double measure(Runnable task) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            task.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
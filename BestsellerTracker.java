@@ -0,0 +1,255 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import utils.SpaceSaving;
+
+/**
+ * Live top sellers by units and by revenue, fed by every successful checkout.
+ * Totals are kept in two Space-Saving summaries of fixed size, so memory does
+ * not grow with the catalog or with order history; products that sell more
+ * than 1/capacity of all units (or revenue) are always reported, with counts
+ * that may overestimate by at most the reported error.
+ *
+ * Checkout threads add sales to a buffer of their own, so recording costs an
+ * uncontended lock and a hash map update. A full buffer is handed to a
+ * background merger thread, which folds it into the shared summaries off the
+ * checkout path; only if the merger falls behind do recording threads merge
+ * too. Asking for the top sellers folds in everything still pending.
+ */
+public class BestsellerTracker {
+    private static final int DEFAULT_CAPACITY = 1024;
+    // A thread's sales are folded in once it has this many distinct products buffered
+    private static final int FLUSH_THRESHOLD = 256;
+    // Beyond this many full buffers waiting, the merger is not keeping up and recording threads help
+    private static final int MAX_PENDING = 16;
+
+    private static final BestsellerTracker INSTANCE = new BestsellerTracker(DEFAULT_CAPACITY);
+
+    private final SpaceSaving<Product> units;
+    private final SpaceSaving<Product> revenueCents;
+    private final CopyOnWriteArrayList<Buffer> buffers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Buffer> localBuffer = ThreadLocal.withInitial(this::newBuffer);
+    // Full buffers waiting for the merger, and emptied ones ready for reuse
+    private final ConcurrentLinkedQueue<Map<Product, long[]>> pending = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Map<Product, long[]>> spares = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private volatile Thread merger;
+
+    /**
+     * Creates a tracker.
+     *
+     * @param capacity Number of products each summary counts at once
+     */
+    public BestsellerTracker(int capacity) {
+        this.units = new SpaceSaving<>(capacity);
+        this.revenueCents = new SpaceSaving<>(capacity);
+    }
+
+    /**
+     * Gets the tracker fed by CheckoutService.
+     */
+    public static BestsellerTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records units of a product sold in one order.
+     *
+     * @param product Product sold
+     * @param quantity Units sold
+     * @param revenue Amount the line sold for
+     */
+    public void record(Product product, int quantity, double revenue) {
+        Buffer buffer = localBuffer.get();
+        Map<Product, long[]> full = null;
+        synchronized (buffer) {
+            long[] tally = buffer.sales.get(product);
+            if (tally == null) {
+                tally = new long[2];
+                buffer.sales.put(product, tally);
+            }
+            tally[0] += quantity;
+            tally[1] += Math.round(revenue * 100);
+            if (buffer.sales.size() >= FLUSH_THRESHOLD) {
+                full = buffer.sales;
+                Map<Product, long[]> spare = spares.poll();
+                buffer.sales = spare != null ? spare : new HashMap<>();
+            }
+        }
+        if (full != null) {
+            pending.offer(full);
+            if (pendingCount.incrementAndGet() > MAX_PENDING) {
+                synchronized (this) {
+                    mergePending();
+                }
+            } else {
+                LockSupport.unpark(merger());
+            }
+        }
+    }
+
+    /**
+     * Gets the best sellers by units sold.
+     *
+     * @param n Maximum number of products
+     * @return Best sellers, most units first
+     */
+    public List<Bestseller> topByUnits(int n) {
+        List<Bestseller> top = new ArrayList<>();
+        synchronized (this) {
+            flushAll();
+            for (SpaceSaving.Counter<Product> counter : units.top(n)) {
+                top.add(new Bestseller(counter.getKey(), counter.getCount(), counter.getError()));
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Gets the best sellers by revenue.
+     *
+     * @param n Maximum number of products
+     * @return Best sellers, highest revenue first; amounts are in cents
+     */
+    public List<Bestseller> topByRevenue(int n) {
+        List<Bestseller> top = new ArrayList<>();
+        synchronized (this) {
+            flushAll();
+            for (SpaceSaving.Counter<Product> counter : revenueCents.top(n)) {
+                top.add(new Bestseller(counter.getKey(), counter.getCount(), counter.getError()));
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Gets the total units recorded, including products no longer counted individually.
+     */
+    public synchronized long getTotalUnits() {
+        flushAll();
+        return units.getTotal();
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public synchronized void reset() {
+        flushAll();
+        units.clear();
+        revenueCents.clear();
+    }
+
+    private Buffer newBuffer() {
+        Buffer buffer = new Buffer();
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    private Thread merger() {
+        Thread thread = merger;
+        if (thread == null) {
+            synchronized (this) {
+                if (merger == null) {
+                    thread = new Thread(this::runMerger, "bestseller-merger");
+                    thread.setDaemon(true);
+                    thread.start();
+                    merger = thread;
+                }
+                thread = merger;
+            }
+        }
+        return thread;
+    }
+
+    private void runMerger() {
+        while (true) {
+            if (pending.isEmpty()) {
+                LockSupport.park(this);
+            }
+            synchronized (this) {
+                mergePending();
+            }
+        }
+    }
+
+    /**
+     * Folds in all buffers handed over so far and every thread's partial buffer. Must hold the tracker lock.
+     */
+    private void flushAll() {
+        mergePending();
+        for (Buffer buffer : buffers) {
+            synchronized (buffer) {
+                merge(buffer.sales);
+            }
+            if (!buffer.owner.isAlive()) {
+                buffers.remove(buffer); // its thread can no longer record
+            }
+        }
+    }
+
+    private void mergePending() {
+        Map<Product, long[]> sales;
+        while ((sales = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            merge(sales);
+            spares.offer(sales);
+        }
+    }
+
+    /**
+     * Moves buffered sales into the summaries and empties the buffer. Must hold the tracker lock.
+     */
+    private void merge(Map<Product, long[]> sales) {
+        for (Map.Entry<Product, long[]> entry : sales.entrySet()) {
+            units.add(entry.getKey(), entry.getValue()[0]);
+            revenueCents.add(entry.getKey(), entry.getValue()[1]);
+        }
+        sales.clear();
+    }
+
+    /**
+     * Sales recorded by one thread and not yet folded into the summaries: units and revenue in cents.
+     */
+    private static final class Buffer {
+        final Thread owner = Thread.currentThread();
+        Map<Product, long[]> sales = new HashMap<>(); // guarded by the buffer
+    }
+
+    /**
+     * Estimated sales of one product.
+     */
+    public static final class Bestseller {
+        private final Product product;
+        private final long amount;
+        private final long error;
+
+        Bestseller(Product product, long amount, long error) {
+            this.product = product;
+            this.amount = amount;
+            this.error = error;
+        }
+
+        public Product getProduct() {
+            return product;
+        }
+
+        /**
+         * Gets the estimated units, or revenue in cents; never below the true figure.
+         */
+        public long getAmount() {
+            return amount;
+        }
+
+        /**
+         * Gets the most by which the amount may overestimate.
+         */
+        public long getError() {
+            return error;
+        }
+    }
+}
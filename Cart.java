@@ -1,35 +1,107 @@
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import exceptions.*;
 import utils.ConsoleFormatter;
+import utils.ReceiptRenderer;
+import utils.ReceiptTemplate;
 
 /**
  * Enhanced shopping cart with comprehensive validation and error handling.
  * Supports adding/removing items with proper stock validation.
+ *
+ * A coupon from a {@link CouponBook} can be applied; it is only redeemed when
+ * the cart is checked out.
+ *
+ * The subtotal, item count and the {@link CartDiscount}s they qualify for are
+ * updated with every change, so a storefront can show the savings so far after
+ * each click without walking the cart.
+ *
+ * The cart is thread-safe: additions and removals are lock-free updates of a
+ * concurrent map. While a checkout is running the cart is frozen, so checkout
+ * sees one consistent set of items; changes made during that time are rejected
+ * with an IllegalStateException and are accepted again once checkout finishes.
  */
 public class Cart {
-    private Map<Product, Integer> items = new HashMap<>();
+    // Cart contents layout, compiled once; see ReceiptTemplate for the syntax
+    private static final ReceiptTemplate CONTENTS_TEMPLATE = ReceiptTemplate.compile(
+        "\n"
+        + "{@bold}Cart Contents:{@reset}\n"
+        + "{%─:40}\n"
+        + "{#lines}{quantity:int:<3}x {name:<15} {amount:money:>10}\n{/lines}"
+        + "{%─:40}\n"
+        + "{'Cart Total:':<20} {total:money:>10}\n",
+        ConsoleFormatter.consoleCharset());
+    private static final int CONTENTS_LINES = CONTENTS_TEMPLATE.slot("lines");
+    private static final int CONTENTS_QUANTITY = CONTENTS_TEMPLATE.slot("quantity");
+    private static final int CONTENTS_NAME = CONTENTS_TEMPLATE.slot("name");
+    private static final int CONTENTS_AMOUNT = CONTENTS_TEMPLATE.slot("amount");
+    private static final int CONTENTS_TOTAL = CONTENTS_TEMPLATE.slot("total");
+    private static final ThreadLocal<ReceiptTemplate.Data> CONTENTS_DATA =
+        ThreadLocal.withInitial(CONTENTS_TEMPLATE::newData);
+    private static final ThreadLocal<ReceiptRenderer> CONTENTS_RENDERER =
+        ThreadLocal.withInitial(() -> new ReceiptRenderer(ConsoleFormatter.consoleCharset(), true));
+
+    // Low bits count writers inside add/remove/clear, high bits count checkouts in progress
+    private static final int CHECKOUT_UNIT = 1 << 16;
+    private static final int WRITER_MASK = CHECKOUT_UNIT - 1;
+
+    private final ConcurrentHashMap<Product, Integer> items = new ConcurrentHashMap<>();
+    private final Map<Product, Integer> readOnlyItems = Collections.unmodifiableMap(items);
+    private final AtomicInteger state = new AtomicInteger();
+    private final ReservationManager reservations;
+    private final ConcurrentHashMap<Product, ConcurrentLinkedDeque<ReservationManager.Reservation>> reserved =
+        new ConcurrentHashMap<>();
+    private volatile CouponBook.Coupon coupon;
+    private final AtomicReference<Summary> summary = new AtomicReference<>(Summary.EMPTY);
+
+    /**
+     * Creates a cart that checks stock when items are added but doesn't reserve it.
+     */
+    public Cart() {
+        this(null);
+    }
+
+    /**
+     * Creates a cart that reserves stock for the items added to it. Reserved units
+     * are held until checkout, removal from the cart or the end of the reservation
+     * time to live, whichever comes first.
+     *
+     * @param reservations Reservation manager to reserve stock with, or null not to reserve
+     */
+    public Cart(ReservationManager reservations) {
+        this.reservations = reservations;
+    }
 
     /**
      * Adds a product to the cart with specified quantity.
+     * Safe to call from several threads at once, e.g. when the same customer
+     * shops from more than one device.
      *
      * @param product Product to add
      * @param quantity Quantity to add
      * @throws InsufficientStockException if requested quantity exceeds available stock
      * @throws IllegalArgumentException if product is null or quantity is invalid
+     * @throws IllegalStateException if the cart is being checked out
      */
     public void add(Product product, int quantity) throws InsufficientStockException {
         validateAddRequest(product, quantity);
 
-        int currentQuantity = items.getOrDefault(product, 0);
-        int totalQuantity = currentQuantity + quantity;
-
-        // Check if total quantity would exceed available stock
-        if (totalQuantity > product.getQuantity()) {
-            throw new InsufficientStockException(product.getName(), totalQuantity, product.getQuantity());
+        beginWrite();
+        try {
+            if (reservations != null) {
+                addReserved(product, quantity);
+            } else {
+                addUnreserved(product, quantity);
+            }
+        } finally {
+            endWrite();
         }
-
-        items.put(product, totalQuantity);
         System.out.println(ConsoleFormatter.success("Added " + quantity + " x " + product.getName() + " to cart."));
     }
 
@@ -38,35 +110,246 @@ public class Cart {
      *
      * @param product Product to remove
      * @param quantity Quantity to remove (if 0 or greater than current, removes all)
+     * @throws IllegalStateException if the cart is being checked out
      */
     public void remove(Product product, int quantity) {
         if (product == null) {
             throw new IllegalArgumentException("Product cannot be null");
         }
 
-        if (!items.containsKey(product)) {
-            System.out.println(ConsoleFormatter.warning("Product " + product.getName() + " is not in the cart."));
-            return;
-        }
-
-        int currentQuantity = items.get(product);
-        if (quantity <= 0 || quantity >= currentQuantity) {
-            items.remove(product);
-            System.out.println(ConsoleFormatter.success("Removed all " + product.getName() + " from cart."));
-        } else {
-            items.put(product, currentQuantity - quantity);
-            System.out.println(ConsoleFormatter.success("Removed " + quantity + " x " + product.getName() + " from cart."));
+        String message;
+        int removedUnits = 0;
+        beginWrite();
+        try {
+            while (true) {
+                Integer currentQuantity = items.get(product);
+                if (currentQuantity == null) {
+                    message = ConsoleFormatter.warning("Product " + product.getName() + " is not in the cart.");
+                    break;
+                }
+                if (quantity <= 0 || quantity >= currentQuantity) {
+                    if (items.remove(product, currentQuantity)) {
+                        updateSummary(product, -currentQuantity);
+                        removedUnits = Integer.MAX_VALUE;
+                        message = ConsoleFormatter.success("Removed all " + product.getName() + " from cart.");
+                        break;
+                    }
+                } else if (items.replace(product, currentQuantity, currentQuantity - quantity)) {
+                    updateSummary(product, -quantity);
+                    removedUnits = quantity;
+                    message = ConsoleFormatter.success("Removed " + quantity + " x " + product.getName() + " from cart.");
+                    break;
+                }
+            }
+            releaseReserved(product, removedUnits);
+        } finally {
+            endWrite();
         }
+        System.out.println(message);
     }
 
     /**
      * Clears all items from the cart.
+     *
+     * @throws IllegalStateException if the cart is being checked out
      */
     public void clear() {
-        items.clear();
+        beginWrite();
+        try {
+            for (Product product : items.keySet()) {
+                // Remove line by line, so lines added meanwhile stay counted in the summary
+                Integer quantity = items.remove(product);
+                if (quantity != null) {
+                    updateSummary(product, -quantity);
+                }
+                releaseReserved(product, Integer.MAX_VALUE);
+            }
+        } finally {
+            endWrite();
+        }
         System.out.println(ConsoleFormatter.success("Cart cleared."));
     }
 
+    /**
+     * Applies a coupon to the cart, replacing any applied before. The coupon
+     * must have uses left now; it is redeemed at checkout.
+     *
+     * @param book Book holding the code
+     * @param code Coupon code as typed by the customer
+     * @throws CouponUnavailableException if the code is unknown or used up
+     * @throws IllegalStateException if the cart is being checked out
+     */
+    public void applyCoupon(CouponBook book, String code) throws CouponUnavailableException {
+        CouponBook.Coupon found = book.find(code);
+        if (found == null || !found.isAvailable()) {
+            throw new CouponUnavailableException(code);
+        }
+        beginWrite();
+        try {
+            coupon = found;
+        } finally {
+            endWrite();
+        }
+        System.out.println(ConsoleFormatter.success("Applied coupon " + found + "."));
+    }
+
+    /**
+     * Removes the applied coupon, if any.
+     *
+     * @throws IllegalStateException if the cart is being checked out
+     */
+    public void removeCoupon() {
+        beginWrite();
+        try {
+            coupon = null;
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Gets the applied coupon.
+     *
+     * @return The coupon, or null if none is applied
+     */
+    public CouponBook.Coupon getCoupon() {
+        return coupon;
+    }
+
+    /**
+     * Checks whether a checkout of this cart is in progress. Changes to the
+     * cart are rejected while it is.
+     *
+     * @return true if the cart is being checked out
+     */
+    public boolean isCheckingOut() {
+        return state.get() >= CHECKOUT_UNIT;
+    }
+
+    /**
+     * Freezes the cart for a checkout. New changes are rejected from now on, and
+     * changes already in progress are waited for, so the contents stay the same
+     * until {@link #endCheckout()}. Several checkouts of one cart may overlap.
+     */
+    void beginCheckout() {
+        state.addAndGet(CHECKOUT_UNIT);
+        while ((state.get() & WRITER_MASK) != 0) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Reopens the cart for changes once the last running checkout has finished.
+     */
+    void endCheckout() {
+        state.addAndGet(-CHECKOUT_UNIT);
+    }
+
+    /**
+     * Gets the number of units of a product this cart still holds reservations for.
+     */
+    int getReservedQuantity(Product product) {
+        ConcurrentLinkedDeque<ReservationManager.Reservation> held = reserved.get(product);
+        if (held == null) {
+            return 0;
+        }
+        int units = 0;
+        for (ReservationManager.Reservation reservation : held) {
+            units += reservation.getQuantity();
+        }
+        return units;
+    }
+
+    /**
+     * Hands the units reserved for a product over to an order, ending their reservations.
+     *
+     * @return Number of units that were still reserved
+     */
+    int consumeReserved(Product product) {
+        ConcurrentLinkedDeque<ReservationManager.Reservation> held = reserved.remove(product);
+        if (held == null) {
+            return 0;
+        }
+        int units = 0;
+        for (ReservationManager.Reservation reservation : held) {
+            units += reservation.consume();
+        }
+        return units;
+    }
+
+    private void addUnreserved(Product product, int quantity) throws InsufficientStockException {
+        while (true) {
+            Integer currentQuantity = items.get(product);
+            int totalQuantity = (currentQuantity == null ? 0 : currentQuantity) + quantity;
+
+            // Check if total quantity would exceed available stock
+            if (totalQuantity > product.getQuantity()) {
+                throw new InsufficientStockException(product.getName(), totalQuantity, product.getQuantity());
+            }
+
+            boolean updated = currentQuantity == null
+                ? items.putIfAbsent(product, totalQuantity) == null
+                : items.replace(product, currentQuantity, totalQuantity);
+            if (updated) {
+                updateSummary(product, quantity);
+                return;
+            }
+        }
+    }
+
+    private void addReserved(Product product, int quantity) throws InsufficientStockException {
+        ReservationManager.Reservation reservation = reservations.reserve(product, quantity);
+        if (reservation == null) {
+            int totalQuantity = items.getOrDefault(product, 0) + quantity;
+            int available = getReservedQuantity(product) + product.getQuantity();
+            throw new InsufficientStockException(product.getName(), totalQuantity, available);
+        }
+        reserved.computeIfAbsent(product, p -> new ConcurrentLinkedDeque<>()).push(reservation);
+        items.merge(product, quantity, Integer::sum);
+        updateSummary(product, quantity);
+    }
+
+    /**
+     * Gives reserved units of a product back to stock, newest reservations first.
+     */
+    private void releaseReserved(Product product, int units) {
+        ConcurrentLinkedDeque<ReservationManager.Reservation> held = reserved.get(product);
+        if (held == null) {
+            return;
+        }
+        for (ReservationManager.Reservation reservation : held) {
+            if (units <= 0) {
+                break;
+            }
+            units -= reservation.release(units);
+        }
+        held.removeIf(reservation -> reservation.getQuantity() == 0);
+    }
+
+    /**
+     * Adds a change of quantity to the running totals.
+     */
+    private void updateSummary(Product product, int units) {
+        long cents = Math.round(product.getPrice() * 100) * units;
+        summary.updateAndGet(current -> current.plus(cents, units));
+    }
+
+    private void beginWrite() {
+        while (true) {
+            int current = state.get();
+            if (current >= CHECKOUT_UNIT) {
+                throw new IllegalStateException("Cart cannot be changed while it is being checked out");
+            }
+            if (state.compareAndSet(current, current + 1)) {
+                return;
+            }
+        }
+    }
+
+    private void endWrite() {
+        state.decrementAndGet();
+    }
+
     /**
      * Displays the current cart contents in a formatted way.
      */
@@ -76,9 +359,7 @@ public class Cart {
             return;
         }
 
-        System.out.println("\n" + ConsoleFormatter.BOLD + "Cart Contents:" + ConsoleFormatter.RESET);
-        System.out.println(ConsoleFormatter.createSeparator('─', 40));
-
+        ReceiptTemplate.Data data = CONTENTS_DATA.get().clear();
         double total = 0;
         for (Map.Entry<Product, Integer> entry : items.entrySet()) {
             Product product = entry.getKey();
@@ -86,13 +367,21 @@ public class Cart {
             double itemTotal = product.getPrice() * quantity;
             total += itemTotal;
 
-            System.out.println(ConsoleFormatter.formatLineItem(
-                quantity, product.getName(), ConsoleFormatter.formatCurrency(itemTotal), 15));
+            data.addRow(CONTENTS_LINES);
+            data.set(CONTENTS_QUANTITY, quantity);
+            data.set(CONTENTS_NAME, product.getName());
+            data.set(CONTENTS_AMOUNT, itemTotal);
         }
+        data.set(CONTENTS_TOTAL, total);
 
-        System.out.println(ConsoleFormatter.createSeparator('─', 40));
-        System.out.println(ConsoleFormatter.formatSummaryLine(
-            "Cart Total:", ConsoleFormatter.formatCurrency(total), 20));
+        ReceiptRenderer renderer = CONTENTS_RENDERER.get();
+        renderer.render(CONTENTS_TEMPLATE, data);
+        try {
+            renderer.writeTo(System.out);
+        } catch (IOException e) {
+            renderer.clear();
+            throw new UncheckedIOException(e);
+        }
     }
 
     private void validateAddRequest(Product product, int quantity) {
@@ -103,10 +392,122 @@ public class Cart {
             throw new IllegalArgumentException("Quantity must be positive");
         }
     }
+    /**
+     * Gets a read-only view of the cart contents. While a checkout is in
+     * progress the contents do not change.
+     *
+     * @return Products in the cart mapped to their quantities
+     */
     public Map<Product, Integer> getItems() {
-        return items;
+        return readOnlyItems;
     }
     public boolean isEmpty() {
         return items.isEmpty();
     }
+
+    /**
+     * Gets the running totals of the cart and the cart discounts they qualify for.
+     */
+    public Summary getSummary() {
+        return summary.get();
+    }
+
+    public double getSubtotal() {
+        return summary.get().getSubtotal();
+    }
+
+    /**
+     * Gets the total number of units in the cart.
+     */
+    public int getItemCount() {
+        return summary.get().getItemCount();
+    }
+
+    /**
+     * Gets the savings the cart qualifies for so far: the cart discounts plus
+     * the applied coupon. Discounts that depend on the customer, such as the
+     * welcome discount, are only known at checkout.
+     */
+    public double getSavings() {
+        Summary current = summary.get();
+        double savings = current.getDiscount();
+        CouponBook.Coupon applied = coupon;
+        if (applied != null) {
+            double subtotal = current.getSubtotal();
+            savings += Math.min(applied.getOffer().discountFor(subtotal), subtotal - savings);
+        }
+        return savings;
+    }
+
+    /**
+     * Running totals of a cart. Each change to the cart swaps in a new summary
+     * worked out from the previous one and the change, so eligibility for each
+     * threshold is re-checked in constant time, whatever the size of the cart.
+     */
+    public static final class Summary {
+        private static final CartDiscount[] RULES = CartDiscount.values();
+        static final Summary EMPTY = new Summary(0, 0);
+
+        private final long subtotalCents;
+        private final int itemCount;
+        private final int eligible; // one bit per CartDiscount, by ordinal
+        private final double discount;
+
+        private Summary(long subtotalCents, int itemCount) {
+            this.subtotalCents = subtotalCents;
+            this.itemCount = itemCount;
+            double subtotal = subtotalCents / 100.0;
+            int bits = 0;
+            double total = 0;
+            for (CartDiscount rule : RULES) {
+                if (rule.appliesTo(subtotal, itemCount)) {
+                    bits |= 1 << rule.ordinal();
+                    total += rule.amountOf(subtotal);
+                }
+            }
+            this.eligible = bits;
+            this.discount = total;
+        }
+
+        Summary plus(long cents, int units) {
+            return new Summary(subtotalCents + cents, itemCount + units);
+        }
+
+        public double getSubtotal() {
+            return subtotalCents / 100.0;
+        }
+
+        public int getItemCount() {
+            return itemCount;
+        }
+
+        public boolean isEligible(CartDiscount rule) {
+            return (eligible & (1 << rule.ordinal())) != 0;
+        }
+
+        /**
+         * Gets the total of the cart discounts that apply.
+         */
+        public double getDiscount() {
+            return discount;
+        }
+
+        /**
+         * Gets how much more the cart must be worth for a discount to apply.
+         *
+         * @return Amount still to spend, or 0 if the subtotal is already high enough
+         */
+        public double getRemainingSpend(CartDiscount rule) {
+            return Math.max(0, rule.getMinimumSubtotal() - getSubtotal());
+        }
+
+        /**
+         * Gets how many more units the cart must hold for a discount to apply.
+         *
+         * @return Units still to add, or 0 if the cart holds enough
+         */
+        public int getRemainingItems(CartDiscount rule) {
+            return Math.max(0, rule.getMinimumItems() - itemCount);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+import java.util.Arrays;
+
+/**
+ * The lines of a large cart as parallel primitive arrays, for pricing orders
+ * with thousands of lines.
+ *
+ * Walking the cart's map costs a few pointer hops and an unboxing per line,
+ * and each total (subtotal, tax, weight) used to need a walk of its own. The
+ * columns are filled in the one walk checkout makes anyway, and each total is
+ * then a tight loop over doubles. Lines are added first and priced afterwards,
+ * by index, so large carts can be priced by several threads at once; see
+ * CheckoutService. The loops keep four independent partial sums
+ * so that consecutive additions don't wait on each other; the sums are added in
+ * a different order than a line-by-line walk, so totals can differ from one in
+ * the last bits. Checkouts, printed or not, and quotes all use the columns
+ * above the same threshold, so they always agree.
+ *
+ * A columns object belongs to one checkout or quote. Lines must be added from
+ * one thread; pricing different lines from different threads is safe as long
+ * as the totals are read after all of them have finished.
+ */
+final class CartColumns {
+    /**
+     * Carts with fewer lines are priced line by line; below this filling the
+     * columns costs more than it saves.
+     */
+    static final int MIN_LINES = 256;
+
+    private Product[] products;
+    private int[] quantities;
+    private double[] amounts;  // price x quantity, in the currency of the order
+    private double[] taxRates;
+    private double[] weights;  // weight x quantity in kg, 0 for products that aren't shippable
+    private int size;
+    private boolean shippable;
+
+    /**
+     * Creates empty columns.
+     *
+     * @param capacity Expected number of lines
+     */
+    CartColumns(int capacity) {
+        capacity = Math.max(capacity, 16);
+        products = new Product[capacity];
+        quantities = new int[capacity];
+        amounts = new double[capacity];
+        taxRates = new double[capacity];
+        weights = new double[capacity];
+    }
+
+    /**
+     * Appends a line, to be priced with {@link #price(int, double)}.
+     *
+     * @param product Product on the line
+     * @param quantity Units of the product
+     * @return Index of the line
+     */
+    int add(Product product, int quantity) {
+        if (size == products.length) {
+            grow();
+        }
+        products[size] = product;
+        quantities[size] = quantity;
+        return size++;
+    }
+
+    /**
+     * Fills in the amount, tax rate and weight of a line.
+     *
+     * @param line Index of the line
+     * @param price Unit price in the currency of the order
+     */
+    void price(int line, double price) {
+        Product product = products[line];
+        int quantity = quantities[line];
+        amounts[line] = price * quantity;
+        taxRates[line] = product.getTaxCategory().getRate();
+        if (product instanceof Shippable) {
+            weights[line] = ((Shippable) product).getWeight() * quantity;
+            shippable = true;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    Product product(int line) {
+        return products[line];
+    }
+
+    int quantity(int line) {
+        return quantities[line];
+    }
+
+    private void grow() {
+        int capacity = products.length * 2;
+        products = Arrays.copyOf(products, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        taxRates = Arrays.copyOf(taxRates, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+    }
+
+    /**
+     * Checks whether any line has to be shipped.
+     */
+    boolean hasShippable() {
+        return shippable;
+    }
+
+    /**
+     * Gets the total of all lines before discounts.
+     */
+    double subtotal() {
+        return sum(amounts, size);
+    }
+
+    /**
+     * Gets the tax on all lines, each at its product's rate.
+     */
+    double tax() {
+        return dot(amounts, taxRates, size);
+    }
+
+    /**
+     * Gets the total weight of the shippable lines in kg.
+     */
+    double weight() {
+        return sum(weights, size);
+    }
+
+    /**
+     * Adds up the first n values with four independent partial sums.
+     */
+    private static double sum(double[] values, int n) {
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += values[i];
+            s1 += values[i + 1];
+            s2 += values[i + 2];
+            s3 += values[i + 3];
+        }
+        for (; i < n; i++) {
+            s0 += values[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Adds up the products of the first n pairs of values with four independent partial sums.
+     */
+    private static double dot(double[] a, double[] b, int n) {
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < n; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Discounts that depend only on what is in the cart: a share of the subtotal
+ * once the subtotal or the number of items reaches a threshold. Carts track
+ * which of them apply as items come and go; CheckoutService applies them at
+ * checkout.
+ */
+public enum CartDiscount {
+    // Orders of $300 or more
+    LARGE_ORDER("Large Order Discount (10% off)", 300, 0, 0.10),
+    // Orders of $1000 or more
+    VIP("VIP Discount (15% off)", 1000, 0, 0.15),
+    // Five or more items in total
+    MULTI_ITEM("Multi-Item Discount (5% off)", 0, 5, 0.05);
+
+    private final String label;
+    private final double minimumSubtotal;
+    private final int minimumItems;
+    private final double rate;
+
+    CartDiscount(String label, double minimumSubtotal, int minimumItems, double rate) {
+        this.label = label;
+        this.minimumSubtotal = minimumSubtotal;
+        this.minimumItems = minimumItems;
+        this.rate = rate;
+    }
+
+    /**
+     * Gets the text shown for the discount on receipts.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    public double getMinimumSubtotal() {
+        return minimumSubtotal;
+    }
+
+    public int getMinimumItems() {
+        return minimumItems;
+    }
+
+    /**
+     * Gets the share of the subtotal taken off, e.g. 0.10 for 10%.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Checks whether the discount applies to a cart.
+     *
+     * @param subtotal Cart subtotal before discounts
+     * @param items Total number of units in the cart
+     */
+    public boolean appliesTo(double subtotal, int items) {
+        return subtotal >= minimumSubtotal && items >= minimumItems;
+    }
+
+    /**
+     * Gets the amount taken off a subtotal when the discount applies.
+     */
+    public double amountOf(double subtotal) {
+        return subtotal * rate;
+    }
+}
@@ -0,0 +1,499 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import utils.InvertedIndex;
+import utils.SortedLongIndex;
+
+/**
+ * Secondary indexes over a catalog of products, for storefront listings filtered
+ * by price band, weight, stock level and expiry date.
+ *
+ * Products get dense ids in the order they are added. Price, weight and expiry
+ * are kept both as columns indexed by id and as ids sorted by value, so a range
+ * on any of them is a binary search; a query walks the narrowest of its ranges
+ * and checks the other conditions against the columns. Stock is a column kept
+ * current through each product's {@link ProductListener}, so "in stock" filters
+ * follow checkouts, reservations and restocks as they happen.
+ *
+ * Names go into an {@link InvertedIndex} as products are added, for word and
+ * search-as-you-type lookups.
+ *
+ * The sorted indexes are rebuilt on the first query after products are added or
+ * an expiry date changes; querying is lock-free and safe from any thread.
+ */
+public class CatalogIndex {
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private final int capacity;
+    private final Product[] products;
+    private final double[] prices;
+    private final double[] weights;
+    private final long[] expiryDays;
+    private final AtomicIntegerArray quantities;
+    private final InvertedIndex names = new InvertedIndex();
+    private int size; // guarded by this
+    private volatile Snapshot snapshot = new Snapshot(0, new long[0], new long[0], new long[0]);
+    private volatile boolean stale;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param capacity Maximum number of products
+     */
+    public CatalogIndex(int capacity) {
+        this.capacity = capacity;
+        this.products = new Product[capacity];
+        this.prices = new double[capacity];
+        this.weights = new double[capacity];
+        this.expiryDays = new long[capacity];
+        this.quantities = new AtomicIntegerArray(capacity);
+    }
+
+    /**
+     * Adds a product and starts following its stock. A product can only be in one index.
+     *
+     * @param product Product to add
+     * @return Id of the product in this index
+     */
+    public synchronized int add(Product product) {
+        if (product == null) {
+            throw new IllegalArgumentException("Product cannot be null");
+        }
+        if (product instanceof ProductStore.View) {
+            throw new IllegalArgumentException("ProductStore rows are already columnar; query the store instead");
+        }
+        if (product.getListener() != null) {
+            throw new IllegalArgumentException("Product is already indexed: " + product.getName());
+        }
+        if (size == capacity) {
+            throw new IllegalStateException("Catalog index is full (" + capacity + " products)");
+        }
+        int id = size;
+        products[id] = product;
+        prices[id] = product.getPrice();
+        weights[id] = product instanceof Shippable ? ((Shippable) product).getWeight() : 0.0;
+        expiryDays[id] = expiryDay(product);
+        product.setListener(new Listener(id));
+        refreshQuantity(id);
+        names.add(id, product.getName());
+        size = id + 1;
+        stale = true;
+        return id;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the product with the given id.
+     */
+    public Product get(int id) {
+        Snapshot current = snapshot();
+        if (id < 0 || id >= current.size) {
+            throw new IndexOutOfBoundsException("Unknown product id: " + id);
+        }
+        return products[id];
+    }
+
+    /**
+     * Starts a query; conditions left unset match every product.
+     */
+    public Query query() {
+        return new Query(snapshot());
+    }
+
+    /**
+     * Finds products whose names contain every word of the query, in the order they were added.
+     * The last word also matches longer words starting with it, unless the query ends in a space.
+     *
+     * @param query What the shopper has typed so far
+     * @param limit Maximum number of products to return
+     * @return Matching products
+     */
+    public List<Product> searchNames(String query, int limit) {
+        int[] ids = names.search(query, limit);
+        List<Product> matches = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            matches.add(products[id]);
+        }
+        return matches;
+    }
+
+    /**
+     * Suggests completions for the word being typed, most common in product names first.
+     *
+     * @param prefix Start of a word
+     * @param limit Maximum number of words to return
+     * @return Lower-case words from product names
+     */
+    public List<String> suggestNames(String prefix, int limit) {
+        return names.suggest(prefix, limit);
+    }
+
+    public InvertedIndex getNameIndex() {
+        return names;
+    }
+
+    private static long expiryDay(Product product) {
+        if (product instanceof ExpirableProduct) {
+            LocalDate expiry = ((ExpirableProduct) product).getExpirationDate();
+            return expiry != null ? expiry.toEpochDay() : NO_EXPIRY;
+        }
+        return NO_EXPIRY;
+    }
+
+    /**
+     * Stores the product's current stock. Re-reads until the value stored is the
+     * latest, so a listener call overtaken by a later one cannot leave a stale value.
+     */
+    private void refreshQuantity(int id) {
+        Product product = products[id];
+        int quantity;
+        do {
+            quantity = product.getQuantity();
+            quantities.set(id, quantity);
+        } while (product.getQuantity() != quantity);
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        return stale ? rebuild() : current;
+    }
+
+    private synchronized Snapshot rebuild() {
+        if (!stale) {
+            return snapshot;
+        }
+        stale = false;
+        int count = size;
+        long[] priceKeys = new long[count];
+        long[] weightKeys = new long[count];
+        for (int id = 0; id < count; id++) {
+            priceKeys[id] = SortedLongIndex.sortableBits(prices[id]);
+            weightKeys[id] = SortedLongIndex.sortableBits(weights[id]);
+        }
+        snapshot = new Snapshot(count, priceKeys, weightKeys, Arrays.copyOf(expiryDays, count));
+        return snapshot;
+    }
+
+    private synchronized void updateExpiry(int id) {
+        expiryDays[id] = expiryDay(products[id]);
+        stale = true;
+    }
+
+    private final class Listener implements ProductListener {
+        private final int id;
+
+        Listener(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public void stockChanged(Product product) {
+            refreshQuantity(id);
+        }
+
+        @Override
+        public void expirationChanged(Product product) {
+            updateExpiry(id);
+        }
+    }
+
+    /**
+     * Sorted indexes over the first size products, replaced as a whole when rebuilt.
+     */
+    private static final class Snapshot {
+        final int size;
+        final SortedLongIndex byPrice;
+        final SortedLongIndex byWeight;
+        final SortedLongIndex byExpiry;
+        final int[] priceRank;
+        final long[] expiryDays;
+
+        Snapshot(int size, long[] priceKeys, long[] weightKeys, long[] expiryDays) {
+            this.size = size;
+            this.byPrice = new SortedLongIndex(priceKeys, size);
+            this.byWeight = new SortedLongIndex(weightKeys, size);
+            this.byExpiry = new SortedLongIndex(expiryDays, size);
+            this.priceRank = byPrice.positionsById();
+            this.expiryDays = expiryDays;
+        }
+    }
+
+    /**
+     * Combined filter over the catalog. Matches come back ordered by price, then by id.
+     * Not thread-safe; build and run a query on one thread.
+     */
+    public final class Query {
+        private final Snapshot snapshot;
+        private double minPrice = Double.NEGATIVE_INFINITY;
+        private double maxPrice = Double.POSITIVE_INFINITY;
+        private double minWeight = Double.NEGATIVE_INFINITY;
+        private double maxWeight = Double.POSITIVE_INFINITY;
+        private int minQuantity = Integer.MIN_VALUE;
+        private int maxQuantity = Integer.MAX_VALUE;
+        private long minExpiryDay = Long.MIN_VALUE;
+        private long maxExpiryDay = Long.MAX_VALUE;
+        // Conditions left to check per candidate, set when the driving range is chosen
+        private boolean checkPrice;
+        private boolean checkWeight;
+        private boolean checkExpiry;
+        private boolean checkQuantity;
+
+        Query(Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * Keeps products priced between min and max, inclusive.
+         */
+        public Query priceBetween(double min, double max) {
+            minPrice = min;
+            maxPrice = max;
+            return this;
+        }
+
+        /**
+         * Keeps products whose shipping weight is between min and max kg, inclusive.
+         * Products that don't ship weigh 0.
+         */
+        public Query weightBetween(double min, double max) {
+            minWeight = min;
+            maxWeight = max;
+            return this;
+        }
+
+        /**
+         * Keeps products with between min and max units in stock, inclusive.
+         */
+        public Query quantityBetween(int min, int max) {
+            minQuantity = min;
+            maxQuantity = max;
+            return this;
+        }
+
+        /**
+         * Keeps products with at least one unit in stock.
+         */
+        public Query inStock() {
+            return quantityBetween(1, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Keeps expirable products whose expiration date is between from and to, inclusive.
+         */
+        public Query expiringBetween(LocalDate from, LocalDate to) {
+            minExpiryDay = from.toEpochDay();
+            maxExpiryDay = to.toEpochDay();
+            return this;
+        }
+
+        /**
+         * Keeps products that are still sellable on the given date, including those that never expire.
+         */
+        public Query notExpiredOn(LocalDate date) {
+            minExpiryDay = date.toEpochDay();
+            maxExpiryDay = Long.MAX_VALUE;
+            return this;
+        }
+
+        /**
+         * Gets one page of matching products.
+         *
+         * @param offset Number of matches to skip
+         * @param limit Maximum number of products to return
+         * @return Matching products, ordered by price
+         */
+        public List<Product> list(int offset, int limit) {
+            int[] ids = ids(offset, limit);
+            List<Product> page = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                page.add(products[id]);
+            }
+            return page;
+        }
+
+        /**
+         * Gets the ids of one page of matching products.
+         *
+         * @param offset Number of matches to skip
+         * @param limit Maximum number of ids to return
+         * @return Matching ids, ordered by price
+         */
+        public int[] ids(int offset, int limit) {
+            if (offset < 0 || limit < 0) {
+                throw new IllegalArgumentException("Offset and limit cannot be negative");
+            }
+            Range driver = narrowestRange();
+            if (driver.index == snapshot.byPrice) {
+                // Walking in price order already: stop as soon as the page is full
+                int[] page = new int[limit];
+                int found = 0;
+                int skipped = 0;
+                for (int position = driver.from; position < driver.to && found < limit; position++) {
+                    int id = driver.index.idAt(position);
+                    if (matches(id)) {
+                        if (skipped < offset) {
+                            skipped++;
+                        } else {
+                            page[found++] = id;
+                        }
+                    }
+                }
+                return found == limit ? page : Arrays.copyOf(page, found);
+            }
+            // Another range is narrower: collect its matches, then put them in price order
+            int[] ranks = new int[driver.width()];
+            int found = 0;
+            for (int position = driver.from; position < driver.to; position++) {
+                int id = driver.index.idAt(position);
+                if (matches(id)) {
+                    ranks[found++] = snapshot.priceRank[id];
+                }
+            }
+            found = keepSmallest(ranks, found, (int) Math.min(Integer.MAX_VALUE, (long) offset + limit));
+            int from = (int) Math.min(found, (long) offset);
+            int to = (int) Math.min(found, (long) from + limit);
+            int[] page = new int[to - from];
+            for (int i = from; i < to; i++) {
+                page[i - from] = snapshot.byPrice.idAt(ranks[i]);
+            }
+            return page;
+        }
+
+        /**
+         * Counts all matching products.
+         */
+        public int count() {
+            Range driver = narrowestRange();
+            int count = 0;
+            for (int position = driver.from; position < driver.to; position++) {
+                if (matches(driver.index.idAt(position))) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Gets the smallest of the price, weight and expiry ranges; ties go to price, which needs no re-sorting.
+         */
+        private Range narrowestRange() {
+            Range narrowest = new Range(snapshot.byPrice, SortedLongIndex.sortableBits(minPrice),
+                SortedLongIndex.sortableBits(maxPrice));
+            Range weight = new Range(snapshot.byWeight, SortedLongIndex.sortableBits(minWeight),
+                SortedLongIndex.sortableBits(maxWeight));
+            if (weight.width() < narrowest.width()) {
+                narrowest = weight;
+            }
+            Range expiry = new Range(snapshot.byExpiry, minExpiryDay, maxExpiryDay);
+            if (expiry.width() < narrowest.width()) {
+                narrowest = expiry;
+            }
+            // Every id in the driving range already satisfies its own condition, and each
+            // column skipped saves a cache miss per candidate
+            checkPrice = narrowest.index != snapshot.byPrice
+                && (minPrice != Double.NEGATIVE_INFINITY || maxPrice != Double.POSITIVE_INFINITY);
+            checkWeight = narrowest.index != snapshot.byWeight
+                && (minWeight != Double.NEGATIVE_INFINITY || maxWeight != Double.POSITIVE_INFINITY);
+            checkExpiry = narrowest.index != snapshot.byExpiry
+                && (minExpiryDay != Long.MIN_VALUE || maxExpiryDay != Long.MAX_VALUE);
+            checkQuantity = minQuantity != Integer.MIN_VALUE || maxQuantity != Integer.MAX_VALUE;
+            return narrowest;
+        }
+
+        private boolean matches(int id) {
+            if (checkPrice) {
+                double price = prices[id];
+                if (price < minPrice || price > maxPrice) {
+                    return false;
+                }
+            }
+            if (checkWeight) {
+                double weight = weights[id];
+                if (weight < minWeight || weight > maxWeight) {
+                    return false;
+                }
+            }
+            if (checkExpiry) {
+                long expiry = snapshot.expiryDays[id];
+                if (expiry < minExpiryDay || expiry > maxExpiryDay) {
+                    return false;
+                }
+            }
+            if (checkQuantity) {
+                int quantity = quantities.get(id);
+                return quantity >= minQuantity && quantity <= maxQuantity;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Sorts the k smallest of the first count values into the front of the array.
+     * A bounded max-heap makes this O(count log k), far cheaper than a full sort for one page.
+     *
+     * @return Number of values sorted, min(count, k)
+     */
+    private static int keepSmallest(int[] values, int count, int k) {
+        if (k >= count / 4) {
+            Arrays.sort(values, 0, count);
+            return count;
+        }
+        if (k == 0) {
+            return 0;
+        }
+        for (int i = k / 2 - 1; i >= 0; i--) {
+            siftDown(values, i, k);
+        }
+        for (int i = k; i < count; i++) {
+            if (values[i] < values[0]) {
+                values[0] = values[i];
+                siftDown(values, 0, k);
+            }
+        }
+        Arrays.sort(values, 0, k);
+        return k;
+    }
+
+    private static void siftDown(int[] heap, int index, int size) {
+        int value = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] > heap[child]) {
+                child++;
+            }
+            if (heap[child] <= value) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = value;
+    }
+
+    /**
+     * Positions from (inclusive) to to (exclusive) of one sorted index whose keys fall in a range.
+     */
+    private static final class Range {
+        final SortedLongIndex index;
+        final int from;
+        final int to;
+
+        Range(SortedLongIndex index, long min, long max) {
+            this.index = index;
+            this.from = min > max ? 0 : index.lowerBound(min);
+            this.to = min > max ? 0 : index.upperBound(max);
+        }
+
+        int width() {
+            return to - from;
+        }
+    }
+}
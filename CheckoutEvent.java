@@ -0,0 +1,37 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering one checkout, from validation to receipt.
+ * Fields are only filled in when the event is going to be committed, so a
+ * disabled recording costs nothing on the checkout path.
+ */
+@Name("fawry.Checkout")
+@Label("Checkout")
+@Category({"Fawry", "Checkout"})
+@Description("A checkout attempt, successful or rejected")
+@StackTrace(false)
+public class CheckoutEvent extends jdk.jfr.Event {
+    @Label("Customer")
+    String customer;
+
+    @Label("Cart Lines")
+    int lineCount;
+
+    @Label("Items")
+    int itemCount;
+
+    @Label("Weight (kg)")
+    double weight;
+
+    @Label("Total")
+    @Description("Amount charged, or 0 if the checkout was rejected")
+    double total;
+
+    @Label("Error Code")
+    @Description("Error code of a rejected checkout, null on success")
+    String errorCode;
+}
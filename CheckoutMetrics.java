@@ -0,0 +1,173 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import utils.AdmissionController;
+import utils.LatencyHistogram;
+
+/**
+ * Per-phase checkout latencies and per-error-code failure counters.
+ * Everything is lock-free, so recording adds only a clock read and a few
+ * atomic increments to each phase. The metrics are exposed through the
+ * platform MBean server under {@value #OBJECT_NAME}, and each phase is also
+ * written as a CheckoutPhaseEvent while Flight Recorder is recording.
+ * Admission control counters (admitted and shed checkouts, current limit)
+ * are published alongside.
+ */
+public class CheckoutMetrics implements CheckoutMetricsMXBean {
+    public static final String OBJECT_NAME = "fawry.ecommerce:type=CheckoutMetrics";
+
+    private static final CheckoutMetrics INSTANCE = new CheckoutMetrics();
+
+    static {
+        INSTANCE.register();
+    }
+
+    private final LatencyHistogram checkoutLatency = new LatencyHistogram();
+    private final LatencyHistogram[] phaseLatencies = new LatencyHistogram[CheckoutPhase.values().length];
+    private final ConcurrentHashMap<String, LongAdder> errorCounts = new ConcurrentHashMap<>();
+    private volatile AdmissionController admission;
+
+    private CheckoutMetrics() {
+        for (int i = 0; i < phaseLatencies.length; i++) {
+            phaseLatencies[i] = new LatencyHistogram();
+        }
+    }
+
+    public static CheckoutMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException | SecurityException e) {
+            // Metrics are still recorded, they just can't be read over JMX
+            System.err.println("Checkout metrics not registered with JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records the end of a phase.
+     *
+     * @param phase The phase that just finished
+     * @param startNanos System.nanoTime() when the phase started
+     * @return System.nanoTime() now, to be used as the start of the next phase
+     */
+    public long endPhase(CheckoutPhase phase, long startNanos) {
+        long now = System.nanoTime();
+        phaseLatencies[phase.ordinal()].record(now - startNanos);
+        CheckoutPhaseEvent event = new CheckoutPhaseEvent();
+        if (event.isEnabled()) {
+            event.phase = phase.name();
+            event.phaseDuration = now - startNanos;
+            event.commit();
+        }
+        return now;
+    }
+
+    /**
+     * Records the end-to-end latency of a checkout, whatever its outcome.
+     *
+     * @param startNanos System.nanoTime() when the checkout started
+     */
+    public void recordCheckout(long startNanos) {
+        checkoutLatency.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counts a failed checkout under its error code.
+     *
+     * @param errorCode Error code, as in ECommerceException.getErrorCode()
+     */
+    public void recordError(String errorCode) {
+        errorCounts.computeIfAbsent(errorCode, code -> new LongAdder()).increment();
+    }
+
+    /**
+     * Exposes the admitted/shed counters and the current limit of an admission controller.
+     */
+    public void setAdmissionController(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    public LatencyHistogram.Snapshot getPhaseLatency(CheckoutPhase phase) {
+        return phaseLatencies[phase.ordinal()].snapshot();
+    }
+
+    public long getErrorCount(String errorCode) {
+        LongAdder count = errorCounts.get(errorCode);
+        return count == null ? 0 : count.sum();
+    }
+
+    @Override
+    public long getCheckoutCount() {
+        return checkoutLatency.snapshot().getCount();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCheckoutLatency() {
+        return checkoutLatency.snapshot();
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getPhaseLatencies() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        for (CheckoutPhase phase : CheckoutPhase.values()) {
+            snapshots.put(phase.name(), getPhaseLatency(phase));
+        }
+        return snapshots;
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        errorCounts.forEach((code, count) -> counts.put(code, count.sum()));
+        return counts;
+    }
+
+    @Override
+    public long getAdmittedCount() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getAdmittedCount();
+    }
+
+    @Override
+    public long getShedCount() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getShedCount();
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getLimit();
+    }
+
+    @Override
+    public int getInFlightCheckouts() {
+        AdmissionController current = admission;
+        return current == null ? 0 : current.getInFlight();
+    }
+
+    @Override
+    public void reset() {
+        checkoutLatency.reset();
+        for (LatencyHistogram histogram : phaseLatencies) {
+            histogram.reset();
+        }
+        errorCounts.clear();
+        AdmissionController current = admission;
+        if (current != null) {
+            current.resetCounters();
+        }
+    }
+}
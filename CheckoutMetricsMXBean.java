@@ -0,0 +1,26 @@
+import java.util.Map;
+import utils.LatencyHistogram;
+
+/**
+ * JMX view of the checkout metrics, registered as
+ * {@value CheckoutMetrics#OBJECT_NAME}. Latencies are in nanoseconds.
+ */
+public interface CheckoutMetricsMXBean {
+    long getCheckoutCount();
+
+    LatencyHistogram.Snapshot getCheckoutLatency();
+
+    Map<String, LatencyHistogram.Snapshot> getPhaseLatencies();
+
+    Map<String, Long> getErrorCounts();
+
+    long getAdmittedCount();
+
+    long getShedCount();
+
+    int getConcurrencyLimit();
+
+    int getInFlightCheckouts();
+
+    void reset();
+}
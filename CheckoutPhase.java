@@ -0,0 +1,11 @@
+/**
+ * The stages of a checkout, in the order CheckoutService runs them.
+ */
+public enum CheckoutPhase {
+    VALIDATION,
+    DISCOUNTS,
+    SHIPPING,
+    TAX,
+    COMMIT,
+    RENDERING
+}
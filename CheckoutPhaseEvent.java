@@ -0,0 +1,25 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one checkout phase. Phases are timed by
+ * CheckoutMetrics, so the event is written when the phase ends and carries
+ * its duration as a field; duration thresholds apply to CheckoutEvent only.
+ */
+@Name("fawry.CheckoutPhase")
+@Label("Checkout Phase")
+@Category({"Fawry", "Checkout"})
+@Description("Time spent in one phase of a checkout")
+@StackTrace(false)
+public class CheckoutPhaseEvent extends jdk.jfr.Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Phase Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long phaseDuration;
+}
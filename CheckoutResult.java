@@ -0,0 +1,254 @@
+import java.time.LocalDate;
+import exceptions.*;
+
+/**
+ * Outcome of a checkout attempt.
+ * Expected business failures (empty cart, stock, expiry, balance, coupons) and load
+ * shedding are reported as a status instead of an exception, so rejecting an order costs no more
+ * than a small allocation. The message is only formatted when asked for.
+ */
+public final class CheckoutResult {
+
+    /**
+     * Checkout outcome. Failure statuses use the same error codes as the
+     * matching exceptions.
+     */
+    public enum Status {
+        SUCCESS(null),
+        EMPTY_CART("EMPTY_CART"),
+        INSUFFICIENT_STOCK("INSUFFICIENT_STOCK"),
+        PRODUCT_EXPIRED("PRODUCT_EXPIRED"),
+        INSUFFICIENT_BALANCE("INSUFFICIENT_BALANCE"),
+        COUPON_UNAVAILABLE("COUPON_UNAVAILABLE"),
+        OVERLOADED("OVERLOADED");
+
+        private final String errorCode;
+
+        Status(String errorCode) {
+            this.errorCode = errorCode;
+        }
+
+        public String getErrorCode() {
+            return errorCode;
+        }
+    }
+
+    private static final CheckoutResult EMPTY_CART =
+        new CheckoutResult(Status.EMPTY_CART, null, 0, 0, null, 0, 0, 0, 0, 0, 0, 0, 0, null);
+    private static final CheckoutResult OVERLOADED =
+        new CheckoutResult(Status.OVERLOADED, null, 0, 0, null, 0, 0, 0, 0, 0, 0, 0, 0, null);
+
+    private final Status status;
+    private final String name; // product name, or the coupon code for COUPON_UNAVAILABLE
+    private final int requestedQuantity;
+    private final int availableQuantity;
+    private final LocalDate expirationDate;
+    private final double subtotal;
+    private final double discount;
+    private final double shippingFee;
+    private final double tax;
+    private final double total;
+    private final double requiredAmount;
+    private final double availableBalance;
+    private final double remainingBalance;
+    private final FxRates.Rate rate; // currency of subtotal to total; balances are always in dollars
+
+    private CheckoutResult(Status status, String name, int requestedQuantity, int availableQuantity,
+                           LocalDate expirationDate, double subtotal, double discount, double shippingFee,
+                           double tax, double total, double requiredAmount, double availableBalance,
+                           double remainingBalance, FxRates.Rate rate) {
+        this.status = status;
+        this.name = name;
+        this.requestedQuantity = requestedQuantity;
+        this.availableQuantity = availableQuantity;
+        this.expirationDate = expirationDate;
+        this.subtotal = subtotal;
+        this.discount = discount;
+        this.shippingFee = shippingFee;
+        this.tax = tax;
+        this.total = total;
+        this.requiredAmount = requiredAmount;
+        this.availableBalance = availableBalance;
+        this.remainingBalance = remainingBalance;
+        this.rate = rate;
+    }
+
+    static CheckoutResult success(double subtotal, double discount, double shippingFee, double tax,
+                                  double total, double remainingBalance, FxRates.Rate rate) {
+        return new CheckoutResult(Status.SUCCESS, null, 0, 0, null,
+            subtotal, discount, shippingFee, tax, total, 0, 0, remainingBalance, rate);
+    }
+
+    static CheckoutResult emptyCart() {
+        return EMPTY_CART;
+    }
+
+    static CheckoutResult overloaded() {
+        return OVERLOADED;
+    }
+
+    static CheckoutResult insufficientStock(String productName, int requestedQuantity, int availableQuantity) {
+        return new CheckoutResult(Status.INSUFFICIENT_STOCK, productName, requestedQuantity, availableQuantity,
+            null, 0, 0, 0, 0, 0, 0, 0, 0, null);
+    }
+
+    static CheckoutResult productExpired(String productName, LocalDate expirationDate) {
+        return new CheckoutResult(Status.PRODUCT_EXPIRED, productName, 0, 0, expirationDate,
+            0, 0, 0, 0, 0, 0, 0, 0, null);
+    }
+
+    static CheckoutResult insufficientBalance(double requiredAmount, double availableBalance) {
+        return new CheckoutResult(Status.INSUFFICIENT_BALANCE, null, 0, 0, null,
+            0, 0, 0, 0, 0, requiredAmount, availableBalance, 0, null);
+    }
+
+    static CheckoutResult couponUnavailable(String couponCode) {
+        return new CheckoutResult(Status.COUPON_UNAVAILABLE, couponCode, 0, 0, null,
+            0, 0, 0, 0, 0, 0, 0, 0, null);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+
+    /**
+     * Gets the error code of a failed checkout.
+     *
+     * @return Error code, or null if the checkout succeeded
+     */
+    public String getErrorCode() {
+        return status.getErrorCode();
+    }
+
+    public String getProductName() {
+        return status == Status.COUPON_UNAVAILABLE ? null : name;
+    }
+
+    /**
+     * Gets the code of a coupon that could not be redeemed.
+     *
+     * @return The coupon code, or null unless the status is COUPON_UNAVAILABLE
+     */
+    public String getCouponCode() {
+        return status == Status.COUPON_UNAVAILABLE ? name : null;
+    }
+
+    public int getRequestedQuantity() {
+        return requestedQuantity;
+    }
+
+    public int getAvailableQuantity() {
+        return availableQuantity;
+    }
+
+    public LocalDate getExpirationDate() {
+        return expirationDate;
+    }
+
+    public double getSubtotal() {
+        return subtotal;
+    }
+
+    public double getDiscount() {
+        return discount;
+    }
+
+    public double getShippingFee() {
+        return shippingFee;
+    }
+
+    public double getTax() {
+        return tax;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    /**
+     * Gets the currency of the order amounts, from the subtotal to the total.
+     * Required, available and remaining balances are always in dollars.
+     *
+     * @return ISO 4217 currency code, or null if the checkout failed
+     */
+    public String getCurrency() {
+        return rate == null ? null : rate.getCode();
+    }
+
+    FxRates.Rate getRate() {
+        return rate;
+    }
+
+    /**
+     * Gets the amount an order needed, in dollars, when the balance fell short.
+     */
+    public double getRequiredAmount() {
+        return requiredAmount;
+    }
+
+    public double getAvailableBalance() {
+        return availableBalance;
+    }
+
+    public double getRemainingBalance() {
+        return remainingBalance;
+    }
+
+    /**
+     * Gets the failure message, formatted on demand.
+     *
+     * @return Failure message, or null if the checkout succeeded
+     */
+    public String getMessage() {
+        ECommerceException exception = toException();
+        return exception == null ? null : exception.getMessage();
+    }
+
+    /**
+     * Converts a failure into the matching exception, without a stack trace.
+     *
+     * @return The exception, or null if the checkout succeeded
+     */
+    public ECommerceException toException() {
+        switch (status) {
+            case EMPTY_CART:
+                return new EmptyCartException(false);
+            case INSUFFICIENT_STOCK:
+                return new InsufficientStockException(name, requestedQuantity, availableQuantity, false);
+            case PRODUCT_EXPIRED:
+                return new ProductExpiredException(name, expirationDate, false);
+            case INSUFFICIENT_BALANCE:
+                return new InsufficientBalanceException(requiredAmount, availableBalance, false);
+            case COUPON_UNAVAILABLE:
+                return new CouponUnavailableException(name, false);
+            case OVERLOADED:
+                return new CheckoutOverloadedException(false);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * For callers that prefer exceptions: throws the failure, if any.
+     *
+     * @throws ECommerceException if the checkout failed
+     */
+    public void throwIfFailed() throws ECommerceException {
+        ECommerceException exception = toException();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (isSuccess()) {
+            return String.format("CheckoutResult{SUCCESS, total=%.2f}", total);
+        }
+        return String.format("CheckoutResult{%s}", getErrorCode());
+    }
+}
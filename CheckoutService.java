@@ -1,8 +1,15 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import exceptions.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import utils.AdmissionController;
 import utils.ConsoleFormatter;
+import utils.ReceiptRenderer;
+import utils.ReceiptTemplate;
 
 /**
  * Enhanced checkout service with improved error handling, validation,
@@ -10,216 +17,697 @@ import utils.ConsoleFormatter;
  */
 public class CheckoutService {
     private static final ShippingService shippingService = new ShippingService();
+    private static final CheckoutMetrics metrics = CheckoutMetrics.getInstance();
+    private static final BestsellerTracker bestsellers = BestsellerTracker.getInstance();
+    private static final SalesAggregates sales = SalesAggregates.getInstance();
+    private static final OrderHistory orderHistory = OrderHistory.getInstance();
+    private static final double WELCOME_DISCOUNT = 25.0;
+    // Carts with this many lines are validated by fork/join tasks of VALIDATION_CHUNK_LINES lines
+    static final int PARALLEL_VALIDATION_LINES = 8192;
+    private static final int VALIDATION_CHUNK_LINES = 1024;
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+    // Adaptive limit on concurrent checkouts; requests over it are shed with OVERLOADED
+    private static final AdmissionController admission =
+        new AdmissionController(4 * PROCESSORS, Math.max(2, PROCESSORS), 1000, 2.0);
+
+    static {
+        metrics.setAdmissionController(admission);
+    }
+
+    // Receipt layout, compiled once; see ReceiptTemplate for the syntax
+    private static final ReceiptTemplate RECEIPT_TEMPLATE = ReceiptTemplate.compile(
+        "\n"
+        + "{@bold}{@green}** Checkout Receipt **{@reset}\n"
+        + "{@cyan}[INFO] Customer: {customer}{@reset}\n"
+        + "{%═:45}\n"
+        + "{#lines}{quantity:int:<3}x {name:<20} {amount:money:>10}\n{/lines}"
+        + "{%─:45}\n"
+        + "{'Subtotal':<25} {subtotal:money:>10}\n"
+        + "{?discounted}{'Discounts':<25} {discount:-money:>10}\n"
+        + "{'After Discounts':<25} {discountedSubtotal:money:>10}\n{/discounted}"
+        + "{?shipping}{'Shipping':<25} {shippingFee:money:>10}\n{/shipping}"
+        + "{?freeShipping}{'Shipping':<25} {@green}FREE{@reset}\n{/freeShipping}"
+        + "{?taxed}{'Tax':<25} {tax:money:>10}\n{/taxed}"
+        + "{%─:45}\n"
+        + "{@bold}{'Total Amount':<25} {total:money:>10}{@reset}\n"
+        + "{%═:45}\n"
+        + "{@cyan}[INFO] {customer}'s balance after payment: {balance:dollars}{@reset}\n",
+        ConsoleFormatter.consoleCharset());
+    private static final int RECEIPT_CUSTOMER = RECEIPT_TEMPLATE.slot("customer");
+    private static final int RECEIPT_LINES = RECEIPT_TEMPLATE.slot("lines");
+    private static final int RECEIPT_QUANTITY = RECEIPT_TEMPLATE.slot("quantity");
+    private static final int RECEIPT_NAME = RECEIPT_TEMPLATE.slot("name");
+    private static final int RECEIPT_AMOUNT = RECEIPT_TEMPLATE.slot("amount");
+    private static final int RECEIPT_SUBTOTAL = RECEIPT_TEMPLATE.slot("subtotal");
+    private static final int RECEIPT_DISCOUNTED = RECEIPT_TEMPLATE.slot("discounted");
+    private static final int RECEIPT_DISCOUNT = RECEIPT_TEMPLATE.slot("discount");
+    private static final int RECEIPT_DISCOUNTED_SUBTOTAL = RECEIPT_TEMPLATE.slot("discountedSubtotal");
+    private static final int RECEIPT_SHIPPING = RECEIPT_TEMPLATE.slot("shipping");
+    private static final int RECEIPT_SHIPPING_FEE = RECEIPT_TEMPLATE.slot("shippingFee");
+    private static final int RECEIPT_FREE_SHIPPING = RECEIPT_TEMPLATE.slot("freeShipping");
+    private static final int RECEIPT_TAXED = RECEIPT_TEMPLATE.slot("taxed");
+    private static final int RECEIPT_TAX = RECEIPT_TEMPLATE.slot("tax");
+    private static final int RECEIPT_TOTAL = RECEIPT_TEMPLATE.slot("total");
+    private static final int RECEIPT_BALANCE = RECEIPT_TEMPLATE.slot("balance");
+    private static final ThreadLocal<ReceiptTemplate.Data> RECEIPT_DATA =
+        ThreadLocal.withInitial(RECEIPT_TEMPLATE::newData);
+    private static final ThreadLocal<ReceiptRenderer> RECEIPT_RENDERER =
+        ThreadLocal.withInitial(() -> new ReceiptRenderer(ConsoleFormatter.consoleCharset(), true));
+
     public static void checkout(Customer customer, Cart cart) {
         try {
-            performCheckout(customer, cart);
-        } catch (EmptyCartException e) {
-            System.err.println(e.getMessage());
-        } catch (InsufficientStockException e) {
-            System.err.println(e.getMessage());
-        } catch (ProductExpiredException e) {
-            System.err.println(e.getMessage());
-        } catch (InsufficientBalanceException e) {
-            System.err.println(e.getMessage());
+            CheckoutResult result = runCheckout(customer, cart, true, FxRates.getCurrent().getBase());
+            if (!result.isSuccess()) {
+                System.err.println(result.getMessage());
+            }
         } catch (Exception e) {
             System.err.println("Unexpected error during checkout: " + e.getMessage());
         }
     }
 
-    private static void performCheckout(Customer customer, Cart cart)
-            throws EmptyCartException, InsufficientStockException,
-                   ProductExpiredException, InsufficientBalanceException {
-        // Rule: Cart cannot be empty
+    /**
+     * Runs a checkout without any console output.
+     * Expected business failures (empty cart, stock, expiry, balance, coupons) are returned
+     * as a result code instead of being thrown, which keeps rejections cheap when
+     * most attempts fail, e.g. during flash sales. Callers that want exceptions
+     * can use {@link CheckoutResult#throwIfFailed()}.
+     *
+     * @param customer Customer making the purchase
+     * @param cart Shopping cart
+     * @return The outcome of the checkout
+     */
+    public static CheckoutResult tryCheckout(Customer customer, Cart cart) {
+        return runCheckout(customer, cart, false, FxRates.getCurrent().getBase());
+    }
+
+    /**
+     * Runs a checkout without any console output, with the order priced in
+     * another currency at the current {@link FxRates}. The customer's balance
+     * is in dollars and is charged the dollar equivalent of the total.
+     *
+     * @param customer Customer making the purchase
+     * @param cart Shopping cart
+     * @param currency ISO 4217 code of a currency in the current FX table
+     * @return The outcome of the checkout, with the order amounts in the currency
+     * @throws IllegalArgumentException if the FX table has no rate for the currency
+     */
+    public static CheckoutResult tryCheckout(Customer customer, Cart cart, String currency) {
+        return runCheckout(customer, cart, false, FxRates.getCurrent().get(currency));
+    }
+
+    /**
+     * Prices a cart for a customer without checking it out: the same discounts,
+     * shipping and tax checkout would apply, with nothing printed, reserved,
+     * recorded or charged. Cheap enough to call after every change to the cart.
+     * Stock, expiry and the customer's balance are not checked, and a coupon
+     * with no uses left is left out of the discounts.
+     *
+     * @param customer Customer the cart belongs to, for first-order discounts
+     * @param cart Shopping cart
+     * @return The price checkout would charge if the cart doesn't change
+     */
+    public static PriceQuote quote(Customer customer, Cart cart) {
+        return quote(customer, cart, FxRates.getCurrent().getBase());
+    }
+
+    /**
+     * Prices a cart for a customer in another currency at the current
+     * {@link FxRates}, without checking it out.
+     *
+     * @param customer Customer the cart belongs to, for first-order discounts
+     * @param cart Shopping cart
+     * @param currency ISO 4217 code of a currency in the current FX table
+     * @return The price checkout in the currency would charge if the cart doesn't change
+     * @throws IllegalArgumentException if the FX table has no rate for the currency
+     */
+    public static PriceQuote quote(Customer customer, Cart cart, String currency) {
+        return quote(customer, cart, FxRates.getCurrent().get(currency));
+    }
+
+    private static PriceQuote quote(Customer customer, Cart cart, FxRates.Rate rate) {
         if (cart.isEmpty()) {
-            throw new EmptyCartException();
+            return new PriceQuote(rate.getCode(), 0, new ArrayList<>(0), 0, new ArrayList<>(0), 0, 0);
         }
+        // One pass over the lines; the cart may change meanwhile, so all totals come from this pass
+        int lineCount = cart.getItems().size();
+        List<PriceQuote.Line> lines = new ArrayList<>(lineCount);
+        CartColumns columns = lineCount >= CartColumns.MIN_LINES ? new CartColumns(lineCount) : null;
         double subtotal = 0;
-        List<Shippable> shippableItems = new ArrayList<>();
-
-        // Check stock, expiration, and calculate subtotal
+        double tax = 0;
+        double weight = 0;
+        int totalItems = 0;
+        boolean shippable = false;
         for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
             Product product = entry.getKey();
             int quantity = entry.getValue();
+            double price = product.getPrice(rate);
+            double amount = price * quantity;
+            double taxRate = getTaxRateForProduct(product);
+            lines.add(new PriceQuote.Line(product, quantity, amount, taxRate));
+            totalItems += quantity;
+            if (columns != null) {
+                columns.price(columns.add(product, quantity), price);
+            } else {
+                subtotal += amount;
+                tax += amount * taxRate;
+                if (product instanceof Shippable) {
+                    shippable = true;
+                    weight += ((Shippable) product).getWeight() * quantity;
+                }
+            }
+        }
+        if (columns != null) {
+            subtotal = columns.subtotal();
+            tax = columns.tax();
+            weight = columns.weight();
+            shippable = columns.hasShippable();
+        }
+
+        CouponBook.Coupon coupon = cart.getCoupon();
+        if (coupon != null && !coupon.isAvailable()) {
+            coupon = null;
+        }
+        List<PriceQuote.Discount> applied = new ArrayList<>(4);
+        double discount = calculateDiscounts(!orderHistory.hasOrdered(customer), coupon, subtotal, totalItems,
+            rate, applied);
+        double shippingFee = shippable
+            ? rate.fromBase(shippingService.calculateShippingFee(weight, rate.toBase(subtotal - discount)))
+            : 0.0;
+        return new PriceQuote(rate.getCode(), subtotal, applied, discount, lines, shippingFee, tax);
+    }
 
-            // Rule: Check if product is out of stock (double check at checkout)
-            if (product.getQuantity() < quantity) {
-                throw new InsufficientStockException(product.getName(), quantity, product.getQuantity());
+    /**
+     * Runs a checkout if admission control lets it in, and records its latency
+     * and outcome in CheckoutMetrics and, when Flight Recorder is recording,
+     * as a CheckoutEvent.
+     */
+    private static CheckoutResult runCheckout(Customer customer, Cart cart, boolean verbose, FxRates.Rate rate) {
+        if (!admission.tryAcquire()) {
+            // Shed before doing any work, so rejections stay cheap under overload
+            metrics.recordError(CheckoutResult.Status.OVERLOADED.getErrorCode());
+            return CheckoutResult.overloaded();
+        }
+        CheckoutEvent event = new CheckoutEvent();
+        event.begin();
+        long startNanos = System.nanoTime();
+        String errorCode = "UNEXPECTED_ERROR";
+        double total = 0;
+        try {
+            CheckoutResult result = performCheckout(customer, cart, verbose, rate, startNanos);
+            errorCode = result.getErrorCode();
+            total = rate.toBase(result.getTotal());
+            return result;
+        } finally {
+            admission.release(System.nanoTime() - startNanos);
+            metrics.recordCheckout(startNanos);
+            if (errorCode != null) {
+                metrics.recordError(errorCode);
+            }
+            if (event.shouldCommit()) {
+                commitCheckoutEvent(event, customer, cart, errorCode, total);
             }
+        }
+    }
 
-            // Rule: Check if product is expired
-            if (product.isExpired()) {
-                if (product instanceof ExpirableProduct) {
-                    ExpirableProduct expirable = (ExpirableProduct) product;
-                    throw new ProductExpiredException(product.getName(), expirable.getExpirationDate());
-                } else {
-                    throw new ProductExpiredException(product.getName(), null);
+    private static void commitCheckoutEvent(CheckoutEvent event, Customer customer, Cart cart,
+                                            String errorCode, double total) {
+        event.customer = customer == null ? null : customer.getName();
+        if (cart != null) {
+            for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+                event.lineCount++;
+                event.itemCount += entry.getValue();
+                if (entry.getKey() instanceof Shippable) {
+                    event.weight += ((Shippable) entry.getKey()).getWeight() * entry.getValue();
                 }
             }
+        }
+        event.total = total;
+        event.errorCode = errorCode;
+        event.commit();
+    }
 
-            subtotal += product.getPrice() * quantity;
+    private static CheckoutResult performCheckout(Customer customer, Cart cart, boolean verbose, FxRates.Rate rate,
+                                                  long startNanos) {
+        // Freeze the cart so its contents can't change between validation and commit
+        cart.beginCheckout();
+        try {
+            return performFrozenCheckout(customer, cart, verbose, rate, startNanos);
+        } finally {
+            cart.endCheckout();
+        }
+    }
 
-            // If the product is shippable, add it to our shipping list
-            if (product instanceof Shippable) {
-                shippableItems.add((Shippable) product);
+    private static CheckoutResult performFrozenCheckout(Customer customer, Cart cart, boolean verbose,
+                                                        FxRates.Rate rate, long startNanos) {
+        // Rule: Cart cannot be empty
+        if (cart.isEmpty()) {
+            return CheckoutResult.emptyCart();
+        }
+        int lineCount = cart.getItems().size();
+        double subtotal = 0;
+        double weight = 0;
+        boolean shippable = false;
+        List<Shippable> shippableItems = verbose ? new ArrayList<>() : null;
+        // Large carts are validated and totalled from columns, as quotes are; see CartColumns
+        CartColumns columns = null;
+
+        if (lineCount >= CartColumns.MIN_LINES) {
+            columns = new CartColumns(lineCount);
+            for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+                columns.add(entry.getKey(), entry.getValue());
+            }
+            boolean parallel = lineCount >= PARALLEL_VALIDATION_LINES && ForkJoinPool.getCommonPoolParallelism() > 1;
+            CheckoutResult failure = validateColumns(cart, columns, rate, parallel);
+            if (failure != null) {
+                return failure;
+            }
+            subtotal = columns.subtotal();
+            weight = columns.weight();
+            shippable = columns.hasShippable();
+            if (verbose && shippable) {
+                for (int line = 0; line < lineCount; line++) {
+                    if (columns.product(line) instanceof Shippable) {
+                        shippableItems.add((Shippable) columns.product(line));
+                    }
+                }
             }
+        } else {
+            // Check stock, expiration, and calculate subtotal
+            for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+                Product product = entry.getKey();
+                int quantity = entry.getValue();
+
+                CheckoutResult failure = validateLine(cart, product, quantity);
+                if (failure != null) {
+                    return failure;
+                }
+                subtotal += product.getPrice(rate) * quantity;
+
+                // If the product is shippable, add its weight to the shipment
+                if (product instanceof Shippable) {
+                    shippable = true;
+                    weight += ((Shippable) product).getWeight() * quantity;
+                    if (verbose) {
+                        shippableItems.add((Shippable) product);
+                    }
+                }
+            }
+        }
+        // Rule: An applied coupon must still have uses left
+        CouponBook.Coupon coupon = cart.getCoupon();
+        if (coupon != null && !coupon.isAvailable()) {
+            return CheckoutResult.couponUnavailable(coupon.getCode());
         }
+        long phaseStart = metrics.endPhase(CheckoutPhase.VALIDATION, startNanos);
+
         // Apply discounts
-        double totalDiscount = calculateDiscounts(cart, customer, subtotal);
+        boolean firstOrder = !orderHistory.hasOrdered(customer);
+        CustomerSegment segment = CustomerSegment.of(firstOrder, rate.toBase(subtotal));
+        List<PriceQuote.Discount> applied = verbose ? new ArrayList<>() : null;
+        double totalDiscount = calculateDiscounts(firstOrder, coupon, subtotal, cart.getItemCount(), rate,
+            applied);
+        if (verbose) {
+            printDiscounts(applied, totalDiscount);
+        }
         double discountedSubtotal = subtotal - totalDiscount;
+        phaseStart = metrics.endPhase(CheckoutPhase.DISCOUNTS, phaseStart);
 
         // Calculate shipping fee using the enhanced shipping service
         double shippingFee = 0.0;
-        if (!shippableItems.isEmpty()) {
-            shippingFee = shippingService.calculateShippingFee(shippableItems, cart.getItems(), discountedSubtotal);
+        if (shippable) {
+            shippingFee = rate.fromBase(shippingService.calculateShippingFee(weight, rate.toBase(discountedSubtotal)));
         }
+        phaseStart = metrics.endPhase(CheckoutPhase.SHIPPING, phaseStart);
 
         // Calculate taxes on discounted subtotal
-        double taxAmount = calculateTax(cart, discountedSubtotal);
+        double taxAmount = columns != null && !verbose
+            ? columns.tax()
+            : calculateTax(cart, rate, columns, verbose);
+        phaseStart = metrics.endPhase(CheckoutPhase.TAX, phaseStart);
 
         double totalAmount = discountedSubtotal + shippingFee + taxAmount;
+        // Balances are in dollars
+        double charge = rate.toBase(totalAmount);
 
         // Rule: Check if customer has enough balance
-        if (customer.getBalance() < totalAmount) {
-            throw new InsufficientBalanceException(totalAmount, customer.getBalance());
+        if (customer.getBalance() < charge) {
+            return CheckoutResult.insufficientBalance(charge, customer.getBalance());
         }
 
         // --- If all checks pass, proceed with payment ---
-        // 1. Deduct quantities from stock
+        // Stock and balance may have changed since they were checked, so every step
+        // re-checks atomically and everything taken so far is put back on failure.
+        // 1. Deduct quantities from stock; units the cart reserved are already out of stock.
+        // If checkout fails from here on, reserved units go back to stock, not to the reservation.
+        int taken = 0;
+        for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+            Product product = entry.getKey();
+            int quantity = entry.getValue();
+            int reserved = cart.consumeReserved(product);
+            if (reserved > quantity) {
+                product.increaseQuantity(reserved - quantity);
+                reserved = quantity;
+            }
+            if (reserved < quantity && !product.tryDecreaseQuantity(quantity - reserved)) {
+                product.increaseQuantity(reserved);
+                restoreStock(cart, taken);
+                return CheckoutResult.insufficientStock(product.getName(), quantity, product.getQuantity());
+            }
+            taken++;
+        }
+
+        // 2. Redeem the coupon; concurrent checkouts can't take more uses than it has left
+        if (coupon != null && !coupon.tryRedeem()) {
+            restoreStock(cart, taken);
+            return CheckoutResult.couponUnavailable(coupon.getCode());
+        }
+
+        // 3. Deduct money from customer
+        if (!customer.tryDeductBalance(charge)) {
+            if (coupon != null) {
+                coupon.release();
+            }
+            restoreStock(cart, taken);
+            return CheckoutResult.insufficientBalance(charge, customer.getBalance());
+        }
         for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
-            entry.getKey().decreaseQuantity(entry.getValue());
+            Product product = entry.getKey();
+            bestsellers.record(product, entry.getValue(), product.getPrice() * entry.getValue());
+        }
+        phaseStart = metrics.endPhase(CheckoutPhase.COMMIT, phaseStart);
+
+        // 4. Create shipment; the fee is the one charged above, on the discounted subtotal
+        if (shippable) {
+            if (verbose) {
+                shippingService.createShipment(shippableItems, cart.getItems(), rate.toBase(discountedSubtotal));
+            } else {
+                shippingService.recordShipment(cart.getItems(), weight, rate.toBase(shippingFee));
+            }
+        }
+
+        sales.record(segment, cart, rate.toBase(totalDiscount), rate.toBase(shippingFee), rate.toBase(taxAmount),
+            charge);
+        // Two concurrent first orders may both get the welcome discount; later ones will not
+        orderHistory.recordOrder(customer);
+
+        // 5. Print professional checkout receipt
+        if (verbose) {
+            printCheckoutReceipt(cart, customer, rate, subtotal, totalDiscount, shippingFee, taxAmount, totalAmount,
+                customer.getBalance());
+        }
+        metrics.endPhase(CheckoutPhase.RENDERING, phaseStart);
+        return CheckoutResult.success(subtotal, totalDiscount, shippingFee, taxAmount, totalAmount, customer.getBalance(),
+            rate);
+    }
+
+    /**
+     * Checks one cart line against stock and expiry.
+     *
+     * @return The failure, or null if the line can be checked out
+     */
+    private static CheckoutResult validateLine(Cart cart, Product product, int quantity) {
+        // Rule: Check if product is out of stock (double check at checkout),
+        // counting the units this cart has reserved as available to it
+        int available = product.getQuantity() + cart.getReservedQuantity(product);
+        if (available < quantity) {
+            return CheckoutResult.insufficientStock(product.getName(), quantity, available);
+        }
+
+        // Rule: Check if product is expired
+        if (product.isExpired()) {
+            if (product instanceof ExpirableProduct) {
+                ExpirableProduct expirable = (ExpirableProduct) product;
+                return CheckoutResult.productExpired(product.getName(), expirable.getExpirationDate());
+            } else if (product instanceof ProductStore.View) {
+                ProductStore.View view = (ProductStore.View) product;
+                return CheckoutResult.productExpired(product.getName(), view.getExpirationDate());
+            } else {
+                return CheckoutResult.productExpired(product.getName(), null);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Validates and prices every line of a large cart, either on the calling
+     * thread or split into fork/join tasks on the common pool. Checkout goes
+     * parallel for carts of PARALLEL_VALIDATION_LINES lines or more when the
+     * pool has more than one worker; below that splitting costs more than it
+     * saves. Either way the failure returned is the one of the first failing
+     * line, as in a line-by-line check, and the totals are the same.
+     *
+     * @param parallel Whether to split the lines into fork/join tasks
+     * @return The failure, or null if every line can be checked out
+     */
+    static CheckoutResult validateColumns(Cart cart, CartColumns columns, FxRates.Rate rate, boolean parallel) {
+        AtomicInteger firstFailure = new AtomicInteger(Integer.MAX_VALUE);
+        if (!parallel) {
+            return validateLines(cart, columns, rate, 0, columns.size(), firstFailure);
         }
+        return ForkJoinPool.commonPool().invoke(
+            new ValidationTask(cart, columns, rate, 0, columns.size(), firstFailure));
+    }
 
-        // 2. Deduct money from customer
-        customer.deductBalance(totalAmount);
+    /**
+     * Validates and prices a range of lines, stopping at the first failure or
+     * at any line after one that has already failed elsewhere.
+     *
+     * @param firstFailure Index of the first line known to fail, lowered on failure
+     * @return The failure of the first failing line in the range, or null
+     */
+    private static CheckoutResult validateLines(Cart cart, CartColumns columns, FxRates.Rate rate, int from, int to,
+                                                AtomicInteger firstFailure) {
+        for (int line = from; line < to; line++) {
+            if (line > firstFailure.get()) {
+                return null;
+            }
+            Product product = columns.product(line);
+            CheckoutResult failure = validateLine(cart, product, columns.quantity(line));
+            if (failure != null) {
+                int known = firstFailure.get();
+                while (line < known && !firstFailure.compareAndSet(known, line)) {
+                    known = firstFailure.get();
+                }
+                return failure;
+            }
+            columns.price(line, product.getPrice(rate));
+        }
+        return null;
+    }
 
-        // 3. Create shipment and get actual shipping fee
-        if (!shippableItems.isEmpty()) {
-            shippingFee = shippingService.createShipment(shippableItems, cart.getItems(), subtotal);
+    /**
+     * Fork/join task validating a range of cart lines by halves. The left half's
+     * failure wins, so the result is the first failing line's, and ranges past
+     * a line known to fail are skipped.
+     */
+    private static final class ValidationTask extends RecursiveTask<CheckoutResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final Cart cart;
+        private final CartColumns columns;
+        private final FxRates.Rate rate;
+        private final int from;
+        private final int to;
+        private final AtomicInteger firstFailure;
+
+        ValidationTask(Cart cart, CartColumns columns, FxRates.Rate rate, int from, int to,
+                       AtomicInteger firstFailure) {
+            this.cart = cart;
+            this.columns = columns;
+            this.rate = rate;
+            this.from = from;
+            this.to = to;
+            this.firstFailure = firstFailure;
         }
 
-        // 4. Print professional checkout receipt
-        printCheckoutReceipt(cart, customer, subtotal, totalDiscount, shippingFee, taxAmount, totalAmount, customer.getBalance());
+        @Override
+        protected CheckoutResult compute() {
+            if (from > firstFailure.get()) {
+                return null;
+            }
+            if (to - from <= VALIDATION_CHUNK_LINES) {
+                return validateLines(cart, columns, rate, from, to, firstFailure);
+            }
+            int middle = (from + to) >>> 1;
+            ValidationTask right = new ValidationTask(cart, columns, rate, middle, to, firstFailure);
+            right.fork();
+            CheckoutResult failure = new ValidationTask(cart, columns, rate, from, middle, firstFailure).compute();
+            CheckoutResult rightFailure = right.join();
+            return failure != null ? failure : rightFailure;
+        }
+    }
+
+    /**
+     * Puts back the stock taken for the first lines of a cart.
+     *
+     * @param cart Shopping cart being checked out
+     * @param lines Number of lines, in iteration order, whose stock was taken
+     */
+    private static void restoreStock(Cart cart, int lines) {
+        for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+            if (lines-- == 0) {
+                return;
+            }
+            entry.getKey().increaseQuantity(entry.getValue());
+        }
     }
 
     /**
      * Prints a professional checkout receipt with proper formatting.
      *
      * @param cart Shopping cart
-     * @param customer Customer making the purchase
+     * @param customer Customer who made the purchase
+     * @param rate Currency of the order amounts
      * @param subtotal Order subtotal before discounts
      * @param totalDiscount Total discount amount
      * @param shippingFee Shipping fee
      * @param taxAmount Tax amount
      * @param totalAmount Total amount
-     * @param remainingBalance Customer's remaining balance
+     * @param remainingBalance Customer's remaining balance, in dollars
      */
-    private static void printCheckoutReceipt(Cart cart, Customer customer, double subtotal, double totalDiscount,
-                                           double shippingFee, double taxAmount, double totalAmount,
-                                           double remainingBalance) {
-        System.out.println();
-        System.out.println(ConsoleFormatter.BOLD + ConsoleFormatter.GREEN + "** Checkout Receipt **" + ConsoleFormatter.RESET);
-        System.out.println(ConsoleFormatter.info("Customer: " + customer.getName()));
-        System.out.println(ConsoleFormatter.createSeparator('═', 45));
-
-        // Print items
-        for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
-            Product product = entry.getKey();
-            int quantity = entry.getValue();
-            double itemTotal = product.getPrice() * quantity;
-
-            System.out.println(ConsoleFormatter.formatLineItem(
-                quantity, product.getName(), ConsoleFormatter.formatCurrency(itemTotal), 20));
+    private static void printCheckoutReceipt(Cart cart, Customer customer, FxRates.Rate rate, double subtotal,
+                                           double totalDiscount, double shippingFee, double taxAmount,
+                                           double totalAmount, double remainingBalance) {
+        ReceiptRenderer renderer = RECEIPT_RENDERER.get();
+        renderReceipt(renderer, cart, customer, rate, subtotal, totalDiscount, shippingFee, taxAmount, totalAmount,
+            remainingBalance);
+        try {
+            renderer.writeTo(System.out);
+        } catch (IOException e) {
+            renderer.clear();
+            throw new UncheckedIOException(e);
         }
+    }
 
-        System.out.println(ConsoleFormatter.createSeparator('─', 45));
-        System.out.println(ConsoleFormatter.formatSummaryLine(
-            "Subtotal", ConsoleFormatter.formatCurrency(subtotal), 25));
-
-        // Show discounts if any
-        if (totalDiscount > 0) {
-            System.out.println(ConsoleFormatter.formatSummaryLine(
-                "Discounts", "-" + ConsoleFormatter.formatCurrency(totalDiscount), 25));
-            System.out.println(ConsoleFormatter.formatSummaryLine(
-                "After Discounts", ConsoleFormatter.formatCurrency(subtotal - totalDiscount), 25));
-        }
-
-        // Show shipping
-        if (shippingFee > 0) {
-            System.out.println(ConsoleFormatter.formatSummaryLine(
-                "Shipping", ConsoleFormatter.formatCurrency(shippingFee), 25));
-        } else if (shippingFee == 0 && !cart.getItems().isEmpty()) {
-            // Check if there are shippable items
-            boolean hasShippableItems = cart.getItems().keySet().stream()
-                .anyMatch(product -> product instanceof Shippable);
-            if (hasShippableItems) {
-                System.out.println(ConsoleFormatter.formatSummaryLine(
-                    "Shipping", ConsoleFormatter.GREEN + "FREE" + ConsoleFormatter.RESET, 25));
-            }
+    /**
+     * Renders the receipt of a successful checkout into a renderer without writing it,
+     * so callers can batch many receipts into a single write.
+     *
+     * @param renderer Renderer to append the receipt to
+     * @param customer Customer who made the purchase
+     * @param cart Shopping cart that was checked out
+     * @param result Successful checkout result
+     */
+    public static void renderReceipt(ReceiptRenderer renderer, Customer customer, Cart cart, CheckoutResult result) {
+        if (!result.isSuccess()) {
+            throw new IllegalArgumentException("Only successful checkouts have a receipt");
         }
+        renderReceipt(renderer, cart, customer, result.getRate(), result.getSubtotal(), result.getDiscount(),
+            result.getShippingFee(), result.getTax(), result.getTotal(), result.getRemainingBalance());
+    }
 
-        // Show taxes
-        if (taxAmount > 0) {
-            System.out.println(ConsoleFormatter.formatSummaryLine(
-                "Tax", ConsoleFormatter.formatCurrency(taxAmount), 25));
+    private static void renderReceipt(ReceiptRenderer renderer, Cart cart, Customer customer, FxRates.Rate rate,
+                                      double subtotal, double totalDiscount, double shippingFee, double taxAmount,
+                                      double totalAmount, double remainingBalance) {
+        ReceiptTemplate.Data data = RECEIPT_DATA.get().clear();
+        if (!rate.isBase()) {
+            data.setCurrency(rate.getFormat());
         }
+        data.set(RECEIPT_CUSTOMER, customer.getName());
 
-        System.out.println(ConsoleFormatter.createSeparator('─', 45));
-        System.out.println(ConsoleFormatter.BOLD + ConsoleFormatter.formatSummaryLine(
-            "Total Amount", ConsoleFormatter.formatCurrency(totalAmount), 25) + ConsoleFormatter.RESET);
-        System.out.println(ConsoleFormatter.createSeparator('═', 45));
+        boolean hasShippableItems = false;
+        for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+            Product product = entry.getKey();
+            int quantity = entry.getValue();
+            data.addRow(RECEIPT_LINES);
+            data.set(RECEIPT_QUANTITY, quantity);
+            data.set(RECEIPT_NAME, product.getName());
+            data.set(RECEIPT_AMOUNT, product.getPrice(rate) * quantity);
+            hasShippableItems |= product instanceof Shippable;
+        }
 
-        System.out.println(ConsoleFormatter.info(
-            customer.getName() + "'s balance after payment: " + ConsoleFormatter.formatCurrency(remainingBalance)));
+        data.set(RECEIPT_SUBTOTAL, subtotal);
+        data.setFlag(RECEIPT_DISCOUNTED, totalDiscount > 0);
+        data.set(RECEIPT_DISCOUNT, totalDiscount);
+        data.set(RECEIPT_DISCOUNTED_SUBTOTAL, subtotal - totalDiscount);
+        data.setFlag(RECEIPT_SHIPPING, shippingFee > 0);
+        data.set(RECEIPT_SHIPPING_FEE, shippingFee);
+        data.setFlag(RECEIPT_FREE_SHIPPING, shippingFee == 0 && hasShippableItems);
+        data.setFlag(RECEIPT_TAXED, taxAmount > 0);
+        data.set(RECEIPT_TAX, taxAmount);
+        data.set(RECEIPT_TOTAL, totalAmount);
+        data.set(RECEIPT_BALANCE, remainingBalance);
+        renderer.render(RECEIPT_TEMPLATE, data);
     }
 
     /**
      * Calculates applicable discounts for a cart.
      *
-     * @param cart Shopping cart
-     * @param customer Customer making the purchase
+     * @param firstOrder Whether the customer has never ordered before
+     * @param coupon Coupon applied to the cart, or null
      * @param subtotal Order subtotal before discounts
+     * @param totalItems Total number of units in the cart
+     * @param rate Currency of the subtotal; thresholds and fixed amounts are converted from dollars
+     * @param applied List to add each applied discount to, or null if only the total is needed
      * @return Total discount amount
      */
-    private static double calculateDiscounts(Cart cart, Customer customer, double subtotal) {
+    private static double calculateDiscounts(boolean firstOrder, CouponBook.Coupon coupon, double subtotal,
+                                             int totalItems, FxRates.Rate rate,
+                                             List<PriceQuote.Discount> applied) {
         double totalDiscount = 0;
 
-        System.out.println("\n" + ConsoleFormatter.BOLD + ConsoleFormatter.GREEN +
-            "Applying Discounts:" + ConsoleFormatter.RESET);
-        System.out.println(ConsoleFormatter.createSeparator('─', 40));
+        // Bulk discount for orders of $300 or more
+        totalDiscount += applyCartDiscount(CartDiscount.LARGE_ORDER, subtotal, totalItems, rate, applied);
 
-        // Bulk discount for orders over $300
-        if (subtotal >= 300) {
-            double discount = subtotal * 0.10; // 10% off
-            totalDiscount += discount;
-            System.out.println(ConsoleFormatter.success(
-                "Large Order Discount (10% off): -" + ConsoleFormatter.formatCurrency(discount)));
+        // First-time customer discount
+        if (firstOrder) {
+            double discount = Math.min(rate.fromBase(WELCOME_DISCOUNT), subtotal);
+            if (discount > 0) {
+                totalDiscount += discount;
+                if (applied != null) {
+                    applied.add(new PriceQuote.Discount("Welcome Discount", discount));
+                }
+            }
         }
 
-        // First-time customer discount (simulated by checking if balance is exactly 1000)
-        if (customer.getBalance() == 1000.0) {
-            double discount = 25.0;
-            totalDiscount += Math.min(discount, subtotal);
-            System.out.println(ConsoleFormatter.success(
-                "Welcome Discount: -" + ConsoleFormatter.formatCurrency(Math.min(discount, subtotal))));
+        // High-value customer discount
+        totalDiscount += applyCartDiscount(CartDiscount.VIP, subtotal, totalItems, rate, applied);
+
+        // Quantity-based discount
+        totalDiscount += applyCartDiscount(CartDiscount.MULTI_ITEM, subtotal, totalItems, rate, applied);
+
+        // Coupon discount, on top of the rules above but never beyond the subtotal
+        if (coupon != null) {
+            double discount = Math.min(coupon.getOffer().discountFor(subtotal, rate), subtotal - totalDiscount);
+            if (discount > 0) {
+                totalDiscount += discount;
+                if (applied != null) {
+                    applied.add(new PriceQuote.Discount(
+                        "Coupon " + coupon.getCode() + " (" + coupon.getOffer().getDescription() + ")", discount));
+                }
+            }
         }
+        return totalDiscount;
+    }
 
-        // High-value customer discount
-        if (subtotal >= 1000) {
-            double discount = subtotal * 0.15; // 15% off
-            totalDiscount += discount;
-            System.out.println(ConsoleFormatter.success(
-                "VIP Discount (15% off): -" + ConsoleFormatter.formatCurrency(discount)));
+    /**
+     * Works out one cart discount, recording it if it applies.
+     *
+     * @return Amount taken off, or 0 if the discount doesn't apply
+     */
+    private static double applyCartDiscount(CartDiscount rule, double subtotal, int totalItems, FxRates.Rate rate,
+                                            List<PriceQuote.Discount> applied) {
+        if (!rule.appliesTo(rate.toBase(subtotal), totalItems)) {
+            return 0;
         }
+        double discount = rule.amountOf(subtotal);
+        if (applied != null) {
+            applied.add(new PriceQuote.Discount(rule.getLabel(), discount));
+        }
+        return discount;
+    }
 
-        // Quantity-based discount
-        int totalItems = cart.getItems().values().stream().mapToInt(Integer::intValue).sum();
-        if (totalItems >= 5) {
-            double discount = subtotal * 0.05; // 5% off
-            totalDiscount += discount;
+    /**
+     * Prints the discounts applied to a cart.
+     */
+    private static void printDiscounts(List<PriceQuote.Discount> applied, double totalDiscount) {
+        System.out.println("\n" + ConsoleFormatter.BOLD + ConsoleFormatter.GREEN +
+            "Applying Discounts:" + ConsoleFormatter.RESET);
+        System.out.println(ConsoleFormatter.createSeparator('─', 40));
+        for (PriceQuote.Discount discount : applied) {
             System.out.println(ConsoleFormatter.success(
-                "Multi-Item Discount (5% off): -" + ConsoleFormatter.formatCurrency(discount)));
+                discount.getLabel() + ": -" + ConsoleFormatter.formatCurrency(discount.getAmount())));
         }
-
         if (totalDiscount > 0) {
             System.out.println(ConsoleFormatter.createSeparator('─', 40));
             System.out.println(ConsoleFormatter.BOLD + ConsoleFormatter.formatSummaryLine(
@@ -227,38 +715,49 @@ public class CheckoutService {
         } else {
             System.out.println(ConsoleFormatter.info("No discounts applicable"));
         }
-
-        return totalDiscount;
     }
 
     /**
      * Calculates tax for a shopping cart based on product categories.
      *
      * @param cart Shopping cart
-     * @param subtotal Subtotal after discounts
+     * @param rate Currency to price the cart in
+     * @param columns Priced columns of a large cart, whose total is returned, or null
+     * @param verbose Whether to print the tax breakdown
      * @return Total tax amount
      */
-    private static double calculateTax(Cart cart, double subtotal) {
+    private static double calculateTax(Cart cart, FxRates.Rate rate, CartColumns columns, boolean verbose) {
         double totalTax = 0;
 
-        System.out.println("\n" + ConsoleFormatter.BOLD + ConsoleFormatter.YELLOW +
-            "Tax Calculation:" + ConsoleFormatter.RESET);
-        System.out.println(ConsoleFormatter.createSeparator('─', 40));
+        if (verbose) {
+            System.out.println("\n" + ConsoleFormatter.BOLD + ConsoleFormatter.YELLOW +
+                "Tax Calculation:" + ConsoleFormatter.RESET);
+            System.out.println(ConsoleFormatter.createSeparator('─', 40));
+        }
 
         for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
             Product product = entry.getKey();
             int quantity = entry.getValue();
-            double itemTotal = product.getPrice() * quantity;
+            double itemTotal = product.getPrice(rate) * quantity;
 
             double taxRate = getTaxRateForProduct(product);
             double itemTax = itemTotal * taxRate;
             totalTax += itemTax;
 
-            System.out.println(ConsoleFormatter.formatSummaryLine(
-                product.getName() + " (" + (taxRate * 100) + "%)",
-                ConsoleFormatter.formatCurrency(itemTax), 25));
+            if (verbose) {
+                System.out.println(ConsoleFormatter.formatSummaryLine(
+                    product.getName() + " (" + (taxRate * 100) + "%)",
+                    ConsoleFormatter.formatCurrency(itemTax), 25));
+            }
         }
 
+        // Large carts report the column total, so checkout agrees with quotes to the last bit
+        if (columns != null) {
+            totalTax = columns.tax();
+        }
+        if (!verbose) {
+            return totalTax;
+        }
         System.out.println(ConsoleFormatter.createSeparator('─', 40));
         System.out.println(ConsoleFormatter.BOLD + ConsoleFormatter.formatSummaryLine(
             "Total Tax:", ConsoleFormatter.formatCurrency(totalTax), 25) + ConsoleFormatter.RESET);
@@ -270,28 +769,6 @@ public class CheckoutService {
      * Determines the tax rate for a specific product based on its characteristics.
      */
     private static double getTaxRateForProduct(Product product) {
-        String productName = product.getName().toLowerCase();
-
-        // Food items (5% tax)
-        if (productName.contains("cheese") || productName.contains("biscuit") ||
-            productName.contains("milk") || productName.contains("food")) {
-            return 0.05;
-        }
-
-        // Electronics (10% tax)
-        if (productName.contains("tv") || productName.contains("laptop") ||
-            productName.contains("monitor") || productName.contains("server") ||
-            productName.contains("equipment")) {
-            return 0.10;
-        }
-
-        // Digital products (12% tax)
-        if (productName.contains("digital") || productName.contains("download") ||
-            productName.contains("scratch card") || productName.contains("mobile")) {
-            return 0.12;
-        }
-
-        // General items (8% tax)
-        return 0.08;
+        return product.getTaxCategory().getRate();
     }
 }
\ No newline at end of file
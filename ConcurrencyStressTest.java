@@ -0,0 +1,735 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import exceptions.CouponUnavailableException;
+import exceptions.InsufficientStockException;
+
+/**
+ * Stress tests for the stock and balance mutations, in the style of jcstress.
+ * Each scenario races two actors against the same fresh state, many times over,
+ * and then records what the state ended up as. Every observed outcome is
+ * classified as acceptable or forbidden; forbidden outcomes (overselling, lost
+ * updates, negative balances) make the run fail.
+ *
+ * Usage: java ConcurrencyStressTest [iterations]
+ */
+public class ConcurrencyStressTest {
+    // States per batch; both actors walk the batch in the same order, so each pair of calls overlaps
+    private static final int BATCH_SIZE = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        List<Scenario<?>> scenarios = Arrays.asList(
+            new CheckoutLastUnit(),
+            new CheckoutVersusRestock(),
+            new CheckoutLastMoney(),
+            new CheckoutVersusTopUp(),
+            new ConcurrentDecrease(),
+            new ShardedCheckoutLastUnits(),
+            new ShardedLargeVersusSmallTakes(),
+            new CombiningCheckoutLastUnits(),
+            new ConcurrentTopUp(),
+            new ConcurrentCartAdd(),
+            new CartAddVersusRemove(),
+            new CartAddVersusCheckout(),
+            new CouponLastUse());
+
+        PrintStream console = System.out;
+        System.out.println("CONCURRENCY STRESS TESTS (" + iterations + " iterations per scenario)");
+        System.out.println("==========================================");
+
+        ExecutorService actors = Executors.newFixedThreadPool(2);
+        int failed = 0;
+        try {
+            for (Scenario<?> scenario : scenarios) {
+                Map<String, Long> outcomes;
+                // Cart.add prints every addition; keep the report readable
+                System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                try {
+                    outcomes = run(scenario, iterations, actors);
+                } finally {
+                    System.setOut(console);
+                }
+                if (!report(scenario, outcomes)) {
+                    failed++;
+                }
+            }
+        } finally {
+            actors.shutdown();
+        }
+
+        System.out.println();
+        if (failed == 0) {
+            System.out.println("All " + scenarios.size() + " scenarios passed.");
+        } else {
+            System.out.println(failed + " of " + scenarios.size() + " scenarios observed forbidden outcomes.");
+            System.exit(1);
+        }
+    }
+
+    private static <S> Map<String, Long> run(Scenario<S> scenario, int iterations, ExecutorService actors)
+            throws Exception {
+        Map<String, Long> outcomes = new TreeMap<>();
+        CyclicBarrier start = new CyclicBarrier(2);
+        List<S> states = new ArrayList<>(BATCH_SIZE);
+        for (int done = 0; done < iterations; done += BATCH_SIZE) {
+            int batch = Math.min(BATCH_SIZE, iterations - done);
+            states.clear();
+            for (int i = 0; i < batch; i++) {
+                states.add(scenario.newState());
+            }
+
+            Future<?> first = actors.submit(() -> {
+                start.await();
+                for (S state : states) {
+                    scenario.actor1(state);
+                }
+                return null;
+            });
+            Future<?> second = actors.submit(() -> {
+                start.await();
+                for (S state : states) {
+                    scenario.actor2(state);
+                }
+                return null;
+            });
+            first.get();
+            second.get();
+
+            for (S state : states) {
+                outcomes.merge(scenario.outcome(state), 1L, Long::sum);
+            }
+        }
+        return outcomes;
+    }
+
+    private static boolean report(Scenario<?> scenario, Map<String, Long> outcomes) {
+        System.out.println();
+        System.out.println(scenario.getName());
+        boolean passed = true;
+        for (Map.Entry<String, Long> entry : outcomes.entrySet()) {
+            boolean acceptable = scenario.isAcceptable(entry.getKey());
+            passed &= acceptable;
+            System.out.printf("  %-10s %10d  %s%n", acceptable ? "OK" : "FORBIDDEN", entry.getValue(), entry.getKey());
+        }
+        return passed;
+    }
+
+    private static Cart cartOf(Product product, int quantity) {
+        Cart cart = new Cart();
+        try {
+            cart.add(product, quantity);
+        } catch (InsufficientStockException e) {
+            throw new IllegalStateException(e);
+        }
+        return cart;
+    }
+
+    private static String status(CheckoutResult result) {
+        return result == null ? "NOT_RUN" : result.getStatus().name();
+    }
+
+    /**
+     * A race between two actors on a shared state.
+     *
+     * @param <S> State both actors work on, created fresh for every iteration
+     */
+    private abstract static class Scenario<S> {
+        private final String name;
+        private final Set<String> acceptable;
+
+        Scenario(String name, String... acceptable) {
+            this.name = name;
+            this.acceptable = new HashSet<>(Arrays.asList(acceptable));
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isAcceptable(String outcome) {
+            return acceptable.contains(outcome);
+        }
+
+        abstract S newState();
+
+        abstract void actor1(S state);
+
+        abstract void actor2(S state);
+
+        /**
+         * Describes the final state; called after both actors are done.
+         */
+        abstract String outcome(S state);
+    }
+
+    /**
+     * Two customers check out the last unit of a product.
+     * Exactly one may get it.
+     */
+    private static final class CheckoutLastUnit extends Scenario<CheckoutLastUnit.State> {
+        static final class State {
+            final Product product = new Product("Gift Card", 50, 1);
+            final Customer first = new Customer("First", 500);
+            final Customer second = new Customer("Second", 500);
+            final Cart firstCart = cartOf(product, 1);
+            final Cart secondCart = cartOf(product, 1);
+            CheckoutResult firstResult;
+            CheckoutResult secondResult;
+        }
+
+        CheckoutLastUnit() {
+            super("Two checkouts race for the last unit",
+                "SUCCESS, INSUFFICIENT_STOCK, stock=0",
+                "INSUFFICIENT_STOCK, SUCCESS, stock=0");
+        }
+
+        @Override
+        State newState() {
+            return new State();
+        }
+
+        @Override
+        void actor1(State state) {
+            state.firstResult = CheckoutService.tryCheckout(state.first, state.firstCart);
+        }
+
+        @Override
+        void actor2(State state) {
+            state.secondResult = CheckoutService.tryCheckout(state.second, state.secondCart);
+        }
+
+        @Override
+        String outcome(State state) {
+            return status(state.firstResult) + ", " + status(state.secondResult)
+                + ", stock=" + state.product.getQuantity();
+        }
+    }
+
+    /**
+     * A checkout of two units races a restock of one unit onto a stock of one.
+     * The checkout either sees the restock and succeeds, or doesn't and leaves both units.
+     */
+    private static final class CheckoutVersusRestock extends Scenario<CheckoutVersusRestock.State> {
+        static final class State {
+            final Product product = new Product("Gift Card", 50, 2);
+            final Customer customer = new Customer("Buyer", 500);
+            final Cart cart = cartOf(product, 2);
+            CheckoutResult result;
+
+            State() {
+                product.decreaseQuantity(1);
+            }
+        }
+
+        CheckoutVersusRestock() {
+            super("Checkout races a restock",
+                "SUCCESS, stock=0",
+                "INSUFFICIENT_STOCK, stock=2");
+        }
+
+        @Override
+        State newState() {
+            return new State();
+        }
+
+        @Override
+        void actor1(State state) {
+            state.result = CheckoutService.tryCheckout(state.customer, state.cart);
+        }
+
+        @Override
+        void actor2(State state) {
+            state.product.increaseQuantity(1);
+        }
+
+        @Override
+        String outcome(State state) {
+            return status(state.result) + ", stock=" + state.product.getQuantity();
+        }
+    }
+
+    /**
+     * One customer checks out two carts at once but can only pay for one
+     * ($54 each including 8% tax, balance $100).
+     */
+    private static final class CheckoutLastMoney extends Scenario<CheckoutLastMoney.State> {
+        static final class State {
+            final Product product = new Product("Gift Card", 50, 10);
+            final Customer customer = new Customer("Buyer", 100);
+            final Cart firstCart = cartOf(product, 1);
+            final Cart secondCart = cartOf(product, 1);
+            CheckoutResult firstResult;
+            CheckoutResult secondResult;
+        }
+
+        CheckoutLastMoney() {
+            super("Two checkouts race for the same balance",
+                "SUCCESS, INSUFFICIENT_BALANCE, balance=46.0, stock=9",
+                "INSUFFICIENT_BALANCE, SUCCESS, balance=46.0, stock=9");
+        }
+
+        @Override
+        State newState() {
+            return new State();
+        }
+
+        @Override
+        void actor1(State state) {
+            state.firstResult = CheckoutService.tryCheckout(state.customer, state.firstCart);
+        }
+
+        @Override
+        void actor2(State state) {
+            state.secondResult = CheckoutService.tryCheckout(state.customer, state.secondCart);
+        }
+
+        @Override
+        String outcome(State state) {
+            return status(state.firstResult) + ", " + status(state.secondResult)
+                + ", balance=" + state.customer.getBalance() + ", stock=" + state.product.getQuantity();
+        }
+    }
+
+    /**
+     * A $54 checkout races a $50 top-up onto a balance of $50.
+     * The top-up must never be lost, whether or not the checkout saw it.
+     */
+    private static final class CheckoutVersusTopUp extends Scenario<CheckoutVersusTopUp.State> {
+        static final class State {
+            final Product product = new Product("Gift Card", 50, 10);
+            final Customer customer = new Customer("Buyer", 50);
+            final Cart cart = cartOf(product, 1);
+            CheckoutResult result;
+        }
+
+        CheckoutVersusTopUp() {
+            super("Checkout races a balance top-up",
+                "SUCCESS, balance=46.0, stock=9",
+                "INSUFFICIENT_BALANCE, balance=100.0, stock=10");
+        }
+
+        @Override
+        State newState() {
+            return new State();
+        }
+
+        @Override
+        void actor1(State state) {
+            state.result = CheckoutService.tryCheckout(state.customer, state.cart);
+        }
+
+        @Override
+        void actor2(State state) {
+            state.customer.addBalance(50);
+        }
+
+        @Override
+        String outcome(State state) {
+            return status(state.result) + ", balance=" + state.customer.getBalance()
+                + ", stock=" + state.product.getQuantity();
+        }
+    }
+
+    /**
+     * Two threads take one unit each out of a stock of two.
+     */
+    private static final class ConcurrentDecrease extends Scenario<Product> {
+        ConcurrentDecrease() {
+            super("Two stock decreases race", "stock=0");
+        }
+
+        @Override
+        Product newState() {
+            return new Product("Gift Card", 50, 2);
+        }
+
+        @Override
+        void actor1(Product product) {
+            product.decreaseQuantity(1);
+        }
+
+        @Override
+        void actor2(Product product) {
+            product.decreaseQuantity(1);
+        }
+
+        @Override
+        String outcome(Product product) {
+            return "stock=" + product.getQuantity();
+        }
+    }
+
+    /**
+     * Two checkouts of two units each race for the last three units of a
+     * sharded product, spread one per shard, so taking them needs stealing
+     * or gathering across shards. Exactly one checkout may succeed.
+     */
+    private static final class ShardedCheckoutLastUnits extends Scenario<ShardedCheckoutLastUnits.State> {
+        static final class State {
+            final Product product = new Product("Gift Card", 50, 3);
+            final Customer first = new Customer("First", 500);
+            final Customer second = new Customer("Second", 500);
+            final Cart firstCart = cartOf(product, 2);
+            final Cart secondCart = cartOf(product, 2);
+            CheckoutResult firstResult;
+            CheckoutResult secondResult;
+
+            State() {
+                product.enableShardedStock(4);
+            }
+        }
+
+        ShardedCheckoutLastUnits() {
+            super("Two checkouts race for the last units of sharded stock",
+                "SUCCESS, INSUFFICIENT_STOCK, stock=1",
+                "INSUFFICIENT_STOCK, SUCCESS, stock=1");
+        }
+
+        @Override
+        State newState() {
+            return new State();
+        }
+
+        @Override
+        void actor1(State state) {
+            state.firstResult = CheckoutService.tryCheckout(state.first, state.firstCart);
+        }
+
+        @Override
+        void actor2(State state) {
+            state.secondResult = CheckoutService.tryCheckout(state.second, state.secondCart);
+        }
+
+        @Override
+        String outcome(State state) {
+            return status(state.firstResult) + ", " + status(state.secondResult)
+                + ", stock=" + state.product.getQuantity();
+        }
+    }
+
+    /**
+     * A take of six units races two takes of one unit over eight units of
+     * sharded stock, one per shard, so the large take has to gather from
+     * every shard while the small ones steal. There is enough for all three,
+     * so none may be refused, however the moves interleave.
+     */
+    private static final class ShardedLargeVersusSmallTakes extends Scenario<ShardedLargeVersusSmallTakes.State> {
+        static final class State {
+            final Product product = new Product("Gift Card", 50, 8);
+            boolean large;
+            int small;
+
+            State() {
+                product.enableShardedStock(8);
+            }
+        }
+
+        ShardedLargeVersusSmallTakes() {
+            super("A large take races small takes over thinly spread sharded stock",
+                "large=true, small=2, stock=0");
+        }
+
+        @Override
+        State newState() {
+            return new State();
+        }
+
+        @Override
+        void actor1(State state) {
+            state.large = state.product.tryDecreaseQuantity(6);
+        }
+
+        @Override
+        void actor2(State state) {
+            for (int i = 0; i < 2; i++) {
+                if (state.product.tryDecreaseQuantity(1)) {
+                    state.small++;
+                }
+            }
+        }
+
+        @Override
+        String outcome(State state) {
+            return "large=" + state.large + ", small=" + state.small + ", stock=" + state.product.getQuantity();
+        }
+    }
+
+    /**
+     * The same race as {@link ShardedCheckoutLastUnits}, on flat-combining stock.
+     */
+    private static final class CombiningCheckoutLastUnits extends Scenario<CombiningCheckoutLastUnits.State> {
+        static final class State {
+            final Product product = new Product("Gift Card", 50, 3);
+            final Customer first = new Customer("First", 500);
+            final Customer second = new Customer("Second", 500);
+            final Cart firstCart = cartOf(product, 2);
+            final Cart secondCart = cartOf(product, 2);
+            CheckoutResult firstResult;
+            CheckoutResult secondResult;
+
+            State() {
+                product.enableCombiningStock();
+            }
+        }
+
+        CombiningCheckoutLastUnits() {
+            super("Two checkouts race for the last units of flat-combining stock",
+                "SUCCESS, INSUFFICIENT_STOCK, stock=1",
+                "INSUFFICIENT_STOCK, SUCCESS, stock=1");
+        }
+
+        @Override
+        State newState() {
+            return new State();
+        }
+
+        @Override
+        void actor1(State state) {
+            state.firstResult = CheckoutService.tryCheckout(state.first, state.firstCart);
+        }
+
+        @Override
+        void actor2(State state) {
+            state.secondResult = CheckoutService.tryCheckout(state.second, state.secondCart);
+        }
+
+        @Override
+        String outcome(State state) {
+            return status(state.firstResult) + ", " + status(state.secondResult)
+                + ", stock=" + state.product.getQuantity();
+        }
+    }
+
+    /**
+     * Two top-ups of $10 race onto the same balance.
+     */
+    private static final class ConcurrentTopUp extends Scenario<Customer> {
+        ConcurrentTopUp() {
+            super("Two balance top-ups race", "balance=20.0");
+        }
+
+        @Override
+        Customer newState() {
+            return new Customer("Saver", 0);
+        }
+
+        @Override
+        void actor1(Customer customer) {
+            customer.addBalance(10);
+        }
+
+        @Override
+        void actor2(Customer customer) {
+            customer.addBalance(10);
+        }
+
+        @Override
+        String outcome(Customer customer) {
+            return "balance=" + customer.getBalance();
+        }
+    }
+
+    /**
+     * Two threads add the same product to one cart.
+     */
+    private static final class ConcurrentCartAdd extends Scenario<ConcurrentCartAdd.State> {
+        static final class State {
+            final Product product = new Product("Gift Card", 50, 10);
+            final Cart cart = new Cart();
+        }
+
+        ConcurrentCartAdd() {
+            super("Two Cart.add calls race", "quantity=2");
+        }
+
+        @Override
+        State newState() {
+            return new State();
+        }
+
+        @Override
+        void actor1(State state) {
+            add(state);
+        }
+
+        @Override
+        void actor2(State state) {
+            add(state);
+        }
+
+        private static void add(State state) {
+            try {
+                state.cart.add(state.product, 1);
+            } catch (InsufficientStockException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        String outcome(State state) {
+            return "quantity=" + state.cart.getItems().get(state.product);
+        }
+    }
+
+    /**
+     * A customer adds a second unit from another device while the cart is being
+     * checked out. The addition is either part of the order, rejected, or made
+     * after checkout; the customer is never charged for a different quantity
+     * than was taken from stock.
+     */
+    private static final class CartAddVersusCheckout extends Scenario<CartAddVersusCheckout.State> {
+        static final class State {
+            final Product product = new Product("Gift Card", 50, 10);
+            final Customer customer = new Customer("Buyer", 500);
+            final Cart cart = cartOf(product, 1);
+            String added;
+            CheckoutResult result;
+        }
+
+        CartAddVersusCheckout() {
+            super("Cart.add races a checkout of the same cart",
+                "ADDED, SUCCESS, quantity=2, stock=8, balance=392.0",
+                "ADDED, SUCCESS, quantity=2, stock=9, balance=446.0",
+                "REJECTED, SUCCESS, quantity=1, stock=9, balance=446.0");
+        }
+
+        @Override
+        State newState() {
+            return new State();
+        }
+
+        @Override
+        void actor1(State state) {
+            try {
+                state.cart.add(state.product, 1);
+                state.added = "ADDED";
+            } catch (IllegalStateException e) {
+                state.added = "REJECTED";
+            } catch (InsufficientStockException e) {
+                state.added = "INSUFFICIENT_STOCK";
+            }
+        }
+
+        @Override
+        void actor2(State state) {
+            state.result = CheckoutService.tryCheckout(state.customer, state.cart);
+        }
+
+        @Override
+        String outcome(State state) {
+            return state.added + ", " + status(state.result)
+                + ", quantity=" + state.cart.getItems().get(state.product)
+                + ", stock=" + state.product.getQuantity() + ", balance=" + state.customer.getBalance();
+        }
+    }
+
+    /**
+     * Cart.add races Cart.remove on one line of a cart. The running summary
+     * must end up matching the contents, with the same discounts.
+     */
+    private static final class CartAddVersusRemove extends Scenario<CartAddVersusRemove.State> {
+        static final class State {
+            final Product product = new Product("Gift Card", 100, 10);
+            final Cart cart = cartOf(product, 4);
+        }
+
+        CartAddVersusRemove() {
+            super("Cart.add races Cart.remove; the running summary follows",
+                "quantity=3, items=3, subtotal=300.0, discount=30.0");
+        }
+
+        @Override
+        State newState() {
+            return new State();
+        }
+
+        @Override
+        void actor1(State state) {
+            try {
+                state.cart.add(state.product, 1);
+            } catch (InsufficientStockException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        void actor2(State state) {
+            state.cart.remove(state.product, 2);
+        }
+
+        @Override
+        String outcome(State state) {
+            Cart.Summary summary = state.cart.getSummary();
+            return "quantity=" + state.cart.getItems().get(state.product)
+                + ", items=" + summary.getItemCount() + ", subtotal=" + summary.getSubtotal()
+                + ", discount=" + summary.getDiscount();
+        }
+    }
+
+    /**
+     * Two customers check out with the same single-use coupon.
+     * Exactly one may redeem it; the other checkout fails and takes nothing.
+     */
+    private static final class CouponLastUse extends Scenario<CouponLastUse.State> {
+        static final class State {
+            final Product product = new Product("Gift Card", 50, 10);
+            final CouponBook coupons = new CouponBook(1);
+            final Customer first = new Customer("First", 500);
+            final Customer second = new Customer("Second", 500);
+            final Cart firstCart = cartOf(product, 1);
+            final Cart secondCart = cartOf(product, 1);
+            CheckoutResult firstResult;
+            CheckoutResult secondResult;
+
+            State() {
+                coupons.add("ONCE", CouponBook.Offer.amountOff(10), 1);
+                try {
+                    firstCart.applyCoupon(coupons, "ONCE");
+                    secondCart.applyCoupon(coupons, "ONCE");
+                } catch (CouponUnavailableException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        CouponLastUse() {
+            super("Two checkouts race for a single-use coupon",
+                "SUCCESS, COUPON_UNAVAILABLE, uses=0, stock=9",
+                "COUPON_UNAVAILABLE, SUCCESS, uses=0, stock=9");
+        }
+
+        @Override
+        State newState() {
+            return new State();
+        }
+
+        @Override
+        void actor1(State state) {
+            state.firstResult = CheckoutService.tryCheckout(state.first, state.firstCart);
+        }
+
+        @Override
+        void actor2(State state) {
+            state.secondResult = CheckoutService.tryCheckout(state.second, state.secondCart);
+        }
+
+        @Override
+        String outcome(State state) {
+            return status(state.firstResult) + ", " + status(state.secondResult)
+                + ", uses=" + state.coupons.find("ONCE").getRemainingUses()
+                + ", stock=" + state.product.getQuantity();
+        }
+    }
+}
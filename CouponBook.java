@@ -0,0 +1,332 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Coupon codes for millions of single-use and limited-use promotions.
+ *
+ * Codes are 1 to 12 letters and digits, case-insensitive, and are packed into
+ * one long each (base 37), so the book keeps no strings. The packed codes sit
+ * in an open-addressing hash table, each followed by a second long holding the
+ * offer it grants and the redemptions it has left, so a lookup reads a single
+ * cache line. A code costs about 32 bytes including the table's spare slots.
+ *
+ * Adding codes is synchronized. Lookups are lock-free, and redeeming is one CAS
+ * on the code's own counter, so concurrent checkouts never contend unless they
+ * redeem the same code, and a code can never be redeemed more times than it
+ * allows.
+ */
+public class CouponBook {
+    /**
+     * Longest code that fits in a long.
+     */
+    public static final int MAX_CODE_LENGTH = 12;
+
+    private static final int RADIX = 37; // 0 marks the end of a code, then 0-9 and A-Z
+
+    private final int capacity;
+    // Two longs per slot: the packed code (0 if empty), then offer id << 32 | redemptions left
+    private final AtomicLongArray table;
+    private final int mask;
+    private volatile Offer[] offers = new Offer[0];
+    private int size; // guarded by this
+
+    /**
+     * Creates an empty book.
+     *
+     * @param capacity Maximum number of codes
+     */
+    public CouponBook(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        // At least twice as many slots as codes keeps probe sequences short
+        int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        this.table = new AtomicLongArray(slots * 2);
+        this.mask = slots - 1;
+    }
+
+    /**
+     * Adds a code.
+     *
+     * @param code Coupon code, 1 to 12 letters and digits
+     * @param offer Discount the code grants
+     * @param uses Number of times the code can be redeemed, 1 for single-use codes
+     */
+    public synchronized void add(String code, Offer offer, int uses) {
+        long packed = pack(code);
+        if (packed == 0) {
+            throw new IllegalArgumentException("Coupon codes must be 1 to " + MAX_CODE_LENGTH
+                + " letters and digits: " + code);
+        }
+        if (offer == null) {
+            throw new IllegalArgumentException("Offer cannot be null");
+        }
+        if (uses <= 0) {
+            throw new IllegalArgumentException("Uses must be positive");
+        }
+        int slot = findSlot(packed);
+        if (table.get(slot * 2) != 0) {
+            throw new IllegalArgumentException("Coupon code already exists: " + code);
+        }
+        if (size == capacity) {
+            throw new IllegalStateException("Coupon book is full (" + capacity + " codes)");
+        }
+        table.set(slot * 2 + 1, (long) offerId(offer) << 32 | uses);
+        table.set(slot * 2, packed); // publishes the slot
+        size++;
+    }
+
+    /**
+     * Gets the index of an offer, registering it on first use. Promotions share
+     * a handful of offers across millions of codes.
+     */
+    private int offerId(Offer offer) {
+        Offer[] known = offers;
+        for (int i = 0; i < known.length; i++) {
+            if (known[i] == offer) {
+                return i;
+            }
+        }
+        Offer[] grown = Arrays.copyOf(known, known.length + 1);
+        grown[known.length] = offer;
+        offers = grown;
+        return known.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Looks up a code.
+     *
+     * @param code Coupon code as typed; case is ignored
+     * @return The coupon, or null if the book has no such code
+     */
+    public Coupon find(String code) {
+        long packed = pack(code);
+        if (packed == 0) {
+            return null;
+        }
+        int slot = findSlot(packed);
+        return table.get(slot * 2) == packed ? new Coupon(this, slot) : null;
+    }
+
+    /**
+     * Probes the table for a packed code, stopping at its slot or at the first empty one.
+     */
+    private int findSlot(long packed) {
+        int slot = (int) mix(packed) & mask;
+        while (true) {
+            long current = table.get(slot * 2);
+            if (current == 0 || current == packed) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Takes one redemption of the code in a slot.
+     *
+     * @return true if a redemption was left and is now taken
+     */
+    private boolean redeem(int slot) {
+        int index = slot * 2 + 1;
+        while (true) {
+            long state = table.get(index);
+            if ((int) state <= 0) {
+                return false;
+            }
+            if (table.compareAndSet(index, state, state - 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Packs a code into a long, one base-37 digit per character.
+     *
+     * @return The packed code, or 0 if the text is not a valid code
+     */
+    static long pack(String code) {
+        if (code == null || code.isEmpty() || code.length() > MAX_CODE_LENGTH) {
+            return 0;
+        }
+        long packed = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = 1 + c - '0';
+            } else if (c >= 'A' && c <= 'Z') {
+                digit = 11 + c - 'A';
+            } else if (c >= 'a' && c <= 'z') {
+                digit = 11 + c - 'a';
+            } else {
+                return 0;
+            }
+            packed = packed * RADIX + digit;
+        }
+        return packed;
+    }
+
+    /**
+     * Turns a packed code back into its upper-case text.
+     */
+    static String unpack(long packed) {
+        char[] text = new char[MAX_CODE_LENGTH];
+        int start = text.length;
+        while (packed != 0) {
+            int digit = (int) (packed % RADIX);
+            text[--start] = (char) (digit <= 10 ? '0' + digit - 1 : 'A' + digit - 11);
+            packed /= RADIX;
+        }
+        return new String(text, start, text.length - start);
+    }
+
+    /**
+     * Finalizer of SplitMix64, so that codes differing in the last character spread across the table.
+     */
+    private static long mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return key ^ (key >>> 31);
+    }
+
+    /**
+     * Discount granted by a coupon: a share of the subtotal, a fixed amount, or both.
+     */
+    public static final class Offer {
+        private final String description;
+        private final double percentOff;
+        private final double amountOff;
+        private final double minimumSubtotal;
+
+        /**
+         * Creates an offer.
+         *
+         * @param description Short description shown on the receipt, e.g. "10% off"
+         * @param percentOff Percentage taken off the subtotal
+         * @param amountOff Fixed amount taken off the subtotal
+         * @param minimumSubtotal Smallest subtotal the offer applies to
+         */
+        public Offer(String description, double percentOff, double amountOff, double minimumSubtotal) {
+            this.description = description;
+            this.percentOff = percentOff;
+            this.amountOff = amountOff;
+            this.minimumSubtotal = minimumSubtotal;
+        }
+
+        public static Offer percentOff(double percent) {
+            return new Offer(String.format(Locale.ROOT, "%.0f%% off", percent), percent, 0, 0);
+        }
+
+        public static Offer amountOff(double amount) {
+            return new Offer(String.format(Locale.ROOT, "$%.2f off", amount), 0, amount, 0);
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public double getMinimumSubtotal() {
+            return minimumSubtotal;
+        }
+
+        /**
+         * Gets the discount on a subtotal; never more than the subtotal itself.
+         */
+        public double discountFor(double subtotal) {
+            return discountFor(subtotal, FxRates.getCurrent().getBase());
+        }
+
+        /**
+         * Gets the discount on a subtotal in another currency. The fixed amount and
+         * the minimum subtotal are in dollars and are converted at the given rate.
+         *
+         * @param subtotal Subtotal in the currency of the rate
+         * @param rate Currency of the subtotal and of the discount
+         */
+        public double discountFor(double subtotal, FxRates.Rate rate) {
+            if (rate.toBase(subtotal) < minimumSubtotal) {
+                return 0;
+            }
+            return Math.min(subtotal, subtotal * percentOff / 100 + rate.fromBase(amountOff));
+        }
+    }
+
+    /**
+     * A code in the book. Coupons hold no data of their own, so they can be
+     * looked up on demand and dropped after use.
+     */
+    public static final class Coupon {
+        private final CouponBook book;
+        private final int slot;
+
+        Coupon(CouponBook book, int slot) {
+            this.book = book;
+            this.slot = slot;
+        }
+
+        /**
+         * Gets the code in upper case.
+         */
+        public String getCode() {
+            return unpack(book.table.get(slot * 2));
+        }
+
+        public Offer getOffer() {
+            return book.offers[(int) (book.table.get(slot * 2 + 1) >>> 32)];
+        }
+
+        public int getRemainingUses() {
+            return (int) book.table.get(slot * 2 + 1);
+        }
+
+        public boolean isAvailable() {
+            return getRemainingUses() > 0;
+        }
+
+        /**
+         * Takes one redemption. Concurrent redemptions of one code never take more than it has.
+         *
+         * @return true if the coupon was redeemed, false if it has no uses left
+         */
+        public boolean tryRedeem() {
+            return book.redeem(slot);
+        }
+
+        /**
+         * Gives back a redemption, e.g. when the order it was taken for fails afterwards.
+         */
+        public void release() {
+            book.table.incrementAndGet(slot * 2 + 1);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Coupon)) {
+                return false;
+            }
+            Coupon coupon = (Coupon) other;
+            return coupon.book == book && coupon.slot == slot;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(book) * 31 + slot;
+        }
+
+        @Override
+        public String toString() {
+            return getCode() + " (" + getOffer().getDescription() + ")";
+        }
+    }
+}
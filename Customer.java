@@ -4,7 +4,7 @@
  */
 public class Customer {
     private String name;
-    private double balance;
+    private volatile double balance;
 
     /**
      * Creates a new customer with the specified name and initial balance.
@@ -42,9 +42,21 @@ public class Customer {
      * @param amount Amount to deduct
      */
     public void deductBalance(double amount) {
-        if (amount <= this.balance) {
-            this.balance -= amount;
+        tryDeductBalance(amount);
+    }
+
+    /**
+     * Atomically deducts the specified amount from the customer's balance.
+     *
+     * @param amount Amount to deduct
+     * @return true if the amount was deducted, false if the balance was insufficient
+     */
+    public synchronized boolean tryDeductBalance(double amount) {
+        if (amount > this.balance) {
+            return false;
         }
+        this.balance -= amount;
+        return true;
     }
 
     /**
@@ -52,7 +64,7 @@ public class Customer {
      *
      * @param amount Amount to add
      */
-    public void addBalance(double amount) {
+    public synchronized void addBalance(double amount) {
         if (amount > 0) {
             this.balance += amount;
         }
@@ -60,6 +72,6 @@ public class Customer {
 
     @Override
     public String toString() {
-        return String.format("Customer{name='%s', balance=%.2f}", name, balance);
+        return String.format("Customer{name='%s', balance=%.2f}", getName(), getBalance());
     }
 }
\ No newline at end of file
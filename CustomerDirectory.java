@@ -0,0 +1,353 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Columnar, off-heap registry of customer accounts for very large customer bases.
+ * Accounts get dense ids in the order they are registered; balances live in a
+ * long column of cents and names in one shared byte buffer, so an account costs
+ * a few dozen bytes and no heap objects. An open-addressing hash table over the
+ * names finds an account's id without decoding any name but the one matched.
+ * Use {@link #view(int)} to get a Customer that CheckoutService can charge.
+ *
+ * Registration is synchronized. Lookups and balance updates are lock-free:
+ * balances change with a CAS on their column, and a new account becomes
+ * visible to lookups only once its row is completely written.
+ */
+public class CustomerDirectory {
+    /**
+     * Returned by {@link #find(String)} when no account has the name.
+     */
+    public static final int NOT_FOUND = -1;
+
+    // Gives atomic access to the balance and index columns of direct buffers
+    private static final VarHandle LONG_COLUMN =
+        MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final int capacity;
+    private final ByteBuffer balances;    // long cents per account
+    private final ByteBuffer nameOffsets; // int per account + 1, into the names buffer
+    private final ByteBuffer index;       // long per slot: name hash << 32 | account id + 1, or 0 if empty
+    private final int indexMask;
+    private volatile ByteBuffer names;    // UTF-8 bytes of all names, back to back
+    private volatile int size;
+
+    /**
+     * Creates an empty directory that can hold up to the given number of accounts.
+     *
+     * @param capacity Maximum number of accounts
+     */
+    public CustomerDirectory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.balances = column(capacity, Long.BYTES);
+        this.nameOffsets = column(capacity + 1, Integer.BYTES);
+        // At least twice as many slots as accounts keeps probe sequences short
+        int slots = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        this.index = column(slots, Long.BYTES);
+        this.indexMask = slots - 1;
+        this.names = column(capacity, 12);
+    }
+
+    private static ByteBuffer column(int entries, int width) {
+        return ByteBuffer.allocateDirect(entries * width).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Registers a new account.
+     *
+     * @param name Customer's name, unique within the directory
+     * @param balance Initial balance, rounded to the nearest cent
+     * @return Id of the new account
+     */
+    public synchronized int add(String name, double balance) {
+        if (name == null) {
+            throw new IllegalArgumentException("Customer name cannot be null");
+        }
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(encoded);
+        int slot = findSlot(name, hash);
+        if ((long) LONG_COLUMN.getAcquire(index, slot * Long.BYTES) != 0) {
+            throw new IllegalArgumentException("Customer name already registered: " + name);
+        }
+        if (size == capacity) {
+            throw new IllegalStateException("Customer directory is full (" + capacity + " accounts)");
+        }
+
+        int id = size;
+        int offset = nameOffsets.getInt(id * Integer.BYTES);
+        ensureNameCapacity(offset + encoded.length);
+        ByteBuffer target = names.duplicate();
+        target.position(offset);
+        target.put(encoded);
+        nameOffsets.putInt((id + 1) * Integer.BYTES, offset + encoded.length);
+        LONG_COLUMN.setVolatile(balances, id * Long.BYTES, cents(balance));
+
+        size = id + 1;
+        // Publish the row: lookups that see the slot also see everything written above
+        LONG_COLUMN.setRelease(index, slot * Long.BYTES, (long) hash << 32 | (id + 1));
+        return id;
+    }
+
+    private void ensureNameCapacity(int required) {
+        if (required <= names.capacity()) {
+            return;
+        }
+        int newCapacity = Math.max(required, names.capacity() * 2);
+        ByteBuffer grown = ByteBuffer.allocateDirect(newCapacity).order(ByteOrder.nativeOrder());
+        ByteBuffer source = names.duplicate();
+        source.clear();
+        grown.put(source);
+        names = grown;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Finds an account by name.
+     *
+     * @param name Customer's name
+     * @return Id of the account, or NOT_FOUND
+     */
+    public int find(String name) {
+        int hash = ascii(name) ? hash(name) : hash(name.getBytes(StandardCharsets.UTF_8));
+        long entry = (long) LONG_COLUMN.getAcquire(index, findSlot(name, hash) * Long.BYTES);
+        return (int) entry - 1;
+    }
+
+    /**
+     * Probes the index for a name, stopping at its slot or at the first empty one.
+     * The hash kept in each slot rules out most other names without touching their rows.
+     */
+    private int findSlot(String name, int hash) {
+        int slot = hash & indexMask;
+        while (true) {
+            long entry = (long) LONG_COLUMN.getAcquire(index, slot * Long.BYTES);
+            if (entry == 0) {
+                return slot;
+            }
+            if ((int) (entry >>> 32) == hash && nameEquals((int) entry - 1, name)) {
+                return slot;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    private boolean nameEquals(int id, String name) {
+        int start = nameOffsets.getInt(id * Integer.BYTES);
+        int end = nameOffsets.getInt((id + 1) * Integer.BYTES);
+        if (!ascii(name)) {
+            return getName(id).equals(name);
+        }
+        if (end - start != name.length()) {
+            return false;
+        }
+        ByteBuffer source = names;
+        for (int i = 0; i < name.length(); i++) {
+            if (source.get(start + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean ascii(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hashes the UTF-8 bytes of a name.
+     */
+    private static int hash(byte[] encoded) {
+        int hash = 1;
+        for (byte b : encoded) {
+            hash = 31 * hash + b;
+        }
+        return spread(hash);
+    }
+
+    /**
+     * Hashes an ASCII name without encoding it; equal to hashing its UTF-8 bytes.
+     */
+    private static int hash(String name) {
+        int hash = 1;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + name.charAt(i);
+        }
+        return spread(hash);
+    }
+
+    // Spreads the high bits into the low ones used to pick a slot
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    public String getName(int id) {
+        checkId(id);
+        int start = nameOffsets.getInt(id * Integer.BYTES);
+        int end = nameOffsets.getInt((id + 1) * Integer.BYTES);
+        byte[] encoded = new byte[end - start];
+        ByteBuffer source = names.duplicate();
+        source.position(start);
+        source.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets an account's balance in cents.
+     */
+    public long getBalanceCents(int id) {
+        checkId(id);
+        return (long) LONG_COLUMN.getVolatile(balances, id * Long.BYTES);
+    }
+
+    public double getBalance(int id) {
+        return getBalanceCents(id) / 100.0;
+    }
+
+    /**
+     * Takes money from an account. Like Customer, nothing is taken when the
+     * amount exceeds the balance.
+     *
+     * @param cents Amount to take, in cents
+     * @return true if the amount was taken
+     */
+    public boolean tryDeduct(int id, long cents) {
+        checkId(id);
+        int offset = id * Long.BYTES;
+        while (true) {
+            long current = (long) LONG_COLUMN.getVolatile(balances, offset);
+            if (cents > current) {
+                return false;
+            }
+            if (LONG_COLUMN.compareAndSet(balances, offset, current, current - cents)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds money to an account; amounts that are not positive are ignored.
+     *
+     * @param cents Amount to add, in cents
+     */
+    public void credit(int id, long cents) {
+        checkId(id);
+        if (cents > 0) {
+            LONG_COLUMN.getAndAdd(balances, id * Long.BYTES, cents);
+        }
+    }
+
+    /**
+     * Sums the balances of every account with a straight scan of the column.
+     *
+     * @return Total balance held, in cents
+     */
+    public long totalBalanceCents() {
+        long total = 0;
+        int count = size;
+        for (int id = 0; id < count; id++) {
+            total += (long) LONG_COLUMN.getVolatile(balances, id * Long.BYTES);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the off-heap bytes currently allocated by this directory.
+     */
+    public long allocatedBytes() {
+        return (long) balances.capacity() + nameOffsets.capacity()
+            + index.capacity() + names.capacity();
+    }
+
+    /**
+     * Creates a Customer view backed by the given account. Views hold no data
+     * of their own, so they can be created on demand and dropped after use.
+     *
+     * @param id Account to view
+     * @return A Customer backed by this directory
+     */
+    public View view(int id) {
+        checkId(id);
+        return new View(this, id);
+    }
+
+    private static long cents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Unknown customer id: " + id);
+        }
+    }
+
+    /**
+     * Customer backed by an account of the directory. Amounts are rounded to
+     * the nearest cent, the unit balances are kept in.
+     */
+    public static class View extends Customer {
+        private final CustomerDirectory directory;
+        private final int id;
+
+        View(CustomerDirectory directory, int id) {
+            super(null, 0);
+            this.directory = directory;
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public String getName() {
+            return directory.getName(id);
+        }
+
+        @Override
+        public double getBalance() {
+            return directory.getBalance(id);
+        }
+
+        @Override
+        public boolean tryDeductBalance(double amount) {
+            return directory.tryDeduct(id, cents(amount));
+        }
+
+        @Override
+        public void addBalance(double amount) {
+            directory.credit(id, cents(amount));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof View)) {
+                return false;
+            }
+            View view = (View) other;
+            return view.directory == directory && view.id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(directory) * 31 + id;
+        }
+    }
+}
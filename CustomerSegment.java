@@ -0,0 +1,25 @@
+/**
+ * Kinds of customer an order is counted under in the sales aggregates.
+ * The thresholds follow the discount rules applied by CheckoutService.
+ */
+public enum CustomerSegment {
+    // First order, eligible for the welcome discount
+    NEW,
+    // Order of $1000 or more, eligible for the VIP discount
+    VIP,
+    REGULAR;
+
+    /**
+     * Determines the segment of one order.
+     *
+     * @param firstOrder Whether this is the customer's first order
+     * @param subtotal Order subtotal before discounts
+     * @return The segment; VIP takes precedence over NEW
+     */
+    public static CustomerSegment of(boolean firstOrder, double subtotal) {
+        if (subtotal >= CartDiscount.VIP.getMinimumSubtotal()) {
+            return VIP;
+        }
+        return firstOrder ? NEW : REGULAR;
+    }
+}
@@ -35,5 +35,6 @@ public class ExpirableProduct extends Product {
      */
     public void setExpirationDate(LocalDate expiryDate) {
         this.expiryDate = expiryDate;
+        fireExpirationChanged();
     }
 }
\ No newline at end of file
@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import utils.CurrencyFormat;
+
+/**
+ * Exchange rates from the base currency, US dollars, to the other currencies
+ * the store sells in. Product prices and customer balances stay in dollars;
+ * checkout in another currency converts prices with the table current at the
+ * start of the checkout and charges the balance the dollar equivalent.
+ *
+ * Tables are immutable. Rates are loaded locally, from a properties file of
+ * units per dollar:
+ * <pre>
+ *   # Units of each currency per US dollar
+ *   EUR = 0.92
+ *   JPY = 151.3
+ * </pre>
+ * and swapped in as a whole with {@link #setCurrent(FxRates)}. Each product
+ * converts its price into every currency of a new table, rounded to the
+ * currency's smallest unit, the first time it is priced after the swap, so
+ * checkout in any currency reads a precomputed price instead of converting
+ * and rounding per line.
+ */
+public final class FxRates {
+    /**
+     * Currency of product prices and customer balances.
+     */
+    public static final String BASE_CURRENCY = "USD";
+
+    private static volatile FxRates current = new FxRates(Collections.emptyMap());
+
+    private final Rate[] rates; // the base currency first, then the others by code
+    private final Map<String, Rate> byCode = new HashMap<>();
+
+    private FxRates(Map<String, Double> unitsPerDollar) {
+        TreeMap<String, Double> sorted = new TreeMap<>(unitsPerDollar);
+        sorted.remove(BASE_CURRENCY);
+        rates = new Rate[sorted.size() + 1];
+        rates[0] = new Rate(this, 0, CurrencyFormat.of(BASE_CURRENCY), 1.0);
+        int index = 1;
+        for (Map.Entry<String, Double> entry : sorted.entrySet()) {
+            double rate = entry.getValue();
+            if (!(rate > 0) || Double.isInfinite(rate)) {
+                throw new IllegalArgumentException("Invalid rate for " + entry.getKey() + ": " + rate);
+            }
+            rates[index] = new Rate(this, index, CurrencyFormat.of(entry.getKey()), rate);
+            index++;
+        }
+        for (Rate rate : rates) {
+            byCode.put(rate.getCode(), rate);
+        }
+    }
+
+    /**
+     * Creates a table.
+     *
+     * @param unitsPerDollar Rates by ISO 4217 currency code, in units of the currency per US dollar
+     * @throws IllegalArgumentException if a code is not a currency or a rate is not positive
+     */
+    public static FxRates of(Map<String, Double> unitsPerDollar) {
+        return new FxRates(unitsPerDollar);
+    }
+
+    /**
+     * Reads a table from a properties file of units per dollar.
+     *
+     * @param path Rate file, UTF-8
+     */
+    public static FxRates load(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    /**
+     * Reads a table in the properties format of {@link #load(Path)}.
+     */
+    public static FxRates parse(Reader reader) throws IOException {
+        Properties properties = new Properties();
+        properties.load(reader);
+        Map<String, Double> rates = new HashMap<>();
+        for (String code : properties.stringPropertyNames()) {
+            String value = properties.getProperty(code).trim();
+            try {
+                rates.put(code.trim(), Double.parseDouble(value));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid rate for " + code + ": " + value);
+            }
+        }
+        return new FxRates(rates);
+    }
+
+    /**
+     * Gets the table checkout uses. Until one is set it only has the base currency.
+     */
+    public static FxRates getCurrent() {
+        return current;
+    }
+
+    /**
+     * Replaces the table checkout uses. Checkouts already running finish with the old one.
+     */
+    public static void setCurrent(FxRates rates) {
+        if (rates == null) {
+            throw new IllegalArgumentException("Rates cannot be null");
+        }
+        current = rates;
+    }
+
+    /**
+     * Gets the rate of a currency.
+     *
+     * @param code ISO 4217 currency code
+     * @throws IllegalArgumentException if the table has no rate for the currency
+     */
+    public Rate get(String code) {
+        Rate rate = byCode.get(code);
+        if (rate == null) {
+            throw new IllegalArgumentException("No exchange rate for " + code);
+        }
+        return rate;
+    }
+
+    public Rate getBase() {
+        return rates[0];
+    }
+
+    /**
+     * Gets the codes of all currencies in the table, the base currency first.
+     */
+    public List<String> getCurrencies() {
+        List<String> codes = new ArrayList<>(rates.length);
+        for (Rate rate : rates) {
+            codes.add(rate.getCode());
+        }
+        return codes;
+    }
+
+    /**
+     * Converts a dollar price into every currency of the table.
+     */
+    Prices convert(double price) {
+        double[] converted = new double[rates.length];
+        for (int i = 0; i < rates.length; i++) {
+            converted[i] = rates[i].fromBase(price);
+        }
+        return new Prices(this, price, converted);
+    }
+
+    /**
+     * One currency of a table: its rate from dollars and how its amounts are written.
+     */
+    public static final class Rate {
+        private final FxRates table;
+        private final int index;
+        private final CurrencyFormat format;
+        private final double unitsPerDollar;
+
+        Rate(FxRates table, int index, CurrencyFormat format, double unitsPerDollar) {
+            this.table = table;
+            this.index = index;
+            this.format = format;
+            this.unitsPerDollar = unitsPerDollar;
+        }
+
+        public String getCode() {
+            return format.getCode();
+        }
+
+        public CurrencyFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * Gets the units of this currency per US dollar.
+         */
+        public double getUnitsPerDollar() {
+            return unitsPerDollar;
+        }
+
+        public boolean isBase() {
+            return index == 0;
+        }
+
+        /**
+         * Converts a dollar amount, rounded to the currency's smallest unit.
+         * Dollar amounts are returned as they are.
+         */
+        public double fromBase(double dollars) {
+            return index == 0 ? dollars : format.round(dollars * unitsPerDollar);
+        }
+
+        /**
+         * Converts an amount in this currency to dollars, unrounded.
+         */
+        public double toBase(double amount) {
+            return index == 0 ? amount : amount / unitsPerDollar;
+        }
+
+        FxRates getTable() {
+            return table;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return getCode() + " " + unitsPerDollar;
+        }
+    }
+
+    /**
+     * A dollar price converted into every currency of one table.
+     */
+    static final class Prices {
+        final FxRates table;
+        final double price;
+        final double[] converted;
+
+        Prices(FxRates table, double price, double[] converted) {
+            this.table = table;
+            this.price = price;
+            this.converted = converted;
+        }
+    }
+}
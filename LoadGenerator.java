@@ -0,0 +1,316 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import exceptions.InsufficientStockException;
+import utils.LatencyHistogram;
+
+/**
+ * Load generator for the checkout path.
+ * Simulates concurrent customers checking out carts against shared product stock,
+ * for a fixed duration or number of orders, and reports throughput, latency
+ * percentiles and checkout outcomes. Customers who run out of money top up their
+ * balance and sold-out products are restocked, so long runs keep placing orders.
+ * Afterwards it verifies that no product or balance went negative, that every unit
+ * taken from stock was sold, and that the money taken from customers equals the
+ * sum of the order totals.
+ *
+ * Usage: java LoadGenerator [threads] [duration|orders] [mix]
+ *   java LoadGenerator 8 10s mixed      # 8 threads for 10 seconds
+ *   java LoadGenerator 8 100000 small   # 8 threads until 100000 orders
+ */
+public class LoadGenerator {
+    private static final int CARTS_PER_THREAD = 32;
+    private static final int CUSTOMERS_PER_THREAD = 4;
+    private static final int INITIAL_STOCK = 50_000;
+    private static final int RESTOCK = 10_000;
+    private static final double INITIAL_BALANCE = 250_000.0;
+    private static final double TOP_UP = 250_000.0;
+    private static final double MONEY_TOLERANCE = 0.005;
+    private static final long OVERLOAD_BACKOFF_NANOS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        String limit = args.length > 1 ? args[1] : "10s";
+        String mix = args.length > 2 ? args[2] : "mixed";
+
+        long durationNanos = 0;
+        long orderLimit = 0;
+        if (limit.endsWith("s")) {
+            durationNanos = Long.parseLong(limit.substring(0, limit.length() - 1)) * 1_000_000_000L;
+        } else {
+            orderLimit = Long.parseLong(limit);
+        }
+
+        List<Product> products = createProducts();
+        Map<Product, Integer> productIndex = new IdentityHashMap<>();
+        for (Product product : products) {
+            productIndex.put(product, productIndex.size());
+        }
+        Customer[] customers = new Customer[threads * CUSTOMERS_PER_THREAD];
+        for (int i = 0; i < customers.length; i++) {
+            customers[i] = new Customer("Customer " + (i + 1), INITIAL_BALANCE);
+        }
+
+        System.out.println("CHECKOUT LOAD GENERATOR");
+        System.out.println("==========================================");
+        System.out.println("Threads:   " + threads);
+        System.out.println("Customers: " + customers.length);
+        System.out.println("Cart mix:  " + mix);
+        System.out.println("Limit:     " + (durationNanos > 0 ? limit : orderLimit + " orders"));
+
+        // Carts are built up front so the run measures checkouts, not Cart.add
+        List<Cart[]> carts = new ArrayList<>();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int t = 0; t < threads; t++) {
+                carts.add(createCarts(products, mix, new Random(t)));
+            }
+        } finally {
+            System.setOut(console);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong ordersLeft = new AtomicLong(orderLimit > 0 ? orderLimit : Long.MAX_VALUE);
+        long deadline = durationNanos > 0 ? System.nanoTime() + durationNanos : Long.MAX_VALUE;
+        List<Future<WorkerStats>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Cart[] workerCarts = carts.get(t);
+            long seed = 1000 + t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                return runWorker(workerCarts, customers, productIndex, ordersLeft, deadline, seed);
+            }));
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        WorkerStats total = new WorkerStats(products.size());
+        for (Future<WorkerStats> future : futures) {
+            total.add(future.get());
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        pool.shutdown();
+
+        report(total, elapsedNanos);
+        boolean valid = checkInvariants(products, customers, total);
+        if (!valid) {
+            System.exit(1);
+        }
+    }
+
+    private static WorkerStats runWorker(Cart[] carts, Customer[] customers, Map<Product, Integer> productIndex,
+                                         AtomicLong ordersLeft, long deadline, long seed) {
+        WorkerStats stats = new WorkerStats(productIndex.size());
+        Random random = new Random(seed);
+        while (ordersLeft.getAndDecrement() > 0 && System.nanoTime() < deadline) {
+            Cart cart = carts[random.nextInt(carts.length)];
+            Customer customer = customers[random.nextInt(customers.length)];
+
+            long start = System.nanoTime();
+            CheckoutResult result = CheckoutService.tryCheckout(customer, cart);
+            stats.latency.record(System.nanoTime() - start);
+
+            stats.outcomes[result.getStatus().ordinal()]++;
+            switch (result.getStatus()) {
+                case SUCCESS:
+                    stats.revenue += result.getTotal();
+                    for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+                        stats.unitsSold[productIndex.get(entry.getKey())] += entry.getValue();
+                    }
+                    break;
+                case INSUFFICIENT_BALANCE:
+                    customer.addBalance(TOP_UP);
+                    stats.toppedUp += TOP_UP;
+                    break;
+                case INSUFFICIENT_STOCK:
+                    for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+                        if (entry.getKey().getQuantity() < entry.getValue()) {
+                            entry.getKey().increaseQuantity(RESTOCK);
+                            stats.restocked[productIndex.get(entry.getKey())] += RESTOCK;
+                        }
+                    }
+                    break;
+                case OVERLOADED:
+                    // Shed requests back off briefly, as a real client would, instead of spinning
+                    LockSupport.parkNanos(OVERLOAD_BACKOFF_NANOS);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return stats;
+    }
+
+    private static List<Product> createProducts() {
+        List<Product> products = new ArrayList<>();
+        products.add(new ShippableExpirableProduct("Cheese", 100, INITIAL_STOCK, 0.2, LocalDate.now().plusDays(30)));
+        products.add(new ShippableExpirableProduct("Biscuits", 150, INITIAL_STOCK, 0.7, LocalDate.now().plusMonths(6)));
+        products.add(new Product("Mobile scratch card", 50, INITIAL_STOCK));
+        products.add(new Product("Digital Download", 75, INITIAL_STOCK));
+        products.add(new ShippableProduct("TV", 5000, INITIAL_STOCK, 15.0));
+        products.add(new ShippableProduct("Gaming Laptop", 1200, INITIAL_STOCK, 2.5));
+        return products;
+    }
+
+    /**
+     * Builds the carts one worker cycles through.
+     *
+     * @param mix "small" (groceries and cards), "electronics" (one or two big items) or "mixed"
+     */
+    private static Cart[] createCarts(List<Product> products, String mix, Random random) {
+        List<Product> candidates;
+        int maxLines;
+        int maxQuantity;
+        switch (mix) {
+            case "small":
+                candidates = products.subList(0, 4);
+                maxLines = 3;
+                maxQuantity = 3;
+                break;
+            case "electronics":
+                candidates = products.subList(4, 6);
+                maxLines = 2;
+                maxQuantity = 1;
+                break;
+            case "mixed":
+                candidates = products;
+                maxLines = 4;
+                maxQuantity = 2;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown cart mix: " + mix);
+        }
+
+        Cart[] carts = new Cart[CARTS_PER_THREAD];
+        for (int i = 0; i < carts.length; i++) {
+            carts[i] = new Cart();
+            int lines = 1 + random.nextInt(maxLines);
+            for (int line = 0; line < lines; line++) {
+                Product product = candidates.get(random.nextInt(candidates.size()));
+                try {
+                    carts[i].add(product, 1 + random.nextInt(maxQuantity));
+                } catch (InsufficientStockException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return carts;
+    }
+
+    private static void report(WorkerStats stats, long elapsedNanos) {
+        long orders = 0;
+        for (long count : stats.outcomes) {
+            orders += count;
+        }
+        LatencyHistogram.Snapshot latency = stats.latency.snapshot();
+
+        System.out.println();
+        System.out.printf("Orders:     %d in %.2f s (%.0f checkouts/s)%n",
+            orders, elapsedNanos / 1e9, orders / (elapsedNanos / 1e9));
+        for (CheckoutResult.Status status : CheckoutResult.Status.values()) {
+            System.out.printf("  %-22s %d%n", status, stats.outcomes[status.ordinal()]);
+        }
+        System.out.printf("Latency:    p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n",
+            latency.getP50() / 1e3, latency.getP90() / 1e3, latency.getP99() / 1e3,
+            latency.getP999() / 1e3, latency.getMax() / 1e3);
+        System.out.printf("Revenue:    $%.2f (customers topped up $%.2f)%n", stats.revenue, stats.toppedUp);
+        CheckoutMetrics metrics = CheckoutMetrics.getInstance();
+        System.out.printf("Admission:  %d admitted, %d shed, concurrency limit now %d%n",
+            metrics.getAdmittedCount(), metrics.getShedCount(), metrics.getConcurrencyLimit());
+        StringBuilder top = new StringBuilder();
+        for (BestsellerTracker.Bestseller bestseller : BestsellerTracker.getInstance().topByUnits(3)) {
+            top.append(top.length() == 0 ? "" : ", ").append(bestseller.getProduct().getName())
+                .append(" (").append(bestseller.getAmount()).append(')');
+        }
+        System.out.println("Top units:  " + top);
+        SalesAggregates.Totals lastMinute = SalesAggregates.getInstance().totals(SalesAggregates.Window.LAST_MINUTE);
+        System.out.printf("Last min:   %d orders, $%.2f charged, $%.2f discounts, $%.2f shipping, $%.2f tax%n",
+            lastMinute.getOrderCount(), lastMinute.getRevenue(), lastMinute.getDiscounts(),
+            lastMinute.getShipping(), lastMinute.getTax());
+    }
+
+    private static boolean checkInvariants(List<Product> products, Customer[] customers, WorkerStats stats) {
+        boolean valid = true;
+        System.out.println();
+        System.out.println("Invariants:");
+
+        for (int i = 0; i < products.size(); i++) {
+            Product product = products.get(i);
+            int remaining = product.getQuantity();
+            if (remaining < 0) {
+                System.out.println("  FAIL " + product.getName() + " stock went negative: " + remaining);
+                valid = false;
+            }
+            long taken = INITIAL_STOCK + stats.restocked[i] - remaining;
+            if (taken != stats.unitsSold[i]) {
+                System.out.println("  FAIL " + product.getName() + " lost " + taken
+                    + " units from stock but sold " + stats.unitsSold[i]);
+                valid = false;
+            }
+        }
+
+        double deducted = stats.toppedUp;
+        for (Customer customer : customers) {
+            if (customer.getBalance() < 0) {
+                System.out.println("  FAIL " + customer.getName() + " has a negative balance: " + customer.getBalance());
+                valid = false;
+            }
+            deducted += INITIAL_BALANCE - customer.getBalance();
+        }
+        // Balances and totals are doubles, so allow for one rounding error per order
+        long orders = stats.outcomes[CheckoutResult.Status.SUCCESS.ordinal()];
+        double tolerance = MONEY_TOLERANCE + orders * Math.ulp(Math.max(stats.revenue, INITIAL_BALANCE + TOP_UP));
+        if (Math.abs(deducted - stats.revenue) > tolerance) {
+            System.out.printf("  FAIL balances dropped by $%.2f but orders totalled $%.2f%n", deducted, stats.revenue);
+            valid = false;
+        }
+
+        System.out.println(valid
+            ? "  OK   no negative stock, stock and money conserved"
+            : "  Invariant violations found");
+        return valid;
+    }
+
+    /**
+     * Counters kept by one worker and merged at the end, so workers share nothing while running.
+     */
+    private static final class WorkerStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final long[] outcomes = new long[CheckoutResult.Status.values().length];
+        final long[] unitsSold;
+        final long[] restocked;
+        double revenue;
+        double toppedUp;
+
+        WorkerStats(int productCount) {
+            unitsSold = new long[productCount];
+            restocked = new long[productCount];
+        }
+
+        void add(WorkerStats other) {
+            for (int i = 0; i < outcomes.length; i++) {
+                outcomes[i] += other.outcomes[i];
+            }
+            for (int i = 0; i < unitsSold.length; i++) {
+                unitsSold[i] += other.unitsSold[i];
+                restocked[i] += other.restocked[i];
+            }
+            revenue += other.revenue;
+            toppedUp += other.toppedUp;
+            latency.add(other.latency);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import utils.BloomFilter;
+
+/**
+ * Which customers have ordered before, for first-order rules such as the
+ * welcome discount. Customers are identified by name.
+ *
+ * A Bloom filter sits in front of the exact set of customers. Most lookups
+ * are for customers who have never ordered, and the filter rules those out
+ * with a few bit probes, without touching the exact set; only customers the
+ * filter reports as probably present, i.e. returning customers and the
+ * occasional false positive, are confirmed against the exact set. Both are
+ * lock-free, so lookups and records from concurrent checkouts never block.
+ *
+ * The filter is sized up front. At the default 1% false-positive rate it
+ * takes about 1.2 bytes per expected customer, so 50 million customers cost
+ * about 60 MB; the exact set grows with the customers actually recorded.
+ */
+public class OrderHistory {
+    private static final long DEFAULT_EXPECTED_CUSTOMERS = 10_000_000;
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private static final OrderHistory INSTANCE =
+        new OrderHistory(DEFAULT_EXPECTED_CUSTOMERS, DEFAULT_FALSE_POSITIVE_RATE);
+
+    private final BloomFilter filter;
+    private final Set<String> customers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates an empty history.
+     *
+     * @param expectedCustomers Number of customers expected to order; more raise the false-positive rate
+     * @param falsePositiveRate Share of new customers that will be checked against the exact set
+     */
+    public OrderHistory(long expectedCustomers, double falsePositiveRate) {
+        this.filter = new BloomFilter(expectedCustomers, falsePositiveRate);
+    }
+
+    /**
+     * Gets the history used by CheckoutService.
+     */
+    public static OrderHistory getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks whether a customer has completed an order before.
+     *
+     * @param customer Customer to look up
+     * @return true if an order was recorded for the customer
+     */
+    public boolean hasOrdered(Customer customer) {
+        String name = customer.getName();
+        return filter.mightContain(key(name)) && customers.contains(name);
+    }
+
+    /**
+     * Records a completed order.
+     *
+     * @param customer Customer who ordered
+     * @return true if this was the customer's first recorded order
+     */
+    public boolean recordOrder(Customer customer) {
+        String name = customer.getName();
+        long key = key(name);
+        if (filter.mightContain(key) && customers.contains(name)) {
+            return false;
+        }
+        // Into the exact set first, so a lookup that passes the filter finds the customer
+        boolean first = customers.add(name);
+        filter.put(key);
+        return first;
+    }
+
+    /**
+     * Gets the number of customers who have ordered.
+     */
+    public int getCustomerCount() {
+        return customers.size();
+    }
+
+    /**
+     * Gets the Bloom filter, e.g. to check its size.
+     */
+    public BloomFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Hashes a name to the 64-bit key kept in the filter.
+     */
+    static long key(String name) {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + name.charAt(i);
+        }
+        return hash;
+    }
+}
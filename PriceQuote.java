@@ -0,0 +1,166 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a cart would cost a customer if checked out now: the subtotal, each
+ * discount, the tax on each line, shipping and the total. Quotes come from
+ * {@link CheckoutService#quote(Customer, Cart)} and use the same rules as
+ * checkout, but change nothing and print nothing.
+ */
+public final class PriceQuote {
+    private final String currency;
+    private final double subtotal;
+    private final List<Discount> discounts;
+    private final double discount;
+    private final List<Line> lines;
+    private final double shippingFee;
+    private final double tax;
+
+    PriceQuote(String currency, double subtotal, List<Discount> discounts, double discount, List<Line> lines,
+               double shippingFee, double tax) {
+        this.currency = currency;
+        this.subtotal = subtotal;
+        this.discounts = Collections.unmodifiableList(discounts);
+        this.discount = discount;
+        this.lines = Collections.unmodifiableList(lines);
+        this.shippingFee = shippingFee;
+        this.tax = tax;
+    }
+
+    /**
+     * Gets the ISO 4217 code of the currency all amounts are in.
+     */
+    public String getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Gets the cart total before discounts.
+     */
+    public double getSubtotal() {
+        return subtotal;
+    }
+
+    /**
+     * Gets the discounts that apply, in the order checkout applies them.
+     */
+    public List<Discount> getDiscounts() {
+        return discounts;
+    }
+
+    /**
+     * Gets the total of all discounts.
+     */
+    public double getDiscount() {
+        return discount;
+    }
+
+    public double getDiscountedSubtotal() {
+        return subtotal - discount;
+    }
+
+    /**
+     * Gets the cart lines with the tax on each.
+     */
+    public List<Line> getLines() {
+        return lines;
+    }
+
+    public double getShippingFee() {
+        return shippingFee;
+    }
+
+    public double getTax() {
+        return tax;
+    }
+
+    /**
+     * Gets the amount checkout would charge.
+     */
+    public double getTotal() {
+        return subtotal - discount + shippingFee + tax;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PriceQuote{%s, subtotal=%.2f, discount=%.2f, shipping=%.2f, tax=%.2f, total=%.2f}",
+            currency, subtotal, discount, shippingFee, tax, getTotal());
+    }
+
+    /**
+     * One discount applied to the cart.
+     */
+    public static final class Discount {
+        private final String label;
+        private final double amount;
+
+        Discount(String label, double amount) {
+            this.label = label;
+            this.amount = amount;
+        }
+
+        /**
+         * Gets the text shown for the discount, e.g. "Welcome Discount".
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        public double getAmount() {
+            return amount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: -%.2f", label, amount);
+        }
+    }
+
+    /**
+     * One cart line and the tax on it.
+     */
+    public static final class Line {
+        private final Product product;
+        private final int quantity;
+        private final double amount;
+        private final double taxRate;
+
+        Line(Product product, int quantity, double amount, double taxRate) {
+            this.product = product;
+            this.quantity = quantity;
+            this.amount = amount;
+            this.taxRate = taxRate;
+        }
+
+        public Product getProduct() {
+            return product;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        /**
+         * Gets the price of the line before discounts: unit price times quantity.
+         */
+        public double getAmount() {
+            return amount;
+        }
+
+        /**
+         * Gets the tax rate of the product, e.g. 0.14 for 14%.
+         */
+        public double getTaxRate() {
+            return taxRate;
+        }
+
+        public double getTax() {
+            return amount * taxRate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%dx %s %.2f (tax %.2f)", quantity, product.getName(), amount, getTax());
+        }
+    }
+}
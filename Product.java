@@ -1,9 +1,19 @@
+import utils.FlatCombiningCounter;
+import utils.ShardedCounter;
+import utils.StockCounter;
 
 public class Product {
     protected String name;
     protected double price;
-    protected int quantity;
+    protected volatile int quantity;
     protected double weight;
+    // Set once stock moves into a sharded or combining counter; quantity is unused from then on
+    private volatile StockCounter concurrentStock;
+    private volatile ProductListener listener;
+    // Worked out from the name on first use; racing threads compute the same value
+    private TaxCategory taxCategory;
+    // The price in every currency of the latest FX table it was asked for; replaced when the table changes
+    private FxRates.Prices convertedPrices;
     public Product(String name, double price, int quantity, double weight) {
         this.name = name;
         this.price = price;
@@ -20,16 +30,122 @@ public class Product {
     public double getPrice() {
         return price;
     }
+    // Gets the price in another currency, rounded to its smallest unit. The first call after
+    // the FX table changes converts the price into all of the table's currencies at once.
+    public double getPrice(FxRates.Rate rate) {
+        double price = getPrice();
+        if (rate.isBase()) {
+            return price;
+        }
+        FxRates.Prices prices = convertedPrices;
+        if (prices == null || prices.table != rate.getTable() || prices.price != price) {
+            prices = rate.getTable().convert(price);
+            convertedPrices = prices;
+        }
+        return prices.converted[rate.getIndex()];
+    }
     public int getQuantity() {
-        return quantity;
+        StockCounter counter = concurrentStock;
+        return counter != null ? counter.get() : quantity;
+    }
+    public TaxCategory getTaxCategory() {
+        TaxCategory category = taxCategory;
+        if (category == null) {
+            category = TaxCategory.forName(getName());
+            taxCategory = category;
+        }
+        return category;
     }
     // Override this method to check if the product is expired. default products don't expire.
     public boolean isExpired() {
         return false;
     }
     public void decreaseQuantity(int amount) {
-        if (amount <= this.quantity) {
+        tryDecreaseQuantity(amount);
+    }
+    // Atomically takes units out of stock. Returns false, leaving stock untouched, if there aren't enough.
+    public boolean tryDecreaseQuantity(int amount) {
+        if (!takeStock(amount)) {
+            return false;
+        }
+        fireStockChanged();
+        return true;
+    }
+    // Puts units back into stock, e.g. to restock or to undo a decrease.
+    public void increaseQuantity(int amount) {
+        StockCounter counter = concurrentStock;
+        if (counter != null) {
+            counter.add(amount);
+        } else {
+            synchronized (this) {
+                if (concurrentStock != null) {
+                    concurrentStock.add(amount);
+                } else if (amount > 0) {
+                    this.quantity += amount;
+                }
+            }
+        }
+        fireStockChanged();
+    }
+    private boolean takeStock(int amount) {
+        StockCounter counter = concurrentStock;
+        if (counter != null) {
+            return counter.tryTake(amount);
+        }
+        synchronized (this) {
+            if (concurrentStock != null) {
+                return concurrentStock.tryTake(amount);
+            }
+            if (amount > this.quantity) {
+                return false;
+            }
             this.quantity -= amount;
+            return true;
+        }
+    }
+    // Splits the stock of a hot product (e.g. in a flash sale) across per-core shards,
+    // so concurrent checkouts stop contending on one field. Cannot be undone.
+    public void enableShardedStock() {
+        enableShardedStock(Runtime.getRuntime().availableProcessors());
+    }
+    public synchronized void enableShardedStock(int shardCount) {
+        if (concurrentStock == null) {
+            concurrentStock = new ShardedCounter(quantity, shardCount);
+            quantity = 0;
+        }
+    }
+    public boolean isShardedStock() {
+        return concurrentStock instanceof ShardedCounter;
+    }
+    // Keeps the stock of a hot product in one place but lets one thread at a time apply
+    // everyone's pending decrements in a batch (flat combining). Reads stay cheap, unlike
+    // sharded stock. Cannot be undone, and has no effect once the stock is sharded.
+    public synchronized void enableCombiningStock() {
+        if (concurrentStock == null) {
+            concurrentStock = new FlatCombiningCounter(quantity);
+            quantity = 0;
+        }
+    }
+    public boolean isCombiningStock() {
+        return concurrentStock instanceof FlatCombiningCounter;
+    }
+    // Registers the one listener told about stock and expiry changes; null removes it.
+    public void setListener(ProductListener listener) {
+        this.listener = listener;
+    }
+    public ProductListener getListener() {
+        return listener;
+    }
+    protected void fireStockChanged() {
+        ProductListener current = listener;
+        if (current != null) {
+            current.stockChanged(this);
+        }
+    }
+    protected void fireExpirationChanged() {
+        ProductListener current = listener;
+        if (current != null) {
+            current.expirationChanged(this);
         }
     }
 }
\ No newline at end of file
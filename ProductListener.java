@@ -0,0 +1,7 @@
+// Notified when a product's stock or expiry changes, e.g. to keep an index over products current.
+public interface ProductListener {
+    // Called after stock was taken or put back, on the thread that changed it.
+    void stockChanged(Product product);
+    // Called after an expirable product got a new expiration date.
+    void expirationChanged(Product product);
+}
@@ -0,0 +1,363 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Columnar, off-heap product storage for very large catalogs.
+ * Every attribute lives in its own direct buffer indexed by SKU, so a catalog
+ * with millions of products costs a few dozen bytes per SKU and creates no
+ * per-product heap objects. Use {@link #view(int)} to get a Product that
+ * Cart and CheckoutService can work with as usual.
+ */
+public class ProductStore {
+    private static final byte FLAG_SHIPPABLE = 1;
+    private static final byte FLAG_EXPIRABLE = 2;
+
+    // Gives atomic access to the int quantity column of a direct buffer
+    private static final VarHandle INT_COLUMN =
+        MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final int capacity;
+    private final ByteBuffer prices;      // double per SKU
+    private final ByteBuffer quantities;  // int per SKU
+    private final ByteBuffer weights;     // double per SKU
+    private final ByteBuffer expiryDays;  // int epoch day per SKU
+    private final ByteBuffer flags;       // byte per SKU
+    private final ByteBuffer nameOffsets; // int per SKU + 1, into the names buffer
+    private final DoubleBuffer priceColumn; // typed views used by scans
+    private final IntBuffer quantityColumn;
+    private volatile ByteBuffer names;    // UTF-8 bytes of all names, back to back
+    private volatile int size;
+
+    /**
+     * Creates an empty store that can hold up to the given number of SKUs.
+     *
+     * @param capacity Maximum number of SKUs
+     */
+    public ProductStore(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.prices = column(capacity, Double.BYTES);
+        this.quantities = column(capacity, Integer.BYTES);
+        this.weights = column(capacity, Double.BYTES);
+        this.expiryDays = column(capacity, Integer.BYTES);
+        this.flags = column(capacity, 1);
+        this.nameOffsets = column(capacity + 1, Integer.BYTES);
+        this.names = column(capacity, 16);
+        this.priceColumn = prices.asDoubleBuffer();
+        this.quantityColumn = quantities.asIntBuffer();
+    }
+
+    private static ByteBuffer column(int entries, int width) {
+        return ByteBuffer.allocateDirect(entries * width).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Adds a product to the store.
+     *
+     * @param name Product name
+     * @param price Unit price
+     * @param quantity Units in stock
+     * @param weight Unit weight in kg (0 for non-shippable items)
+     * @param expiryDate Expiration date, or null if the product does not expire
+     * @param shippable Whether the product needs shipping
+     * @return SKU of the new product
+     */
+    public synchronized int add(String name, double price, int quantity, double weight,
+                                LocalDate expiryDate, boolean shippable) {
+        if (name == null) {
+            throw new IllegalArgumentException("Product name cannot be null");
+        }
+        if (size == capacity) {
+            throw new IllegalStateException("Product store is full (" + capacity + " SKUs)");
+        }
+        int sku = size;
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        int offset = nameOffsets.getInt(sku * Integer.BYTES);
+        ensureNameCapacity(offset + encoded.length);
+        ByteBuffer target = names.duplicate();
+        target.position(offset);
+        target.put(encoded);
+        nameOffsets.putInt((sku + 1) * Integer.BYTES, offset + encoded.length);
+
+        prices.putDouble(sku * Double.BYTES, price);
+        quantities.putInt(sku * Integer.BYTES, quantity);
+        weights.putDouble(sku * Double.BYTES, weight);
+        byte flag = 0;
+        if (shippable) {
+            flag |= FLAG_SHIPPABLE;
+        }
+        if (expiryDate != null) {
+            flag |= FLAG_EXPIRABLE;
+            expiryDays.putInt(sku * Integer.BYTES, (int) expiryDate.toEpochDay());
+        }
+        flags.put(sku, flag);
+        size = sku + 1;
+        return sku;
+    }
+
+    private void ensureNameCapacity(int required) {
+        if (required <= names.capacity()) {
+            return;
+        }
+        int newCapacity = Math.max(required, names.capacity() * 2);
+        ByteBuffer grown = ByteBuffer.allocateDirect(newCapacity).order(ByteOrder.nativeOrder());
+        ByteBuffer source = names.duplicate();
+        source.clear();
+        grown.put(source);
+        names = grown;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public String getName(int sku) {
+        checkSku(sku);
+        int start = nameOffsets.getInt(sku * Integer.BYTES);
+        int end = nameOffsets.getInt((sku + 1) * Integer.BYTES);
+        byte[] encoded = new byte[end - start];
+        ByteBuffer source = names.duplicate();
+        source.position(start);
+        source.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    public double getPrice(int sku) {
+        checkSku(sku);
+        return prices.getDouble(sku * Double.BYTES);
+    }
+
+    public int getQuantity(int sku) {
+        checkSku(sku);
+        return (int) INT_COLUMN.getVolatile(quantities, sku * Integer.BYTES);
+    }
+
+    public double getWeight(int sku) {
+        checkSku(sku);
+        return weights.getDouble(sku * Double.BYTES);
+    }
+
+    public boolean isShippable(int sku) {
+        checkSku(sku);
+        return (flags.get(sku) & FLAG_SHIPPABLE) != 0;
+    }
+
+    public boolean isExpirable(int sku) {
+        checkSku(sku);
+        return (flags.get(sku) & FLAG_EXPIRABLE) != 0;
+    }
+
+    /**
+     * Gets the expiration date of a SKU.
+     *
+     * @return The expiration date, or null if the product does not expire
+     */
+    public LocalDate getExpirationDate(int sku) {
+        return isExpirable(sku) ? LocalDate.ofEpochDay(expiryDays.getInt(sku * Integer.BYTES)) : null;
+    }
+
+    public boolean isExpired(int sku, long todayEpochDay) {
+        return isExpirable(sku) && todayEpochDay > expiryDays.getInt(sku * Integer.BYTES);
+    }
+
+    /**
+     * Removes units from stock. Like Product, nothing is removed when the
+     * requested amount exceeds the available stock.
+     *
+     * @return true if the units were removed
+     */
+    public boolean decreaseQuantity(int sku, int amount) {
+        checkSku(sku);
+        int index = sku * Integer.BYTES;
+        while (true) {
+            int current = (int) INT_COLUMN.getVolatile(quantities, index);
+            if (amount > current) {
+                return false;
+            }
+            if (INT_COLUMN.compareAndSet(quantities, index, current, current - amount)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Puts units back into stock, e.g. to restock or to undo a decrease.
+     */
+    public void increaseQuantity(int sku, int amount) {
+        checkSku(sku);
+        if (amount > 0) {
+            INT_COLUMN.getAndAdd(quantities, sku * Integer.BYTES, amount);
+        }
+    }
+
+    /**
+     * Sums price x quantity over every SKU with a straight scan of the two columns.
+     *
+     * @return Total value of the stock held in the store
+     */
+    public double totalStockValue() {
+        double total = 0;
+        int count = size;
+        for (int sku = 0; sku < count; sku++) {
+            total += priceColumn.get(sku) * quantityColumn.get(sku);
+        }
+        return total;
+    }
+
+    /**
+     * Gets the off-heap bytes currently allocated by this store.
+     */
+    public long allocatedBytes() {
+        return (long) prices.capacity() + quantities.capacity() + weights.capacity()
+            + expiryDays.capacity() + flags.capacity() + nameOffsets.capacity() + names.capacity();
+    }
+
+    /**
+     * Creates a Product view backed by the given SKU. Views hold no data of
+     * their own, so they can be created on demand and dropped after use.
+     * Two views of the same SKU are equal, so they merge into a single cart line.
+     *
+     * @param sku SKU to view
+     * @return A Product (and Shippable if the SKU ships) backed by this store
+     */
+    public View view(int sku) {
+        checkSku(sku);
+        return isShippable(sku) ? new ShippableView(this, sku) : new View(this, sku);
+    }
+
+    private void checkSku(int sku) {
+        if (sku < 0 || sku >= size) {
+            throw new IndexOutOfBoundsException("Unknown SKU: " + sku);
+        }
+    }
+
+    /**
+     * Product backed by a row of the store.
+     */
+    public static class View extends Product {
+        private final ProductStore store;
+        private final int sku;
+
+        View(ProductStore store, int sku) {
+            super(null, 0, 0, 0.0);
+            this.store = store;
+            this.sku = sku;
+        }
+
+        public int getSku() {
+            return sku;
+        }
+
+        ProductStore getStore() {
+            return store;
+        }
+
+        @Override
+        public String getName() {
+            return store.getName(sku);
+        }
+
+        @Override
+        public double getPrice() {
+            return store.getPrice(sku);
+        }
+
+        @Override
+        public int getQuantity() {
+            return store.getQuantity(sku);
+        }
+
+        @Override
+        public boolean isExpired() {
+            return store.isExpired(sku, LocalDate.now().toEpochDay());
+        }
+
+        public LocalDate getExpirationDate() {
+            return store.getExpirationDate(sku);
+        }
+
+        @Override
+        public void decreaseQuantity(int amount) {
+            store.decreaseQuantity(sku, amount);
+        }
+
+        @Override
+        public boolean tryDecreaseQuantity(int amount) {
+            return store.decreaseQuantity(sku, amount);
+        }
+
+        @Override
+        public void increaseQuantity(int amount) {
+            store.increaseQuantity(sku, amount);
+        }
+
+        /**
+         * Not supported: store quantities already live in a CAS-updated column.
+         */
+        @Override
+        public void enableShardedStock(int shardCount) {
+            throw new UnsupportedOperationException("ProductStore stock cannot be sharded");
+        }
+
+        /**
+         * Not supported: store quantities already live in a CAS-updated column.
+         */
+        @Override
+        public void enableCombiningStock() {
+            throw new UnsupportedOperationException("ProductStore stock cannot be combined");
+        }
+
+        /**
+         * Not supported: views are created per lookup and stock also changes
+         * through the store directly, so a listener on one view would miss changes.
+         * Setting null is allowed, as there is never a listener to remove.
+         */
+        @Override
+        public void setListener(ProductListener listener) {
+            if (listener != null) {
+                throw new UnsupportedOperationException(
+                    "ProductStore stock cannot be listened to; query the store instead");
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof View)) {
+                return false;
+            }
+            View view = (View) other;
+            return view.store == store && view.sku == sku;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(store) * 31 + sku;
+        }
+    }
+
+    /**
+     * View of a SKU that needs shipping.
+     */
+    public static class ShippableView extends View implements Shippable {
+        ShippableView(ProductStore store, int sku) {
+            super(store, sku);
+        }
+
+        @Override
+        public double getWeight() {
+            return getStore().getWeight(getSku());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import utils.TimingWheel;
+
+/**
+ * Timed stock reservations for carts.
+ * A reservation takes units out of a product's available stock when they are
+ * added to a cart, so other shoppers can no longer buy them, and puts them back
+ * when the cart releases them or when the reservation's time to live runs out.
+ * Expiry is driven by a hierarchical timing wheel, so millions of outstanding
+ * reservations cost O(1) each to create and cancel.
+ */
+public class ReservationManager {
+    private final TimingWheel wheel;
+    private final long ttlNanos;
+
+    /**
+     * Creates a reservation manager.
+     *
+     * @param ttl How long reserved units are held before they go back to stock
+     * @param unit Unit of ttl
+     */
+    public ReservationManager(long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+        // Expiry may run up to 1/64 of the TTL late, with at least 10ms resolution
+        this.wheel = new TimingWheel(Math.max(TimeUnit.MILLISECONDS.toNanos(10), ttlNanos / 64),
+            TimeUnit.NANOSECONDS, "stock-reservations");
+    }
+
+    /**
+     * Reserves units of a product.
+     *
+     * @param product Product to reserve
+     * @param quantity Number of units
+     * @return The reservation, or null if the product doesn't have that many units available
+     */
+    public Reservation reserve(Product product, int quantity) {
+        if (!product.tryDecreaseQuantity(quantity)) {
+            return null;
+        }
+        Reservation reservation = new Reservation(product, quantity);
+        reservation.timeout = wheel.schedule(reservation::expire, ttlNanos, TimeUnit.NANOSECONDS);
+        return reservation;
+    }
+
+    /**
+     * Gets the number of reservations that are still holding stock.
+     */
+    public long getOutstandingCount() {
+        return wheel.getPendingCount();
+    }
+
+    /**
+     * Stops expiring reservations. Units still reserved stay out of stock.
+     */
+    public void shutdown() {
+        wheel.stop();
+    }
+
+    /**
+     * Units of one product held for one cart. The units leave the reservation
+     * exactly once: back to stock when released or expired, or into an order
+     * when consumed by checkout.
+     */
+    public static final class Reservation {
+        private final Product product;
+        private final AtomicInteger quantity;
+        private volatile TimingWheel.Timeout timeout;
+
+        Reservation(Product product, int quantity) {
+            this.product = product;
+            this.quantity = new AtomicInteger(quantity);
+        }
+
+        public Product getProduct() {
+            return product;
+        }
+
+        /**
+         * Gets the number of units still held; 0 once expired, released or consumed.
+         */
+        public int getQuantity() {
+            return quantity.get();
+        }
+
+        /**
+         * Puts some of the held units back into stock.
+         *
+         * @param units Number of units to give back
+         * @return Number of units actually given back, at most what was still held
+         */
+        public int release(int units) {
+            while (true) {
+                int held = quantity.get();
+                int released = Math.min(held, units);
+                if (released <= 0) {
+                    return 0;
+                }
+                if (quantity.compareAndSet(held, held - released)) {
+                    if (held == released) {
+                        cancelTimeout();
+                    }
+                    product.increaseQuantity(released);
+                    return released;
+                }
+            }
+        }
+
+        /**
+         * Puts all held units back into stock.
+         *
+         * @return Number of units given back
+         */
+        public int releaseAll() {
+            return release(Integer.MAX_VALUE);
+        }
+
+        /**
+         * Hands all held units over to an order; they do not go back to stock.
+         *
+         * @return Number of units handed over
+         */
+        public int consume() {
+            int units = quantity.getAndSet(0);
+            if (units > 0) {
+                cancelTimeout();
+            }
+            return units;
+        }
+
+        private void expire() {
+            int units = quantity.getAndSet(0);
+            if (units > 0) {
+                product.increaseQuantity(units);
+            }
+        }
+
+        private void cancelTimeout() {
+            TimingWheel.Timeout pending = timeout;
+            if (pending != null) {
+                pending.cancel();
+            }
+        }
+    }
+}
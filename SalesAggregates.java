@@ -0,0 +1,190 @@
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import utils.WindowedSums;
+
+/**
+ * Live revenue, discount, tax and shipping totals over the last second, minute
+ * and hour, broken down by tax category and by customer segment. Successful
+ * checkouts add their amounts, in cents, to striped counters in rotating time
+ * buckets; reading a window sums the buckets it covers, so dashboards can
+ * poll without locks while checkouts keep writing.
+ *
+ * The last second and minute come from a ring of 100 ms buckets, the last hour
+ * from a ring of one-minute buckets, so each window may include up to one
+ * bucket's width of older data.
+ */
+public class SalesAggregates {
+    private static final int CATEGORIES = TaxCategory.values().length;
+    private static final int SEGMENTS = CustomerSegment.values().length;
+
+    // Series layout: two per tax category, then five per customer segment
+    private static final int CATEGORY_SALES = 0;
+    private static final int CATEGORY_TAX = 1;
+    private static final int PER_CATEGORY = 2;
+    private static final int SEGMENT_BASE = CATEGORIES * PER_CATEGORY;
+    private static final int SEGMENT_ORDERS = 0;
+    private static final int SEGMENT_REVENUE = 1;
+    private static final int SEGMENT_DISCOUNTS = 2;
+    private static final int SEGMENT_SHIPPING = 3;
+    private static final int SEGMENT_TAX = 4;
+    private static final int PER_SEGMENT = 5;
+    private static final int SERIES = SEGMENT_BASE + SEGMENTS * PER_SEGMENT;
+
+    private static final SalesAggregates INSTANCE = new SalesAggregates();
+
+    private final WindowedSums fine = new WindowedSums(SERIES, 100, TimeUnit.MILLISECONDS, 600);
+    private final WindowedSums coarse = new WindowedSums(SERIES, 1, TimeUnit.MINUTES, 60);
+
+    /**
+     * Time windows that can be read.
+     */
+    public enum Window {
+        LAST_SECOND,
+        LAST_MINUTE,
+        LAST_HOUR
+    }
+
+    /**
+     * Gets the aggregates fed by CheckoutService.
+     */
+    public static SalesAggregates getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a successful order.
+     *
+     * @param segment Segment the order counts under
+     * @param cart Cart that was checked out; each line is counted under its tax category
+     * @param discount Total discount given
+     * @param shipping Shipping fee charged
+     * @param tax Total tax charged
+     * @param total Amount charged to the customer
+     */
+    public void record(CustomerSegment segment, Cart cart, double discount, double shipping, double tax,
+                       double total) {
+        WindowedSums.Bucket recent = fine.currentBucket();
+        WindowedSums.Bucket hourly = coarse.currentBucket();
+        for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+            Product product = entry.getKey();
+            TaxCategory category = product.getTaxCategory();
+            double lineTotal = product.getPrice() * entry.getValue();
+            int base = category.ordinal() * PER_CATEGORY;
+            add(recent, hourly, base + CATEGORY_SALES, cents(lineTotal));
+            add(recent, hourly, base + CATEGORY_TAX, cents(lineTotal * category.getRate()));
+        }
+        int base = SEGMENT_BASE + segment.ordinal() * PER_SEGMENT;
+        add(recent, hourly, base + SEGMENT_ORDERS, 1);
+        add(recent, hourly, base + SEGMENT_REVENUE, cents(total));
+        add(recent, hourly, base + SEGMENT_DISCOUNTS, cents(discount));
+        add(recent, hourly, base + SEGMENT_SHIPPING, cents(shipping));
+        add(recent, hourly, base + SEGMENT_TAX, cents(tax));
+    }
+
+    /**
+     * Gets the totals for a window.
+     */
+    public Totals totals(Window window) {
+        switch (window) {
+            case LAST_SECOND:
+                return new Totals(fine.sums(10));
+            case LAST_MINUTE:
+                return new Totals(fine.sums(fine.getBucketCount()));
+            default:
+                return new Totals(coarse.sums(coarse.getBucketCount()));
+        }
+    }
+
+    private static void add(WindowedSums.Bucket recent, WindowedSums.Bucket hourly, int series, long amount) {
+        recent.add(series, amount);
+        hourly.add(series, amount);
+    }
+
+    private static long cents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    /**
+     * Totals over one window. Amounts are in dollars.
+     */
+    public static final class Totals {
+        private final long[] sums;
+
+        Totals(long[] sums) {
+            this.sums = sums;
+        }
+
+        public long getOrderCount() {
+            long count = 0;
+            for (CustomerSegment segment : CustomerSegment.values()) {
+                count += getOrderCount(segment);
+            }
+            return count;
+        }
+
+        public long getOrderCount(CustomerSegment segment) {
+            return segment(segment, SEGMENT_ORDERS);
+        }
+
+        /**
+         * Gets the amount charged to customers, after discounts and including shipping and tax.
+         */
+        public double getRevenue() {
+            return sumOverSegments(SEGMENT_REVENUE) / 100.0;
+        }
+
+        public double getRevenue(CustomerSegment segment) {
+            return segment(segment, SEGMENT_REVENUE) / 100.0;
+        }
+
+        public double getDiscounts() {
+            return sumOverSegments(SEGMENT_DISCOUNTS) / 100.0;
+        }
+
+        public double getDiscounts(CustomerSegment segment) {
+            return segment(segment, SEGMENT_DISCOUNTS) / 100.0;
+        }
+
+        public double getShipping() {
+            return sumOverSegments(SEGMENT_SHIPPING) / 100.0;
+        }
+
+        public double getShipping(CustomerSegment segment) {
+            return segment(segment, SEGMENT_SHIPPING) / 100.0;
+        }
+
+        public double getTax() {
+            return sumOverSegments(SEGMENT_TAX) / 100.0;
+        }
+
+        public double getTax(CustomerSegment segment) {
+            return segment(segment, SEGMENT_TAX) / 100.0;
+        }
+
+        /**
+         * Gets the tax on one category's lines, rounded to cents line by line.
+         */
+        public double getTax(TaxCategory category) {
+            return sums[category.ordinal() * PER_CATEGORY + CATEGORY_TAX] / 100.0;
+        }
+
+        /**
+         * Gets the list price of everything sold in one category, before discounts.
+         */
+        public double getSales(TaxCategory category) {
+            return sums[category.ordinal() * PER_CATEGORY + CATEGORY_SALES] / 100.0;
+        }
+
+        private long segment(CustomerSegment segment, int measure) {
+            return sums[SEGMENT_BASE + segment.ordinal() * PER_SEGMENT + measure];
+        }
+
+        private long sumOverSegments(int measure) {
+            long total = 0;
+            for (CustomerSegment segment : CustomerSegment.values()) {
+                total += segment(segment, measure);
+            }
+            return total;
+        }
+    }
+}
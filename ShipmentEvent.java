@@ -0,0 +1,27 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering the creation of one shipment.
+ */
+@Name("fawry.Shipment")
+@Label("Shipment")
+@Category({"Fawry", "Shipping"})
+@Description("A shipment created by ShippingService")
+@StackTrace(false)
+public class ShipmentEvent extends jdk.jfr.Event {
+    @Label("Shipped Lines")
+    int lineCount;
+
+    @Label("Items")
+    int itemCount;
+
+    @Label("Weight (kg)")
+    double weight;
+
+    @Label("Shipping Fee")
+    double shippingFee;
+}
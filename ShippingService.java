@@ -25,8 +25,12 @@ public class ShippingService {
             return 0.0; // No shipment needed
         }
 
+        ShipmentEvent event = new ShipmentEvent();
+        event.begin();
         double totalWeight = 0;
-        StringBuilder shipmentDetails = new StringBuilder();
+        int totalItems = 0;
+        StringBuilder shipmentDetails = new StringBuilder(512);
+        StringBuilder value = new StringBuilder(16);
 
         // Header
         shipmentDetails.append("\n").append(ConsoleFormatter.BOLD).append(ConsoleFormatter.BLUE);
@@ -38,16 +42,18 @@ public class ShippingService {
             int quantity = quantities.get((Product) item);
             double itemTotalWeight = item.getWeight() * quantity;
             totalWeight += itemTotalWeight;
+            totalItems += quantity;
 
-            String weightDisplay = ConsoleFormatter.formatWeight(itemTotalWeight);
-            shipmentDetails.append(ConsoleFormatter.formatLineItem(
-                quantity, item.getName(), weightDisplay, 20)).append("\n");
+            value.setLength(0);
+            ConsoleFormatter.appendWeight(value, itemTotalWeight);
+            ConsoleFormatter.appendLineItem(shipmentDetails, quantity, item.getName(), value, 20).append("\n");
         }
 
         // Summary
         shipmentDetails.append(ConsoleFormatter.createSeparator('─', 45)).append("\n");
-        shipmentDetails.append(ConsoleFormatter.formatSummaryLine(
-            "Total package weight:", ConsoleFormatter.formatWeight(totalWeight), 25)).append("\n");
+        value.setLength(0);
+        ConsoleFormatter.appendWeight(value, totalWeight);
+        ConsoleFormatter.appendSummaryLine(shipmentDetails, "Total package weight:", value, 25).append("\n");
 
         double shippingFee = calculateShippingFee(totalWeight, subtotal);
 
@@ -55,16 +61,55 @@ public class ShippingService {
             shipmentDetails.append(ConsoleFormatter.success(
                 "FREE SHIPPING (Order over " + ConsoleFormatter.formatCurrency(FREE_SHIPPING_THRESHOLD) + ")")).append("\n");
         } else {
-            shipmentDetails.append(ConsoleFormatter.formatSummaryLine(
-                "Shipping fee:", ConsoleFormatter.formatCurrency(shippingFee), 25)).append("\n");
+            value.setLength(0);
+            ConsoleFormatter.appendCurrency(value, shippingFee);
+            ConsoleFormatter.appendSummaryLine(shipmentDetails, "Shipping fee:", value, 25).append("\n");
         }
 
         shipmentDetails.append(ConsoleFormatter.createSeparator('═', 45)).append("\n");
 
-        System.out.print(shipmentDetails.toString());
+        System.out.print(shipmentDetails);
+
+        commitShipmentEvent(event, items.size(), totalItems, totalWeight, shippingFee);
         return shippingFee;
     }
 
+    /**
+     * Records a shipment created without printing a notice, as result-code
+     * checkouts do, so recordings see every shipment.
+     *
+     * @param quantities Map of products to their quantities
+     * @param totalWeight Total weight of the shippable items in kg
+     * @param shippingFee Shipping fee charged
+     */
+    public void recordShipment(Map<Product, Integer> quantities, double totalWeight, double shippingFee) {
+        ShipmentEvent event = new ShipmentEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.begin();
+        int lineCount = 0;
+        int totalItems = 0;
+        for (Map.Entry<Product, Integer> entry : quantities.entrySet()) {
+            if (entry.getKey() instanceof Shippable) {
+                lineCount++;
+                totalItems += entry.getValue();
+            }
+        }
+        commitShipmentEvent(event, lineCount, totalItems, totalWeight, shippingFee);
+    }
+
+    private static void commitShipmentEvent(ShipmentEvent event, int lineCount, int itemCount, double weight,
+                                            double shippingFee) {
+        if (event.shouldCommit()) {
+            event.lineCount = lineCount;
+            event.itemCount = itemCount;
+            event.weight = weight;
+            event.shippingFee = shippingFee;
+            event.commit();
+        }
+    }
+
     /**
      * Calculates shipping fee for a list of shippable items.
      *
@@ -94,7 +139,7 @@ public class ShippingService {
      * @param subtotal Order subtotal
      * @return Calculated shipping fee
      */
-    private double calculateShippingFee(double totalWeight, double subtotal) {
+    public double calculateShippingFee(double totalWeight, double subtotal) {
         // Free shipping for orders over threshold
         if (subtotal >= FREE_SHIPPING_THRESHOLD) {
             return 0.0;
@@ -0,0 +1,52 @@
+import java.util.Locale;
+
+/**
+ * Tax categories, each with its rate. A product's category is worked out from its name.
+ */
+public enum TaxCategory {
+    FOOD(0.05),
+    ELECTRONICS(0.10),
+    DIGITAL(0.12),
+    GENERAL(0.08);
+
+    private final double rate;
+
+    TaxCategory(double rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Gets the tax rate, e.g. 0.05 for 5%.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Determines the tax category of a product based on its name.
+     *
+     * @param productName Name of the product
+     * @return The category; GENERAL when nothing more specific matches
+     */
+    public static TaxCategory forName(String productName) {
+        String name = productName.toLowerCase(Locale.ROOT);
+
+        if (name.contains("cheese") || name.contains("biscuit") ||
+            name.contains("milk") || name.contains("food")) {
+            return FOOD;
+        }
+
+        if (name.contains("tv") || name.contains("laptop") ||
+            name.contains("monitor") || name.contains("server") ||
+            name.contains("equipment")) {
+            return ELECTRONICS;
+        }
+
+        if (name.contains("digital") || name.contains("download") ||
+            name.contains("scratch card") || name.contains("mobile")) {
+            return DIGITAL;
+        }
+
+        return GENERAL;
+    }
+}
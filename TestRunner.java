@@ -1,6 +1,16 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import exceptions.CouponUnavailableException;
 import exceptions.InsufficientStockException;
+import utils.ConsoleFormatter;
+import utils.ReceiptRenderer;
 
 /**
  * Individual test case runner for the E-commerce System.
@@ -25,6 +35,17 @@ public class TestRunner {
             System.out.println("  mixedCart");
             System.out.println("  errorShowcase");
             System.out.println("  freeShippingShowcase");
+            System.out.println("  productStore");
+            System.out.println("  stockReservations");
+            System.out.println("  catalogQueries");
+            System.out.println("  customerDirectory");
+            System.out.println("  firstOrder");
+            System.out.println("  coupons");
+            System.out.println("  liveSavings");
+            System.out.println("  priceQuote");
+            System.out.println("  multiCurrency");
+            System.out.println("  bulkOrder");
+            System.out.println("  procurementCart");
             return;
         }
         
@@ -69,6 +90,39 @@ public class TestRunner {
             case "freeShippingShowcase":
                 runFreeShippingShowcase();
                 break;
+            case "productStore":
+                runProductStore();
+                break;
+            case "stockReservations":
+                runStockReservations();
+                break;
+            case "catalogQueries":
+                runCatalogQueries();
+                break;
+            case "customerDirectory":
+                runCustomerDirectory();
+                break;
+            case "firstOrder":
+                runFirstOrder();
+                break;
+            case "coupons":
+                runCoupons();
+                break;
+            case "liveSavings":
+                runLiveSavings();
+                break;
+            case "priceQuote":
+                runPriceQuote();
+                break;
+            case "multiCurrency":
+                runMultiCurrency();
+                break;
+            case "bulkOrder":
+                runBulkOrder();
+                break;
+            case "procurementCart":
+                runProcurementCart();
+                break;
             default:
                 System.out.println("Unknown test case: " + testCase);
                 break;
@@ -509,4 +563,497 @@ public class TestRunner {
             System.err.println("Error: " + e.getMessage());
         }
     }
+
+    private static void runProductStore() {
+        System.out.println("PRODUCT STORE CHECKOUT");
+        System.out.println("======================");
+        System.out.println("Checking out products held in the off-heap columnar store");
+        System.out.println();
+
+        ProductStore store = new ProductStore(3);
+        int cheeseSku = store.add("Cheese", 100, 10, 0.2, LocalDate.now().plusDays(30), true);
+        int tvSku = store.add("TV", 5000, 5, 15.0, null, true);
+        int cardSku = store.add("Mobile scratch card", 50, 20, 0.0, null, false);
+        Customer customer = new Customer("Store Customer", 10000.0);
+
+        Cart cart = new Cart();
+        try {
+            cart.add(store.view(cheeseSku), 2);
+            cart.add(store.view(tvSku), 1);
+            cart.add(store.view(cardSku), 1);
+            cart.add(store.view(cheeseSku), 1); // Same SKU merges into one line
+            cart.displayContents();
+
+            CheckoutService.checkout(customer, cart);
+
+            System.out.println("\nRemaining stock:");
+            System.out.println("Cheese: " + store.getQuantity(cheeseSku) + " (expected 7)");
+            System.out.println("TV: " + store.getQuantity(tvSku) + " (expected 4)");
+            System.out.println("Mobile scratch card: " + store.getQuantity(cardSku) + " (expected 19)");
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    private static void runStockReservations() {
+        System.out.println("STOCK RESERVATIONS");
+        System.out.println("==================");
+        System.out.println("Carts reserve stock when items are added; reservations expire after 1 second");
+        System.out.println();
+
+        ReservationManager reservations = new ReservationManager(1, TimeUnit.SECONDS);
+        Product tv = new ShippableProduct("TV", 5000, 3, 15.0);
+        Customer alice = new Customer("Alice", 20000.0);
+        Customer bob = new Customer("Bob", 20000.0);
+
+        try {
+            Cart aliceCart = new Cart(reservations);
+            aliceCart.add(tv, 2);
+            System.out.println("TV stock available to others: " + tv.getQuantity() + " (expected 1)");
+
+            Cart bobCart = new Cart(reservations);
+            try {
+                bobCart.add(tv, 2);
+            } catch (InsufficientStockException e) {
+                System.out.println("Bob cannot reserve 2 TVs: " + e.getMessage());
+            }
+
+            CheckoutService.checkout(alice, aliceCart);
+            System.out.println("TV stock after Alice's checkout: " + tv.getQuantity() + " (expected 1)");
+
+            bobCart.add(tv, 1);
+            System.out.println("Bob reserved the last TV, stock: " + tv.getQuantity() + " (expected 0)");
+            System.out.println("Bob walks away...");
+            Thread.sleep(1500);
+            System.out.println("TV stock after Bob's reservation expired: " + tv.getQuantity() + " (expected 1)");
+            System.out.println("Outstanding reservations: " + reservations.getOutstandingCount() + " (expected 0)");
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        } finally {
+            reservations.shutdown();
+        }
+    }
+
+    private static void runCatalogQueries() {
+        System.out.println("CATALOG QUERIES");
+        System.out.println("===============");
+        System.out.println("Filtering the catalog by price, weight, stock and expiry, with pagination,");
+        System.out.println("and searching product names as the shopper types");
+        System.out.println();
+
+        LocalDate today = LocalDate.now();
+        CatalogIndex catalog = new CatalogIndex(8);
+        Product cheese = new ShippableExpirableProduct("Cheese", 100, 10, 0.2, today.plusDays(30));
+        Product biscuits = new ShippableExpirableProduct("Biscuits", 150, 5, 0.7, today.plusDays(3));
+        Product milk = new ShippableExpirableProduct("Milk", 40, 20, 1.0, today.minusDays(1));
+        Product tv = new ShippableProduct("TV", 5000, 1, 15.0);
+        Product mobile = new ShippableProduct("Mobile", 3000, 8, 0.3);
+        Product scratchCard = new Product("Mobile scratch card", 50, 100);
+        for (Product product : new Product[] {cheese, biscuits, milk, tv, mobile, scratchCard}) {
+            catalog.add(product);
+        }
+
+        System.out.println("Priced 50 to 200: " + names(catalog.query().priceBetween(50, 200).list(0, 10))
+            + " (expected Mobile scratch card, Cheese, Biscuits)");
+        System.out.println("Under 1 kg and in stock, page 2 of 2-per-page: "
+            + names(catalog.query().weightBetween(0, 0.99).inStock().list(2, 2))
+            + " (expected Biscuits, Mobile)");
+        System.out.println("Sellable today: " + catalog.query().notExpiredOn(today).count() + " (expected 5)");
+        System.out.println("Expiring this week: "
+            + names(catalog.query().expiringBetween(today, today.plusDays(7)).list(0, 10))
+            + " (expected Biscuits)");
+
+        System.out.println("Name search 'mob': " + names(catalog.searchNames("mob", 10))
+            + " (expected Mobile, Mobile scratch card)");
+        System.out.println("Name search 'mobile sc': " + names(catalog.searchNames("mobile sc", 10))
+            + " (expected Mobile scratch card)");
+        System.out.println("Suggestions for 'm': " + catalog.suggestNames("m", 3) + " (expected [mobile, milk])");
+
+        Customer customer = new Customer("Catalog Customer", 10000.0);
+        Cart cart = new Cart();
+        try {
+            cart.add(tv, 1);
+            CheckoutService.checkout(customer, cart);
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+        System.out.println("In stock over 1000 after the last TV sold: "
+            + names(catalog.query().priceBetween(1000, Double.MAX_VALUE).inStock().list(0, 10))
+            + " (expected Mobile)");
+        tv.increaseQuantity(2);
+        System.out.println("After restocking the TV: "
+            + names(catalog.query().priceBetween(1000, Double.MAX_VALUE).inStock().list(0, 10))
+            + " (expected Mobile, TV)");
+    }
+
+    private static void runCustomerDirectory() {
+        System.out.println("CUSTOMER DIRECTORY");
+        System.out.println("==================");
+        System.out.println("Looking up accounts by name and charging balances held in the off-heap directory");
+        System.out.println();
+
+        CustomerDirectory directory = new CustomerDirectory(3);
+        directory.add("Ahmed", 1000.0);
+        directory.add("Sarah", 10000.0);
+        directory.add("John", 50.0);
+
+        try {
+            directory.add("Sarah", 1.0);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Duplicate rejected: " + e.getMessage());
+        }
+        System.out.println("Id of Sarah: " + directory.find("Sarah") + " (expected 1)");
+        System.out.println("Id of Mona: " + directory.find("Mona") + " (expected " + CustomerDirectory.NOT_FOUND + ")");
+
+        Product tv = new ShippableProduct("TV", 5000, 5, 15.0);
+        try {
+            Customer sarah = directory.view(directory.find("Sarah"));
+            Cart cart = new Cart();
+            cart.add(tv, 1);
+            CheckoutService.checkout(sarah, cart);
+            System.out.println("\nSarah's balance in the directory: " + directory.getBalance(directory.find("Sarah")));
+
+            Customer john = directory.view(directory.find("John"));
+            Cart johnCart = new Cart();
+            johnCart.add(tv, 1);
+            CheckoutResult result = CheckoutService.tryCheckout(john, johnCart);
+            System.out.println("John's checkout: " + result.getStatus() + " (expected INSUFFICIENT_BALANCE)");
+            john.addBalance(25.5);
+            System.out.println("John after a top-up: " + john + " (expected balance 75.50)");
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    private static void runFirstOrder() {
+        System.out.println("FIRST ORDER DETECTION");
+        System.out.println("=====================");
+        System.out.println("The welcome discount goes to customers with no earlier order, whatever their balance");
+        System.out.println();
+
+        Product card = new Product("Mobile scratch card", 50, 20);
+        Customer mona = new Customer("Mona (First Order)", 2500.0);
+        OrderHistory history = OrderHistory.getInstance();
+
+        try {
+            System.out.println("Mona ordered before: " + history.hasOrdered(mona) + " (expected false)");
+            Cart cart = new Cart();
+            cart.add(card, 1);
+            CheckoutResult first = CheckoutService.tryCheckout(mona, cart);
+            System.out.println("First order discount: " + first.getDiscount() + " (expected 25.0)");
+            System.out.println("Mona ordered before: " + history.hasOrdered(mona) + " (expected true)");
+
+            Cart again = new Cart();
+            again.add(card, 1);
+            CheckoutResult second = CheckoutService.tryCheckout(mona, again);
+            System.out.println("Second order discount: " + second.getDiscount() + " (expected 0.0)");
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    private static void runCoupons() {
+        System.out.println("COUPON CODES");
+        System.out.println("============");
+        System.out.println("Applying single-use and limited-use coupon codes at checkout");
+        System.out.println();
+
+        CouponBook coupons = new CouponBook(16);
+        coupons.add("WELCOME10", CouponBook.Offer.percentOff(10), 1);
+        coupons.add("FIVEOFF", CouponBook.Offer.amountOff(5), 2);
+        Product card = new Product("Mobile scratch card", 50, 20);
+        Customer customer = new Customer("Coupon Customer", 1000.0);
+
+        try {
+            Cart cart = new Cart();
+            cart.add(card, 2);
+            cart.applyCoupon(coupons, "welcome10");
+            CheckoutService.checkout(customer, cart);
+            System.out.println("WELCOME10 uses left: " + coupons.find("WELCOME10").getRemainingUses() + " (expected 0)");
+
+            Cart again = new Cart();
+            again.add(card, 1);
+            try {
+                again.applyCoupon(coupons, "WELCOME10");
+            } catch (CouponUnavailableException e) {
+                System.out.println("Second use rejected: " + e.getMessage());
+            }
+            try {
+                again.applyCoupon(coupons, "NOSUCHCODE");
+            } catch (CouponUnavailableException e) {
+                System.out.println("Unknown code rejected: " + e.getMessage());
+            }
+
+            again.applyCoupon(coupons, "FIVEOFF");
+            CheckoutResult result = CheckoutService.tryCheckout(customer, again);
+            System.out.println("FIVEOFF discount: " + result.getDiscount() + " (expected 5.0)");
+            System.out.println("FIVEOFF uses left: " + coupons.find("FIVEOFF").getRemainingUses() + " (expected 1)");
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    private static void runLiveSavings() {
+        System.out.println("LIVE CART SAVINGS");
+        System.out.println("=================");
+        System.out.println("Discount eligibility is updated as items are added and removed");
+        System.out.println();
+
+        Product biscuits = new ShippableExpirableProduct("Biscuits", 150, 15, 0.7, LocalDate.now().plusMonths(6));
+        Product tv = new ShippableProduct("TV", 700, 5, 15.0);
+        Cart cart = new Cart();
+
+        try {
+            cart.add(biscuits, 1);
+            printSavings(cart);
+            cart.add(biscuits, 1);
+            printSavings(cart);
+            cart.add(tv, 1);
+            printSavings(cart);
+            cart.add(biscuits, 2);
+            printSavings(cart);
+            cart.remove(tv, 1);
+            printSavings(cart);
+            System.out.println("Expected after the last change: 4 items, $600.00, LARGE_ORDER, savings $60.00");
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    private static void runPriceQuote() {
+        System.out.println("PRICE QUOTE");
+        System.out.println("===========");
+        System.out.println("Quotes price a cart like checkout does, without changing anything");
+        System.out.println();
+
+        Product cheese = new ShippableExpirableProduct("Cheese", 100, 10, 0.4, LocalDate.now().plusDays(7));
+        Product tv = new ShippableProduct("TV", 400, 5, 15.0);
+        Customer customer = new Customer("Quote Customer", 2000);
+        Cart cart = new Cart();
+
+        try {
+            cart.add(cheese, 2);
+            cart.add(tv, 1);
+            PriceQuote quote = CheckoutService.quote(customer, cart);
+            PriceQuote again = CheckoutService.quote(customer, cart);
+            System.out.printf("Subtotal: $%.2f%n", quote.getSubtotal());
+            for (PriceQuote.Discount discount : quote.getDiscounts()) {
+                System.out.printf("  %s: -$%.2f%n", discount.getLabel(), discount.getAmount());
+            }
+            for (PriceQuote.Line line : quote.getLines()) {
+                System.out.printf("  %dx %s: $%.2f, tax $%.2f%n", line.getQuantity(), line.getProduct().getName(),
+                    line.getAmount(), line.getTax());
+            }
+            System.out.printf("Shipping: $%.2f, tax: $%.2f, total: $%.2f%n",
+                quote.getShippingFee(), quote.getTax(), quote.getTotal());
+            System.out.println("Quoting twice gives the same total: " + (again.getTotal() == quote.getTotal())
+                + " (expected true)");
+            System.out.printf("Stock after quoting: cheese %d, TV %d (expected 10, 5)%n",
+                cheese.getQuantity(), tv.getQuantity());
+            System.out.printf("Balance after quoting: $%.2f (expected $2000.00)%n", customer.getBalance());
+
+            CheckoutResult result = CheckoutService.tryCheckout(customer, cart);
+            System.out.printf("Checkout charged $%.2f, quoted $%.2f (expected equal)%n",
+                result.getTotal(), quote.getTotal());
+            System.out.println("Welcome discount in a new quote: "
+                + CheckoutService.quote(customer, cart).getDiscounts().toString().contains("Welcome")
+                + " (expected false)");
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    private static void runMultiCurrency() {
+        System.out.println("MULTI-CURRENCY CHECKOUT");
+        System.out.println("=======================");
+        System.out.println("Prices are kept in dollars and converted with a locally loaded FX table");
+        System.out.println();
+
+        FxRates previous = FxRates.getCurrent();
+        try {
+            FxRates rates = FxRates.parse(new StringReader(
+                "# Units of each currency per US dollar\n"
+                + "EUR = 0.92\n"
+                + "GBP = 0.79\n"
+                + "JPY = 151.3\n"));
+            FxRates.setCurrent(rates);
+            System.out.println("Currencies: " + rates.getCurrencies());
+
+            Product cheese = new ShippableExpirableProduct("Cheese", 9.99, 10, 0.4, LocalDate.now().plusDays(7));
+            Product tv = new ShippableProduct("TV", 400, 5, 15.0);
+            for (String code : rates.getCurrencies()) {
+                FxRates.Rate rate = rates.get(code);
+                System.out.printf("  %s: cheese %s, TV %s%n", code,
+                    rate.getFormat().format(cheese.getPrice(rate)), rate.getFormat().format(tv.getPrice(rate)));
+            }
+            System.out.println("Expected cheese 9.19 in EUR and 1,511 in JPY, TV 368.00 in EUR");
+
+            Customer customer = new Customer("Euro Customer", 1000);
+            Cart cart = new Cart();
+            cart.add(cheese, 2);
+            cart.add(tv, 1);
+            for (String code : rates.getCurrencies()) {
+                PriceQuote quote = CheckoutService.quote(customer, cart, code);
+                System.out.printf("  Quote in %s: total %s%n", code,
+                    rates.get(code).getFormat().format(quote.getTotal()));
+            }
+
+            CheckoutResult result = CheckoutService.tryCheckout(customer, cart, "EUR");
+            ReceiptRenderer renderer = new ReceiptRenderer(ConsoleFormatter.consoleCharset(), false);
+            CheckoutService.renderReceipt(renderer, customer, cart, result);
+            System.out.print(renderer);
+            System.out.printf("Charged in %s: %.2f; dollars taken from the balance: %.2f%n",
+                result.getCurrency(), result.getTotal(), 1000 - customer.getBalance());
+            System.out.printf("Dollar equivalent at 0.92: %.2f (expected the same)%n", result.getTotal() / 0.92);
+
+            try {
+                CheckoutService.quote(customer, cart, "CHF");
+            } catch (IllegalArgumentException e) {
+                System.out.println("Quote in CHF: " + e.getMessage() + " (expected no rate)");
+            }
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+        } finally {
+            FxRates.setCurrent(previous);
+        }
+    }
+
+    private static void runBulkOrder() {
+        System.out.println("BULK ORDER");
+        System.out.println("==========");
+        System.out.println("Carts of " + CartColumns.MIN_LINES + " lines or more are totalled from primitive columns");
+        System.out.println();
+
+        Cart cart = new Cart();
+        int lines = 2000;
+        PrintStream console = System.out;
+        try {
+            // Adding thousands of lines prints thousands of confirmations
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            for (int i = 0; i < lines; i++) {
+                Product product = i % 2 == 0
+                    ? new ShippableProduct("Part " + i, 1.25 + i % 40, 100, 0.3)
+                    : new Product("License " + i, 9.99, 100);
+                cart.add(product, 1 + i % 4);
+            }
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            return;
+        } finally {
+            System.setOut(console);
+        }
+
+        Customer customer = new Customer("Procurement", 1_000_000);
+        PriceQuote quote = CheckoutService.quote(customer, cart);
+        double lineByLine = 0;
+        double lineTax = 0;
+        for (PriceQuote.Line line : quote.getLines()) {
+            lineByLine += line.getAmount();
+            lineTax += line.getTax();
+        }
+        System.out.printf("Lines: %d, items: %d%n", quote.getLines().size(), cart.getItemCount());
+        System.out.printf("Subtotal %.2f, line by line %.2f (expected equal)%n", quote.getSubtotal(), lineByLine);
+        System.out.printf("Tax %.2f, line by line %.2f (expected equal)%n", quote.getTax(), lineTax);
+
+        CheckoutResult result = CheckoutService.tryCheckout(customer, cart);
+        System.out.printf("Checkout %s, charged %.2f, quoted %.2f (expected SUCCESS, equal)%n",
+            result.getStatus(), result.getTotal(), quote.getTotal());
+
+        // Printed checkouts total large carts from the same columns
+        Customer printed = new Customer("Procurement Desk", 1_000_000);
+        PriceQuote printedQuote = CheckoutService.quote(printed, cart);
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            CheckoutService.checkout(printed, cart);
+        } finally {
+            System.setOut(console);
+        }
+        System.out.printf("Printed checkout charged %.2f, quoted %.2f (expected equal)%n",
+            1_000_000 - printed.getBalance(), printedQuote.getTotal());
+    }
+
+    private static void runProcurementCart() {
+        System.out.println("PROCUREMENT CART");
+        System.out.println("================");
+        System.out.println("Carts of " + CheckoutService.PARALLEL_VALIDATION_LINES
+            + " lines or more are validated in fork/join tasks when there are cores to spare");
+        System.out.printf("Common pool parallelism: %d (parallel validation %s)%n",
+            ForkJoinPool.getCommonPoolParallelism(), ForkJoinPool.getCommonPoolParallelism() > 1 ? "on" : "off");
+        System.out.println();
+
+        Cart cart = new Cart();
+        int lines = 20_000;
+        List<Product> products = new ArrayList<>();
+        PrintStream console = System.out;
+        try {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            for (int i = 0; i < lines; i++) {
+                Product product = i % 2 == 0
+                    ? new ShippableProduct("Part " + i, 1.25 + i % 40, 100, 0.3)
+                    : new Product("License " + i, 9.99, 100);
+                cart.add(product, 1 + i % 4);
+                products.add(product);
+            }
+        } catch (Exception e) {
+            System.err.println("Error: " + e.getMessage());
+            return;
+        } finally {
+            System.setOut(console);
+        }
+
+        // Sell out a handful of lines spread over the cart
+        List<Product> soldOut = new ArrayList<>();
+        for (int i = 3_001; i < lines; i += 4_000) {
+            Product product = products.get(i);
+            product.decreaseQuantity(product.getQuantity());
+            soldOut.add(product);
+        }
+        String firstSoldOut = null;
+        for (Map.Entry<Product, Integer> entry : cart.getItems().entrySet()) {
+            if (entry.getKey().getQuantity() < entry.getValue()) {
+                firstSoldOut = entry.getKey().getName();
+                break;
+            }
+        }
+
+        Customer customer = new Customer("Procurement", 10_000_000);
+        CheckoutResult result = CheckoutService.tryCheckout(customer, cart);
+        System.out.printf("Checkout with %d sold-out lines: %s on %s (expected INSUFFICIENT_STOCK on %s)%n",
+            soldOut.size(), result.getStatus(), result.getProductName(), firstSoldOut);
+        System.out.printf("Balance: %.2f (expected 10000000.00, nothing charged)%n", customer.getBalance());
+
+        for (Product product : soldOut) {
+            product.increaseQuantity(100);
+        }
+        PriceQuote quote = CheckoutService.quote(customer, cart);
+        result = CheckoutService.tryCheckout(customer, cart);
+        System.out.printf("Checkout after restocking: %s, charged %.2f, quoted %.2f (expected SUCCESS, equal)%n",
+            result.getStatus(), result.getTotal(), quote.getTotal());
+        System.out.printf("Stock of %s: %d (expected %d)%n", products.get(0).getName(),
+            products.get(0).getQuantity(), 100 - 1);
+    }
+
+    private static void printSavings(Cart cart) {
+        Cart.Summary summary = cart.getSummary();
+        StringBuilder eligible = new StringBuilder();
+        for (CartDiscount rule : CartDiscount.values()) {
+            if (summary.isEligible(rule)) {
+                eligible.append(eligible.length() == 0 ? "" : ", ").append(rule);
+            }
+        }
+        System.out.printf("  %d items, $%.2f, eligible: [%s], savings $%.2f, $%.2f more for VIP%n",
+            summary.getItemCount(), summary.getSubtotal(), eligible, cart.getSavings(),
+            summary.getRemainingSpend(CartDiscount.VIP));
+    }
+
+    private static String names(List<Product> products) {
+        StringBuilder names = new StringBuilder();
+        for (Product product : products) {
+            if (names.length() > 0) {
+                names.append(", ");
+            }
+            names.append(product.getName());
+        }
+        return names.toString();
+    }
 }
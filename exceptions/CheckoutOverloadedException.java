@@ -0,0 +1,22 @@
+package exceptions;
+
+/**
+ * Exception thrown when checkout is shedding load and did not admit the request.
+ * The checkout was not attempted, so it is safe to retry later.
+ */
+public class CheckoutOverloadedException extends ECommerceException {
+    private static final long serialVersionUID = 1L;
+    
+    public CheckoutOverloadedException() {
+        super(null, "OVERLOADED");
+    }
+    
+    public CheckoutOverloadedException(boolean writableStackTrace) {
+        super("OVERLOADED", writableStackTrace);
+    }
+    
+    @Override
+    protected String formatMessage() {
+        return "Checkout is temporarily overloaded, please try again";
+    }
+}
@@ -0,0 +1,29 @@
+package exceptions;
+
+/**
+ * Exception thrown when a coupon code is unknown or has no redemptions left.
+ */
+public class CouponUnavailableException extends ECommerceException {
+    private static final long serialVersionUID = 1L;
+
+    private final String code;
+
+    public CouponUnavailableException(String code) {
+        super(null, "COUPON_UNAVAILABLE");
+        this.code = code;
+    }
+
+    public CouponUnavailableException(String code, boolean writableStackTrace) {
+        super("COUPON_UNAVAILABLE", writableStackTrace);
+        this.code = code;
+    }
+
+    @Override
+    protected String formatMessage() {
+        return "Coupon " + code + " is not valid or has already been used";
+    }
+
+    public String getCode() {
+        return code;
+    }
+}
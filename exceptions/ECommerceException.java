@@ -6,12 +6,19 @@ package exceptions;
  */
 public class ECommerceException extends Exception {
     private final String errorCode;
+    private String formattedMessage;
     
     public ECommerceException(String message) {
         super(message);
         this.errorCode = "GENERAL_ERROR";
     }
     
+    /**
+     * Creates an exception with an error code.
+     *
+     * @param message Message, or null to build it with {@link #formatMessage()} when first requested
+     * @param errorCode Error code
+     */
     public ECommerceException(String message, String errorCode) {
         super(message);
         this.errorCode = errorCode;
@@ -27,6 +34,43 @@ public class ECommerceException extends Exception {
         this.errorCode = errorCode;
     }
     
+    /**
+     * Creates a result-style exception whose message is built by
+     * {@link #formatMessage()} the first time it is requested. Expected
+     * business failures are usually caught and reported without ever looking
+     * at the stack trace, so callers can skip filling it in. Such exceptions
+     * have no cause, which can't be set later, and don't record suppressed
+     * exceptions; exceptions that are thrown and rethrown should use
+     * {@link #ECommerceException(String, String)} with a null message instead.
+     *
+     * @param errorCode Error code
+     * @param writableStackTrace Whether to capture the stack trace
+     */
+    protected ECommerceException(String errorCode, boolean writableStackTrace) {
+        super(null, null, false, writableStackTrace);
+        this.errorCode = errorCode;
+    }
+    
+    /**
+     * Builds the message of a lazily formatted exception.
+     * Subclasses using the lazy constructor must override this.
+     */
+    protected String formatMessage() {
+        return null;
+    }
+    
+    @Override
+    public String getMessage() {
+        String message = super.getMessage();
+        if (message != null) {
+            return message;
+        }
+        if (formattedMessage == null) {
+            formattedMessage = formatMessage();
+        }
+        return formattedMessage;
+    }
+    
     public String getErrorCode() {
         return errorCode;
     }
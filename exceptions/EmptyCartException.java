@@ -5,6 +5,15 @@ package exceptions;
  */
 public class EmptyCartException extends ECommerceException {
     public EmptyCartException() {
-        super("Cannot checkout with an empty cart", "EMPTY_CART");
+        super(null, "EMPTY_CART");
+    }
+    
+    public EmptyCartException(boolean writableStackTrace) {
+        super("EMPTY_CART", writableStackTrace);
+    }
+    
+    @Override
+    protected String formatMessage() {
+        return "Cannot checkout with an empty cart";
     }
 }
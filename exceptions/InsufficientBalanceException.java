@@ -8,12 +8,24 @@ public class InsufficientBalanceException extends ECommerceException {
     private final double availableBalance;
     
     public InsufficientBalanceException(double requiredAmount, double availableBalance) {
-        super(String.format("Insufficient balance. Required: $%.2f, Available: $%.2f", 
-              requiredAmount, availableBalance), "INSUFFICIENT_BALANCE");
+        super(null, "INSUFFICIENT_BALANCE");
         this.requiredAmount = requiredAmount;
         this.availableBalance = availableBalance;
     }
     
+    public InsufficientBalanceException(double requiredAmount, double availableBalance,
+                                        boolean writableStackTrace) {
+        super("INSUFFICIENT_BALANCE", writableStackTrace);
+        this.requiredAmount = requiredAmount;
+        this.availableBalance = availableBalance;
+    }
+    
+    @Override
+    protected String formatMessage() {
+        return String.format("Insufficient balance. Required: $%.2f, Available: $%.2f", 
+              requiredAmount, availableBalance);
+    }
+    
     public double getRequiredAmount() {
         return requiredAmount;
     }
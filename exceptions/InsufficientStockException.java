@@ -9,13 +9,26 @@ public class InsufficientStockException extends ECommerceException {
     private final int availableQuantity;
     
     public InsufficientStockException(String productName, int requestedQuantity, int availableQuantity) {
-        super(String.format("Insufficient stock for %s. Requested: %d, Available: %d", 
-              productName, requestedQuantity, availableQuantity), "INSUFFICIENT_STOCK");
+        super(null, "INSUFFICIENT_STOCK");
         this.productName = productName;
         this.requestedQuantity = requestedQuantity;
         this.availableQuantity = availableQuantity;
     }
     
+    public InsufficientStockException(String productName, int requestedQuantity, int availableQuantity,
+                                      boolean writableStackTrace) {
+        super("INSUFFICIENT_STOCK", writableStackTrace);
+        this.productName = productName;
+        this.requestedQuantity = requestedQuantity;
+        this.availableQuantity = availableQuantity;
+    }
+    
+    @Override
+    protected String formatMessage() {
+        return String.format("Insufficient stock for %s. Requested: %d, Available: %d", 
+              productName, requestedQuantity, availableQuantity);
+    }
+    
     public String getProductName() {
         return productName;
     }
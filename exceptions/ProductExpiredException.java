@@ -10,12 +10,22 @@ public class ProductExpiredException extends ECommerceException {
     private final LocalDate expirationDate;
     
     public ProductExpiredException(String productName, LocalDate expirationDate) {
-        super(String.format("Product %s has expired on %s", productName, expirationDate), 
-              "PRODUCT_EXPIRED");
+        super(null, "PRODUCT_EXPIRED");
         this.productName = productName;
         this.expirationDate = expirationDate;
     }
     
+    public ProductExpiredException(String productName, LocalDate expirationDate, boolean writableStackTrace) {
+        super("PRODUCT_EXPIRED", writableStackTrace);
+        this.productName = productName;
+        this.expirationDate = expirationDate;
+    }
+    
+    @Override
+    protected String formatMessage() {
+        return String.format("Product %s has expired on %s", productName, expirationDate);
+    }
+    
     public String getProductName() {
         return productName;
     }
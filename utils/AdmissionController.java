@@ -0,0 +1,168 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive concurrency limit for admitting work, using AIMD on measured latency.
+ * The controller keeps a baseline of the fastest latencies seen recently. While
+ * completed requests stay within a tolerance of that baseline and the limit is
+ * actually being used, the limit grows by about one per limit's worth of
+ * requests (additive increase); when latency rises beyond the tolerance, the
+ * queue is building up somewhere, and the limit is cut by 10% (multiplicative
+ * decrease), at most once per window. Requests over the limit are refused
+ * immediately, so an overloaded service sheds work instead of slowing down for
+ * everyone.
+ *
+ * All methods are lock-free.
+ */
+public class AdmissionController {
+    private static final int WINDOW = 100;
+    private static final double DECREASE_FACTOR = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong limitBits;
+    private final AtomicLong windowMin = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong samples = new AtomicLong();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private volatile long baselineNanos;
+    private final AtomicLong lastDecreaseSample = new AtomicLong(-WINDOW);
+
+    /**
+     * Creates a controller.
+     *
+     * @param initialLimit Starting concurrency limit
+     * @param minLimit Lowest the limit can go
+     * @param maxLimit Highest the limit can go
+     * @param tolerance How many times the baseline latency is still considered healthy, e.g. 2.0
+     */
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        if (minLimit < 1 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= minLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limitBits = new AtomicLong(Double.doubleToLongBits(clamp(initialLimit)));
+    }
+
+    /**
+     * Tries to admit one request. Every admitted request must be followed by {@link #release(long)}.
+     *
+     * @return true if the request may proceed, false if it should be shed
+     */
+    public boolean tryAcquire() {
+        int limit = getLimit();
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                shed.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ends an admitted request and adapts the limit to its latency.
+     *
+     * @param latencyNanos How long the request took
+     */
+    public void release(long latencyNanos) {
+        int concurrency = inFlight.getAndDecrement();
+        long sample = samples.incrementAndGet();
+        updateBaseline(latencyNanos, sample);
+
+        long baseline = baselineNanos;
+        if (baseline == 0) {
+            return;
+        }
+        if (latencyNanos > baseline * tolerance) {
+            // One thread per window wins the right to decrease
+            long lastDecrease = lastDecreaseSample.get();
+            if (sample - lastDecrease >= WINDOW && lastDecreaseSample.compareAndSet(lastDecrease, sample)) {
+                updateLimit(false);
+            }
+        } else if (concurrency * 2 >= Double.longBitsToDouble(limitBits.get())) {
+            // Only grow while the current limit is actually in use
+            updateLimit(true);
+        }
+    }
+
+    public int getLimit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    public long getShedCount() {
+        return shed.sum();
+    }
+
+    /**
+     * Gets the latency currently considered the no-load baseline.
+     *
+     * @return Baseline in nanoseconds, or 0 before the first full window
+     */
+    public long getBaselineNanos() {
+        return baselineNanos;
+    }
+
+    /**
+     * Clears the admitted and shed counters; the limit and baseline are kept.
+     */
+    public void resetCounters() {
+        admitted.reset();
+        shed.reset();
+    }
+
+    /**
+     * Tracks the fastest latency of each window and folds it into the baseline,
+     * so the baseline follows genuine changes in service time but not queueing.
+     */
+    private void updateBaseline(long latencyNanos, long sample) {
+        long min;
+        while (latencyNanos < (min = windowMin.get()) && !windowMin.compareAndSet(min, latencyNanos)) {
+            // retry
+        }
+        if (sample % WINDOW == 0) {
+            long windowFastest = windowMin.getAndSet(Long.MAX_VALUE);
+            long baseline = baselineNanos;
+            baselineNanos = baseline == 0 ? windowFastest : (baseline * 7 + windowFastest) / 8;
+        }
+    }
+
+    /**
+     * Grows the limit by one per limit's worth of calls, or cuts it by 10%.
+     * Concurrent updates are retried on the latest limit, so a decrease is
+     * never overwritten by an increase computed from the limit before it.
+     */
+    private void updateLimit(boolean increase) {
+        while (true) {
+            long bits = limitBits.get();
+            double limit = Double.longBitsToDouble(bits);
+            double updated = clamp(increase ? limit + 1.0 / limit : limit * DECREASE_FACTOR);
+            if (limitBits.compareAndSet(bits, Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    private double clamp(double limit) {
+        return Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+}
@@ -0,0 +1,128 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over 64-bit keys: a set that answers "definitely absent" or
+ * "probably present" in a fixed number of bit probes, using about 10 bits per
+ * key for a 1% false-positive rate however long the keys it stands for.
+ *
+ * The bit array and number of probes are derived from the expected number of
+ * keys and the acceptable false-positive rate; adding more keys than expected
+ * raises the rate gradually rather than failing. Keys should already be well
+ * mixed hashes; each key is remixed into two hashes and the probes are spread
+ * by double hashing.
+ *
+ * Adding and testing are lock-free: bits are set with a CAS on their word and
+ * never cleared, so a key is reported present by every test that starts after
+ * its add has returned.
+ */
+public class BloomFilter {
+    // Largest bit array the 32-bit probe positions can address
+    private static final long MAX_BITS = Integer.MAX_VALUE;
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * Creates an empty filter sized for the given load.
+     *
+     * @param expectedKeys Number of keys the filter should hold at the target rate
+     * @param falsePositiveRate Target chance that an absent key is reported present, e.g. 0.01
+     */
+    public BloomFilter(long expectedKeys, double falsePositiveRate) {
+        if (expectedKeys < 1) {
+            throw new IllegalArgumentException("Expected keys must be at least 1");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+        double ln2 = Math.log(2);
+        double optimalBits = -expectedKeys * Math.log(falsePositiveRate) / (ln2 * ln2);
+        long bits = Math.min(MAX_BITS, Math.max(Long.SIZE, (long) Math.ceil(optimalBits)));
+        this.words = new AtomicLongArray((int) ((bits + Long.SIZE - 1) / Long.SIZE));
+        this.bitCount = (long) words.length() * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedKeys * ln2));
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key Key to add
+     * @return true if the filter changed, i.e. the key was definitely not present before
+     */
+    public boolean put(long key) {
+        long mixed = mix(key);
+        int h1 = (int) mixed;
+        int h2 = (int) (mixed >>> 32);
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = position(h1 + i * h2);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = words.get(word);
+            while ((current & mask) == 0) {
+                if (words.compareAndSet(word, current, current | mask)) {
+                    changed = true;
+                    break;
+                }
+                current = words.get(word);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Tests whether a key may have been added.
+     *
+     * @param key Key to test
+     * @return false if the key was definitely never added, true if it probably was
+     */
+    public boolean mightContain(long key) {
+        long mixed = mix(key);
+        int h1 = (int) mixed;
+        int h2 = (int) (mixed >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = position(h1 + i * h2);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Gets the number of bits probed per key.
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Gets the false-positive rate to expect once the given number of keys has been added.
+     */
+    public double expectedFalsePositiveRate(long keys) {
+        return Math.pow(1 - Math.exp(-(double) hashCount * keys / bitCount), hashCount);
+    }
+
+    /**
+     * Maps a 32-bit hash onto the bit array without a division.
+     */
+    private long position(int hash) {
+        return ((hash & 0xFFFFFFFFL) * bitCount) >>> 32;
+    }
+
+    /**
+     * Finalizer of SplitMix64, so that similar keys land on unrelated bits.
+     */
+    private static long mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+        key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+        return key ^ (key >>> 31);
+    }
+}
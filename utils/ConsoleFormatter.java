@@ -1,16 +1,31 @@
 package utils;
 
-import java.text.DecimalFormat;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 /**
  * Utility class for consistent console formatting throughout the application.
  * Provides methods for creating professional-looking output with proper alignment and styling.
  * This is NOT my code.
+ *
+ * All methods are thread-safe. Amounts are formatted with integer arithmetic on
+ * cents (half-even rounding, like DecimalFormat), and the append* variants write
+ * straight into a caller-supplied StringBuilder or ByteBuffer without creating
+ * intermediate strings. Separators and headers are cached after first use.
  */
 public class ConsoleFormatter {
-    private static final DecimalFormat CURRENCY_FORMAT = new DecimalFormat("#,##0.00");
-    private static final DecimalFormat WEIGHT_FORMAT = new DecimalFormat("#,##0.##");
-    
+    private static final int CACHE_SIZE = 64;
+
+    // Scratch builder for the ByteBuffer variants, one per thread
+    private static final ThreadLocal<StringBuilder> SCRATCH = ThreadLocal.withInitial(() -> new StringBuilder(64));
+
+    // Scales for amounts with up to 4 decimals
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000};
+
+    // Racy single-entry caches: entries are immutable, so a lost update only costs a recomputation
+    private static final String[] SEPARATOR_CACHE = new String[CACHE_SIZE];
+    private static final CachedHeader[] HEADER_CACHE = new CachedHeader[CACHE_SIZE];
+
     // ANSI Color codes for enhanced output
     public static final String RESET = "\u001B[0m";
     public static final String RED = "\u001B[31m";
@@ -20,81 +35,306 @@ public class ConsoleFormatter {
     public static final String PURPLE = "\u001B[35m";
     public static final String CYAN = "\u001B[36m";
     public static final String BOLD = "\u001B[1m";
-    
+
+    /**
+     * Gets the charset System.out encodes text with, for code that writes bytes to it directly.
+     */
+    public static Charset consoleCharset() {
+        // stdout.encoding is what System.out uses on JDK 17+; sun.stdout.encoding is set on older Windows consoles
+        String encoding = System.getProperty("stdout.encoding");
+        if (encoding == null) {
+            encoding = System.getProperty("sun.stdout.encoding");
+        }
+        try {
+            return encoding != null ? Charset.forName(encoding) : Charset.defaultCharset();
+        } catch (IllegalArgumentException e) {
+            return Charset.defaultCharset();
+        }
+    }
+
     /**
      * Formats currency values consistently.
      */
     public static String formatCurrency(double amount) {
-        return "$" + CURRENCY_FORMAT.format(amount);
+        return appendCurrency(new StringBuilder(16), amount).toString();
     }
-    
+
+    /**
+     * Appends a currency value, e.g. "$1,234.50".
+     */
+    public static StringBuilder appendCurrency(StringBuilder out, double amount) {
+        out.append('$');
+        return appendDecimal(out, amount, true);
+    }
+
+    /**
+     * Writes a currency value as ASCII bytes.
+     */
+    public static ByteBuffer appendCurrency(ByteBuffer out, double amount) {
+        StringBuilder scratch = SCRATCH.get();
+        scratch.setLength(0);
+        return putAscii(out, appendCurrency(scratch, amount));
+    }
+
     /**
      * Formats weight values consistently.
      */
     public static String formatWeight(double weightInKg) {
+        return appendWeight(new StringBuilder(12), weightInKg).toString();
+    }
+
+    /**
+     * Appends a weight, in grams below 1kg and in kilograms otherwise, e.g. "200g" or "1.5kg".
+     */
+    public static StringBuilder appendWeight(StringBuilder out, double weightInKg) {
         if (weightInKg < 1.0) {
-            return WEIGHT_FORMAT.format(weightInKg * 1000) + "g";
+            return appendDecimal(out, weightInKg * 1000, false).append('g');
         } else {
-            return WEIGHT_FORMAT.format(weightInKg) + "kg";
+            return appendDecimal(out, weightInKg, false).append("kg");
         }
     }
-    
+
+    /**
+     * Writes a weight as ASCII bytes.
+     */
+    public static ByteBuffer appendWeight(ByteBuffer out, double weightInKg) {
+        StringBuilder scratch = SCRATCH.get();
+        scratch.setLength(0);
+        return putAscii(out, appendWeight(scratch, weightInKg));
+    }
+
     /**
      * Creates a horizontal line separator.
      */
     public static String createSeparator(char character, int length) {
-        return String.valueOf(character).repeat(length);
+        int slot = (character * 31 + length) & (CACHE_SIZE - 1);
+        String cached = SEPARATOR_CACHE[slot];
+        if (cached != null && cached.length() == length && (length == 0 || cached.charAt(0) == character)) {
+            return cached;
+        }
+        String separator = String.valueOf(character).repeat(length);
+        SEPARATOR_CACHE[slot] = separator;
+        return separator;
     }
-    
+
     /**
      * Creates a section header with proper formatting.
      */
     public static String createHeader(String title, int width) {
+        int slot = (title.hashCode() * 31 + width) & (CACHE_SIZE - 1);
+        CachedHeader cached = HEADER_CACHE[slot];
+        if (cached != null && cached.width == width && cached.title.equals(title)) {
+            return cached.header;
+        }
         int padding = (width - title.length()) / 2;
         String leftPad = " ".repeat(Math.max(0, padding));
         String rightPad = " ".repeat(Math.max(0, width - title.length() - padding));
-        return BOLD + BLUE + leftPad + title + rightPad + RESET;
+        String header = BOLD + BLUE + leftPad + title + rightPad + RESET;
+        HEADER_CACHE[slot] = new CachedHeader(title, width, header);
+        return header;
     }
-    
+
     /**
      * Formats a line item with proper alignment.
      */
     public static String formatLineItem(int quantity, String name, String value, int nameWidth) {
-        return String.format("%-3dx %-" + nameWidth + "s %10s", quantity, name, value);
+        return appendLineItem(new StringBuilder(nameWidth + 20), quantity, name, value, nameWidth).toString();
+    }
+
+    /**
+     * Appends a line item laid out as "qty x name value", without a line break.
+     */
+    public static StringBuilder appendLineItem(StringBuilder out, int quantity, CharSequence name,
+                                               CharSequence value, int nameWidth) {
+        int start = out.length();
+        out.append(quantity);
+        pad(out, 3 - (out.length() - start));
+        out.append("x ").append(name);
+        pad(out, nameWidth - name.length());
+        out.append(' ');
+        pad(out, 10 - value.length());
+        return out.append(value);
     }
-    
+
     /**
      * Formats a summary line with proper alignment.
      */
     public static String formatSummaryLine(String label, String value, int labelWidth) {
-        return String.format("%-" + labelWidth + "s %10s", label, value);
+        return appendSummaryLine(new StringBuilder(labelWidth + 12), label, value, labelWidth).toString();
     }
-    
+
+    /**
+     * Appends a summary line laid out as "label value", without a line break.
+     */
+    public static StringBuilder appendSummaryLine(StringBuilder out, CharSequence label, CharSequence value,
+                                                  int labelWidth) {
+        out.append(label);
+        pad(out, labelWidth - label.length());
+        out.append(' ');
+        pad(out, 10 - value.length());
+        return out.append(value);
+    }
+
     /**
      * Creates a success message with green color.
      */
     public static String success(String message) {
         return GREEN + "[SUCCESS] " + message + RESET;
     }
-    
+
     /**
      * Creates an error message with red color.
      */
     public static String error(String message) {
         return RED + "[ERROR] " + message + RESET;
     }
-    
+
     /**
      * Creates a warning message with yellow color.
      */
     public static String warning(String message) {
         return YELLOW + "[WARNING] " + message + RESET;
     }
-    
+
     /**
      * Creates an info message with cyan color.
      */
     public static String info(String message) {
         return CYAN + "[INFO] " + message + RESET;
     }
+
+    /**
+     * Appends a number with thousands separators and two decimals, matching
+     * DecimalFormat "#,##0.00" (fixed decimals) or "#,##0.##" (trailing zeros dropped).
+     */
+    private static StringBuilder appendDecimal(StringBuilder out, double value, boolean fixedDecimals) {
+        if (Double.isNaN(value)) {
+            return out.append("NaN");
+        }
+        if (Double.doubleToRawLongBits(value) < 0) {
+            out.append('-');
+            value = -value;
+        }
+        if (Double.isInfinite(value)) {
+            return out.append('∞');
+        }
+        long hundredths = roundToHundredths(value);
+        appendGrouped(out, hundredths / 100);
+        int fraction = (int) (hundredths % 100);
+        if (fixedDecimals) {
+            out.append('.');
+            if (fraction < 10) {
+                out.append('0');
+            }
+            return out.append(fraction);
+        }
+        if (fraction != 0) {
+            out.append('.').append(fraction / 10);
+            if (fraction % 10 != 0) {
+                out.append(fraction % 10);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Appends an amount with thousands separators and a fixed number of decimals,
+     * e.g. 2 for "1,234.50" or 0 for "1,235".
+     */
+    static StringBuilder appendAmount(StringBuilder out, double value, int fractionDigits) {
+        if (Double.isNaN(value)) {
+            return out.append("NaN");
+        }
+        if (Double.doubleToRawLongBits(value) < 0) {
+            out.append('-');
+            value = -value;
+        }
+        if (Double.isInfinite(value)) {
+            return out.append('∞');
+        }
+        long scale = POWERS_OF_TEN[fractionDigits];
+        long units = roundScaled(value, scale);
+        appendGrouped(out, units / scale);
+        if (fractionDigits > 0) {
+            out.append('.');
+            long fraction = units % scale;
+            for (long digit = scale / 10; digit > 1 && fraction < digit; digit /= 10) {
+                out.append('0');
+            }
+            out.append(fraction);
+        }
+        return out;
+    }
+
+    /**
+     * Rounds a non-negative value to hundredths, half-even on its exact decimal value.
+     */
+    private static long roundToHundredths(double value) {
+        return roundScaled(value, 100);
+    }
+
+    /**
+     * Rounds a non-negative value to a whole number of 1/scale units, half-even on
+     * its exact decimal value.
+     */
+    static long roundScaled(double value, long scale) {
+        double scaled = value * scale;
+        double floor = Math.floor(scaled);
+        double diff = scaled - floor;
+        if (diff != 0.5) {
+            return (long) Math.rint(scaled);
+        }
+        // The product landed on a tie; the rounding error decides which side the exact value is on
+        double error = Math.fma(value, scale, -scaled);
+        if (error < 0) {
+            return (long) floor;
+        }
+        if (error > 0) {
+            return (long) floor + 1;
+        }
+        return (long) Math.rint(scaled);
+    }
+
+    private static void appendGrouped(StringBuilder out, long value) {
+        if (value < 1000) {
+            out.append(value);
+            return;
+        }
+        appendGrouped(out, value / 1000);
+        int group = (int) (value % 1000);
+        out.append(',');
+        if (group < 100) {
+            out.append('0');
+        }
+        if (group < 10) {
+            out.append('0');
+        }
+        out.append(group);
+    }
+
+    private static void pad(StringBuilder out, int count) {
+        for (int i = 0; i < count; i++) {
+            out.append(' ');
+        }
+    }
+
+    private static ByteBuffer putAscii(ByteBuffer out, CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            out.put(c < 0x80 ? (byte) c : (byte) '?');
+        }
+        return out;
+    }
+
+    private static final class CachedHeader {
+        final String title;
+        final int width;
+        final String header;
+
+        CachedHeader(String title, int width, String header) {
+            this.title = title;
+            this.width = width;
+            this.header = header;
+        }
+    }
 }
@@ -0,0 +1,108 @@
+package utils;
+
+import java.nio.charset.CharsetEncoder;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How amounts in one currency are written, e.g. "€1,234.50" or "¥1,235".
+ *
+ * The symbol and number of decimals come from {@link java.util.Currency} and
+ * are worked out once per currency; formats are cached, so looking one up and
+ * formatting with it costs no more than {@link ConsoleFormatter#formatCurrency}.
+ * Symbols the console can't print are replaced by the currency code. Numbers
+ * use the same grouping and half-even rounding as ConsoleFormatter whatever
+ * the currency, so columns of amounts line up on every receipt.
+ *
+ * Formats are immutable and thread-safe.
+ */
+public final class CurrencyFormat {
+    private static final ConcurrentHashMap<String, CurrencyFormat> CACHE = new ConcurrentHashMap<>();
+
+    private final String code;
+    private final String prefix;
+    private final int fractionDigits;
+    private final long scale;
+
+    private CurrencyFormat(String code, String prefix, int fractionDigits) {
+        this.code = code;
+        this.prefix = prefix;
+        this.fractionDigits = fractionDigits;
+        long scale = 1;
+        for (int i = 0; i < fractionDigits; i++) {
+            scale *= 10;
+        }
+        this.scale = scale;
+    }
+
+    /**
+     * Gets the format of a currency.
+     *
+     * @param code ISO 4217 currency code, e.g. "EUR"
+     * @throws IllegalArgumentException if the code is not a known currency
+     */
+    public static CurrencyFormat of(String code) {
+        CurrencyFormat format = CACHE.get(code);
+        return format != null ? format : CACHE.computeIfAbsent(code, CurrencyFormat::create);
+    }
+
+    private static CurrencyFormat create(String code) {
+        Currency currency = Currency.getInstance(code);
+        String symbol = currency.getSymbol(Locale.US);
+        CharsetEncoder encoder = ConsoleFormatter.consoleCharset().newEncoder();
+        if (!encoder.canEncode(symbol)) {
+            symbol = code;
+        }
+        // Letter symbols such as "CHF" need a space before the number
+        String prefix = Character.isLetter(symbol.charAt(symbol.length() - 1)) ? symbol + " " : symbol;
+        // Currencies without minor units, such as gold, report -1
+        int digits = Math.min(4, Math.max(0, currency.getDefaultFractionDigits()));
+        return new CurrencyFormat(currency.getCurrencyCode(), prefix, digits);
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * Gets the text written before amounts, e.g. "€" or "CHF ".
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Gets the number of decimals amounts are shown and rounded with, e.g. 0 for yen.
+     */
+    public int getFractionDigits() {
+        return fractionDigits;
+    }
+
+    /**
+     * Rounds an amount to the currency's smallest unit, half-even.
+     */
+    public double round(double amount) {
+        if (amount < 0) {
+            return -round(-amount);
+        }
+        return (double) ConsoleFormatter.roundScaled(amount, scale) / scale;
+    }
+
+    public String format(double amount) {
+        return append(new StringBuilder(16), amount).toString();
+    }
+
+    /**
+     * Appends an amount, e.g. "€1,234.50".
+     */
+    public StringBuilder append(StringBuilder out, double amount) {
+        out.append(prefix);
+        return ConsoleFormatter.appendAmount(out, amount, fractionDigits);
+    }
+
+    @Override
+    public String toString() {
+        return code;
+    }
+}
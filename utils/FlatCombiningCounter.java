@@ -0,0 +1,204 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-negative counter updated by flat combining, for stock that many threads
+ * take from at once. Instead of every thread fighting over the count, a thread
+ * publishes its request in a slot and tries to become the combiner; the
+ * combiner holds the lock for one pass over all slots, granting or refusing
+ * each pending request against the count, while the other threads just wait
+ * for their slot to be answered. The count stays in one place, so reads are a
+ * single volatile load, unlike {@link ShardedCounter}, and the lock changes
+ * hands once per batch instead of once per request.
+ */
+public class FlatCombiningCounter implements StockCounter {
+    // Slots sit 64 bytes apart so that publishing a request never invalidates a neighbour's line
+    private static final int PADDING = 16;
+    private static final int EMPTY = 0;
+    private static final int GRANTED = -1;
+    private static final int REFUSED = -2;
+    // Slots tried before giving up on publishing and queueing on the lock instead
+    private static final int PROBES = 4;
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    private final int slots;
+    // Per slot: EMPTY, a pending amount (> 0), or the combiner's answer (GRANTED or REFUSED)
+    private final AtomicIntegerArray requests;
+    private final ReentrantLock combinerLock = new ReentrantLock();
+    private volatile int value;
+    // Written only by the combiner
+    private volatile long passes;
+    private volatile long combined;
+
+    /**
+     * Creates a counter with two slots per available processor.
+     *
+     * @param initialValue Starting value
+     */
+    public FlatCombiningCounter(int initialValue) {
+        this(initialValue, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a counter.
+     *
+     * @param initialValue Starting value
+     * @param slotCount Number of publication slots, rounded up to a power of two
+     */
+    public FlatCombiningCounter(int initialValue, int slotCount) {
+        if (initialValue < 0) {
+            throw new IllegalArgumentException("Initial value cannot be negative");
+        }
+        int size = 1;
+        while (size < slotCount) {
+            size <<= 1;
+        }
+        this.slots = size;
+        this.requests = new AtomicIntegerArray(slots * PADDING);
+        this.value = initialValue;
+    }
+
+    public int getSlotCount() {
+        return slots;
+    }
+
+    @Override
+    public int get() {
+        return value;
+    }
+
+    /**
+     * Gets the average number of published requests answered per combining pass.
+     */
+    public double getAverageBatchSize() {
+        long count = passes;
+        return count == 0 ? 0 : (double) combined / count;
+    }
+
+    /**
+     * Adds units under the combiner lock, then serves whatever requests are waiting.
+     */
+    @Override
+    public void add(int amount) {
+        if (amount <= 0) {
+            return;
+        }
+        combinerLock.lock();
+        try {
+            value += amount;
+            combine();
+        } finally {
+            combinerLock.unlock();
+        }
+    }
+
+    /**
+     * Takes units out of the counter, all or nothing.
+     *
+     * @return true if the units were taken, false if the counter holds fewer
+     */
+    @Override
+    public boolean tryTake(int amount) {
+        if (amount <= 0) {
+            return amount == 0;
+        }
+        // Uncontended: apply directly, without the round trip through a slot
+        if (combinerLock.tryLock()) {
+            try {
+                boolean taken = take(amount);
+                combine();
+                return taken;
+            } finally {
+                combinerLock.unlock();
+            }
+        }
+        int index = publish(amount);
+        if (index < 0) {
+            // Every probed slot is busy; wait for the lock like a plain locked counter
+            combinerLock.lock();
+            try {
+                boolean taken = take(amount);
+                combine();
+                return taken;
+            } finally {
+                combinerLock.unlock();
+            }
+        }
+        int spins = 0;
+        while (true) {
+            int answer = requests.get(index);
+            if (answer < 0) {
+                requests.set(index, EMPTY);
+                return answer == GRANTED;
+            }
+            if (combinerLock.tryLock()) {
+                try {
+                    combine(); // answers our own request along with the rest
+                } finally {
+                    combinerLock.unlock();
+                }
+            } else if (++spins % SPINS_BEFORE_YIELD == 0) {
+                Thread.yield();
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Claims a free slot near the calling thread's home slot and publishes the request in it.
+     *
+     * @return Array index of the claimed slot, or -1 if none was free
+     */
+    private int publish(int amount) {
+        long id = Thread.currentThread().getId();
+        int home = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+        for (int probe = 0; probe < Math.min(PROBES, slots); probe++) {
+            int index = ((home + probe) & (slots - 1)) * PADDING;
+            if (requests.get(index) == EMPTY && requests.compareAndSet(index, EMPTY, amount)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Answers every pending request in slot order. Must hold the combiner lock.
+     */
+    private void combine() {
+        int current = value;
+        int answered = 0;
+        for (int i = 0; i < slots; i++) {
+            int index = i * PADDING;
+            int amount = requests.get(index);
+            if (amount > 0) {
+                if (amount <= current) {
+                    current -= amount;
+                    value = current; // visible before the requester sees its answer
+                    requests.set(index, GRANTED);
+                } else {
+                    requests.set(index, REFUSED);
+                }
+                answered++;
+            }
+        }
+        if (answered > 0) {
+            passes++;
+            combined += answered;
+        }
+    }
+
+    /**
+     * Applies one request directly. Must hold the combiner lock.
+     */
+    private boolean take(int amount) {
+        int current = value;
+        if (amount > current) {
+            return false;
+        }
+        value = current - amount;
+        return true;
+    }
+}
@@ -0,0 +1,381 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index from words to the ids of the documents containing them, for
+ * search-as-you-type over short texts such as product names.
+ *
+ * Texts are split into lower-case runs of letters and digits. Each word keeps
+ * its document ids in ascending order as a compressed posting list: the gap
+ * from the previous id, written as a variable-length integer, so dense words
+ * cost about one byte per document. Documents must be added in increasing id
+ * order. A query matches documents containing all of its words, treating the
+ * last word as a prefix unless the query ends in a space, so results follow
+ * the user's typing.
+ *
+ * Adding is synchronized; searching is lock-free and sees every document whose
+ * add has returned.
+ */
+public class InvertedIndex {
+    private final ConcurrentHashMap<String, Postings> postings = new ConcurrentHashMap<>();
+    private int lastDocId = -1; // guarded by this
+    private long documents; // guarded by this
+    private volatile String[] sortedTerms = new String[0];
+    private volatile boolean termsStale;
+
+    /**
+     * Adds a document. Ids must be added in increasing order.
+     *
+     * @param docId Id of the document
+     * @param text Text to index
+     */
+    public synchronized void add(int docId, String text) {
+        if (docId <= lastDocId) {
+            throw new IllegalArgumentException("Document ids must increase: " + docId + " after " + lastDocId);
+        }
+        lastDocId = docId;
+        documents++;
+        for (String term : tokenize(text)) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                list = new Postings();
+                postings.put(term, list);
+                termsStale = true;
+            }
+            list.append(docId);
+        }
+    }
+
+    /**
+     * Splits text into lower-case words of letters and digits.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Gets the number of distinct words indexed.
+     */
+    public int getTermCount() {
+        return postings.size();
+    }
+
+    public synchronized long getDocumentCount() {
+        return documents;
+    }
+
+    /**
+     * Gets the number of documents containing a word.
+     */
+    public int getDocumentFrequency(String term) {
+        Postings list = postings.get(term.toLowerCase(Locale.ROOT));
+        return list == null ? 0 : list.count;
+    }
+
+    /**
+     * Gets the total size of all compressed posting lists.
+     */
+    public long getPostingsBytes() {
+        long bytes = 0;
+        for (Postings list : postings.values()) {
+            bytes += list.size;
+        }
+        return bytes;
+    }
+
+    /**
+     * Finds documents matching a query, lowest ids first.
+     *
+     * @param query Words that must all occur; the last one is a prefix unless followed by a space
+     * @param limit Maximum number of ids to return
+     * @return Matching ids in ascending order
+     */
+    public int[] search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return new int[0];
+        }
+        boolean lastIsPrefix = !Character.isWhitespace(query.charAt(query.length() - 1));
+        List<DocIterator> iterators = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            DocIterator iterator;
+            if (i == terms.size() - 1 && lastIsPrefix) {
+                iterator = prefixIterator(terms.get(i));
+            } else {
+                Postings list = postings.get(terms.get(i));
+                iterator = list == null ? null : list.iterator();
+            }
+            if (iterator == null) {
+                return new int[0];
+            }
+            iterators.add(iterator);
+        }
+        return intersect(iterators, limit);
+    }
+
+    /**
+     * Suggests completions for the word being typed, most common first.
+     *
+     * @param prefix Start of a word
+     * @param limit Maximum number of words to return
+     * @return Indexed words starting with the prefix
+     */
+    public List<String> suggest(String prefix, int limit) {
+        String[] terms = terms();
+        String lower = prefix.toLowerCase(Locale.ROOT);
+        int from = lowerBound(terms, lower);
+        int to = lowerBound(terms, lower + Character.MAX_VALUE);
+        // Bounded min-heap on frequency keeps the most common completions
+        PriorityQueue<String> best = new PriorityQueue<>(Math.max(1, limit),
+            (a, b) -> Integer.compare(postings.get(a).count, postings.get(b).count));
+        for (int i = from; i < to && limit > 0; i++) {
+            if (best.size() < limit) {
+                best.add(terms[i]);
+            } else if (postings.get(terms[i]).count > postings.get(best.peek()).count) {
+                best.poll();
+                best.add(terms[i]);
+            }
+        }
+        List<String> suggestions = new ArrayList<>(best);
+        suggestions.sort((a, b) -> Integer.compare(postings.get(b).count, postings.get(a).count));
+        return suggestions;
+    }
+
+    /**
+     * Gets all indexed words in sorted order, re-sorting only after new words were added.
+     */
+    private String[] terms() {
+        if (!termsStale) {
+            return sortedTerms;
+        }
+        synchronized (this) {
+            if (termsStale) {
+                termsStale = false;
+                String[] terms = postings.keySet().toArray(new String[0]);
+                Arrays.sort(terms);
+                sortedTerms = terms;
+            }
+            return sortedTerms;
+        }
+    }
+
+    private static int lowerBound(String[] terms, String key) {
+        int low = 0;
+        int high = terms.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (terms[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Iterates over the union of the posting lists of every word with the given prefix.
+     *
+     * @return The iterator, or null if no word has the prefix
+     */
+    private DocIterator prefixIterator(String prefix) {
+        String[] terms = terms();
+        int from = lowerBound(terms, prefix);
+        int to = lowerBound(terms, prefix + Character.MAX_VALUE);
+        if (to - from <= 1) {
+            return to > from ? postings.get(terms[from]).iterator() : null;
+        }
+        List<DocIterator> lists = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            lists.add(postings.get(terms[i]).iterator());
+        }
+        return new UnionIterator(lists);
+    }
+
+    /**
+     * Leapfrogs the iterators to the ids they all share.
+     */
+    private static int[] intersect(List<DocIterator> iterators, int limit) {
+        int[] matches = new int[Math.min(limit, 64)];
+        int found = 0;
+        DocIterator first = iterators.get(0);
+        int candidate = first.next();
+        while (candidate != DocIterator.END && found < limit) {
+            boolean all = true;
+            for (int i = 1; i < iterators.size(); i++) {
+                int id = iterators.get(i).advance(candidate);
+                if (id == DocIterator.END) {
+                    return Arrays.copyOf(matches, found);
+                }
+                if (id != candidate) {
+                    candidate = first.advance(id);
+                    all = false;
+                    break;
+                }
+            }
+            if (all) {
+                if (found == matches.length) {
+                    matches = Arrays.copyOf(matches, Math.min(limit, found * 2));
+                }
+                matches[found++] = candidate;
+                candidate = first.next();
+            }
+        }
+        return Arrays.copyOf(matches, found);
+    }
+
+    /**
+     * Ascending document ids; END once exhausted.
+     */
+    private interface DocIterator {
+        int END = Integer.MAX_VALUE;
+
+        /**
+         * Moves to the next id.
+         */
+        int next();
+
+        /**
+         * Moves to the first id at least target, or stays if already there.
+         */
+        int advance(int target);
+    }
+
+    /**
+     * Append-only list of ascending ids, delta- and varint-encoded.
+     * Readers see a consistent prefix: size is published after the bytes it covers.
+     */
+    private static final class Postings {
+        private volatile byte[] bytes = new byte[8];
+        private volatile int size;
+        private volatile int count;
+        private int lastId = -1;
+
+        void append(int id) {
+            if (id == lastId) {
+                return; // word repeated within one document
+            }
+            int gap = id - lastId;
+            byte[] buffer = bytes;
+            int position = size;
+            if (position + 5 > buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                bytes = buffer;
+            }
+            while ((gap & ~0x7F) != 0) {
+                buffer[position++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            buffer[position++] = (byte) gap;
+            lastId = id;
+            count++;
+            size = position;
+        }
+
+        DocIterator iterator() {
+            int end = size; // read before bytes, so the array holds at least this much
+            return new PostingsIterator(bytes, end);
+        }
+    }
+
+    private static final class PostingsIterator implements DocIterator {
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+        private int current = -1;
+
+        PostingsIterator(byte[] bytes, int end) {
+            this.bytes = bytes;
+            this.end = end;
+        }
+
+        @Override
+        public int next() {
+            if (position >= end) {
+                return current = END;
+            }
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return current += gap;
+        }
+
+        @Override
+        public int advance(int target) {
+            int id = current;
+            while (id < target) {
+                id = next();
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Merges several iterators into one ascending stream without duplicates.
+     */
+    private static final class UnionIterator implements DocIterator {
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> Integer.compare(a.id, b.id));
+        private int current = -1;
+
+        UnionIterator(List<DocIterator> iterators) {
+            for (DocIterator iterator : iterators) {
+                int id = iterator.next();
+                if (id != END) {
+                    heads.add(new Head(iterator, id));
+                }
+            }
+        }
+
+        @Override
+        public int next() {
+            return advance(current + 1);
+        }
+
+        @Override
+        public int advance(int target) {
+            if (current >= target) {
+                return current;
+            }
+            while (!heads.isEmpty() && heads.peek().id < target) {
+                Head head = heads.poll();
+                head.id = head.iterator.advance(target);
+                if (head.id != END) {
+                    heads.add(head);
+                }
+            }
+            return current = heads.isEmpty() ? END : heads.peek().id;
+        }
+
+        private static final class Head {
+            final DocIterator iterator;
+            int id;
+
+            Head(DocIterator iterator, int id) {
+                this.iterator = iterator;
+                this.id = id;
+            }
+        }
+    }
+}
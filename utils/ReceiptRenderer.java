@@ -0,0 +1,175 @@
+package utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Renders compiled receipt templates into a reusable byte buffer.
+ * Any number of receipts can be rendered back to back and then written out
+ * with a single call, so a batch of thousands of receipts costs one write.
+ * A renderer is not thread-safe; use one per thread.
+ */
+public class ReceiptRenderer {
+    private final Charset charset;
+    private final boolean ansi;
+    private final StringBuilder scratch = new StringBuilder(32);
+    private byte[] buffer;
+    private int length;
+
+    /**
+     * Creates a renderer.
+     *
+     * @param charset Charset of the output, must match the one templates were compiled with
+     * @param ansi Whether to include ANSI color codes
+     */
+    public ReceiptRenderer(Charset charset, boolean ansi) {
+        this.charset = charset;
+        this.ansi = ansi;
+        this.buffer = new byte[4096];
+    }
+
+    /**
+     * Appends one rendered receipt to the buffer.
+     */
+    public ReceiptRenderer render(ReceiptTemplate template, ReceiptTemplate.Data data) {
+        renderSegments(template.segments(ansi), data, -1);
+        return this;
+    }
+
+    /**
+     * Gets the number of buffered bytes.
+     */
+    public int size() {
+        return length;
+    }
+
+    /**
+     * Writes everything rendered so far with a single write call and empties the buffer.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+        out.flush();
+        length = 0;
+    }
+
+    /**
+     * Discards everything rendered so far.
+     */
+    public void clear() {
+        length = 0;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, charset);
+    }
+
+    private void renderSegments(ReceiptTemplate.Segment[] segments, ReceiptTemplate.Data data, int row) {
+        for (ReceiptTemplate.Segment segment : segments) {
+            switch (segment.type) {
+                case ReceiptTemplate.LITERAL:
+                    put(segment.bytes);
+                    break;
+                case ReceiptTemplate.SECTION:
+                    int rows = data.rowCount(segment.slot);
+                    for (int i = 0; i < rows; i++) {
+                        renderSegments(segment.children, data, i);
+                    }
+                    break;
+                case ReceiptTemplate.CONDITIONAL:
+                    if (data.flag(segment.slot)) {
+                        renderSegments(segment.children, data, row);
+                    }
+                    break;
+                case ReceiptTemplate.TEXT:
+                    CharSequence text = data.text(segment.slot, row);
+                    putPadded(text == null ? "" : text, segment.width);
+                    break;
+                default:
+                    scratch.setLength(0);
+                    formatNumber(segment.type, data.number(segment.slot, row), data.currency());
+                    putPadded(scratch, segment.width);
+                    break;
+            }
+        }
+    }
+
+    private void formatNumber(int type, double value, CurrencyFormat currency) {
+        switch (type) {
+            case ReceiptTemplate.INT:
+                scratch.append((long) value);
+                break;
+            case ReceiptTemplate.MONEY:
+                appendMoney(value, currency);
+                break;
+            case ReceiptTemplate.NEGATIVE_MONEY:
+                scratch.append('-');
+                appendMoney(value, currency);
+                break;
+            case ReceiptTemplate.DOLLARS:
+                ConsoleFormatter.appendCurrency(scratch, value);
+                break;
+            case ReceiptTemplate.WEIGHT:
+                ConsoleFormatter.appendWeight(scratch, value);
+                break;
+            default:
+                throw new IllegalStateException("Unknown segment type " + type);
+        }
+    }
+
+    private void appendMoney(double value, CurrencyFormat currency) {
+        if (currency != null) {
+            currency.append(scratch, value);
+        } else {
+            ConsoleFormatter.appendCurrency(scratch, value);
+        }
+    }
+
+    private void putPadded(CharSequence text, int width) {
+        int padding = Math.abs(width) - text.length();
+        if (width > 0) {
+            putSpaces(padding);
+        }
+        putText(text);
+        if (width < 0) {
+            putSpaces(padding);
+        }
+    }
+
+    private void putText(CharSequence text) {
+        int count = text.length();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                // Rare non-ASCII text goes through the charset encoder
+                put(text.subSequence(i, count).toString().getBytes(charset));
+                return;
+            }
+            buffer[length++] = (byte) c;
+        }
+    }
+
+    private void putSpaces(int count) {
+        if (count <= 0) {
+            return;
+        }
+        ensureCapacity(count);
+        Arrays.fill(buffer, length, length + count, (byte) ' ');
+        length += count;
+    }
+
+    private void put(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package utils;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A receipt layout compiled once into a flat list of segments.
+ * Literal text (including separators and padded labels) is pre-encoded to bytes,
+ * once with ANSI styles and once without, so rendering only has to write the
+ * variable fields. Templates are immutable and can be shared between threads.
+ *
+ * Template syntax:
+ * <pre>
+ *   {name}              text field            {name:&lt;20}  left-aligned in 20 columns
+ *   {name:money:&gt;10}    currency, right-aligned ({name:-money} prefixes a minus sign)
+ *   {name:dollars}      always in dollars, whatever currency money fields are set to
+ *   {name:weight}       weight                {name:int}    whole number
+ *   {'Label':&lt;25}       padded literal        {%═:45}       character repeated 45 times
+ *   {@bold} {@green}    ANSI style, dropped in plain mode ({@reset} ends it)
+ *   {#rows}...{/rows}   repeated once per row {?flag}...{/flag}  only when the flag is set
+ * </pre>
+ */
+public final class ReceiptTemplate {
+    static final int LITERAL = 0;
+    static final int TEXT = 1;
+    static final int INT = 2;
+    static final int MONEY = 3;
+    static final int NEGATIVE_MONEY = 4;
+    static final int WEIGHT = 5;
+    static final int SECTION = 6;
+    static final int CONDITIONAL = 7;
+    static final int DOLLARS = 8;
+
+    private static final Map<String, String> STYLES = new HashMap<>();
+
+    static {
+        STYLES.put("reset", ConsoleFormatter.RESET);
+        STYLES.put("bold", ConsoleFormatter.BOLD);
+        STYLES.put("red", ConsoleFormatter.RED);
+        STYLES.put("green", ConsoleFormatter.GREEN);
+        STYLES.put("yellow", ConsoleFormatter.YELLOW);
+        STYLES.put("blue", ConsoleFormatter.BLUE);
+        STYLES.put("purple", ConsoleFormatter.PURPLE);
+        STYLES.put("cyan", ConsoleFormatter.CYAN);
+    }
+
+    /**
+     * One compiled piece of a template. Literal segments hold pre-encoded bytes;
+     * field segments hold the slot to read and how to lay it out; sections and
+     * conditionals hold their own children.
+     */
+    static final class Segment {
+        final int type;
+        final byte[] bytes;
+        final int slot;
+        final int width; // > 0 right-aligned, < 0 left-aligned, 0 unpadded
+        final Segment[] children;
+
+        Segment(int type, byte[] bytes, int slot, int width, Segment[] children) {
+            this.type = type;
+            this.bytes = bytes;
+            this.slot = slot;
+            this.width = width;
+            this.children = children;
+        }
+    }
+
+    private final Map<String, Integer> slots;
+    private final int[] sectionOf; // owning section slot of each field, -1 for top-level fields
+    private final Segment[] ansiSegments;
+    private final Segment[] plainSegments;
+
+    private ReceiptTemplate(Map<String, Integer> slots, int[] sectionOf,
+                            Segment[] ansiSegments, Segment[] plainSegments) {
+        this.slots = slots;
+        this.sectionOf = sectionOf;
+        this.ansiSegments = ansiSegments;
+        this.plainSegments = plainSegments;
+    }
+
+    /**
+     * Compiles a template.
+     *
+     * @param source Template text
+     * @param charset Charset the rendered output is written in
+     * @return The compiled template
+     * @throws IllegalArgumentException if the template is malformed
+     */
+    public static ReceiptTemplate compile(String source, Charset charset) {
+        Compiler compiler = new Compiler(source, charset);
+        Segment[] ansi = compiler.compile(true);
+        compiler.reset();
+        Segment[] plain = compiler.compile(false);
+        int[] sectionOf = new int[compiler.slots.size()];
+        for (int i = 0; i < sectionOf.length; i++) {
+            sectionOf[i] = compiler.sectionOf.get(i);
+        }
+        return new ReceiptTemplate(Map.copyOf(compiler.slots), sectionOf, ansi, plain);
+    }
+
+    /**
+     * Looks up the slot of a field, section or flag, to be used with {@link Data}.
+     * Resolve slots once and keep them in constants.
+     *
+     * @throws IllegalArgumentException if the template has no such name
+     */
+    public int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            throw new IllegalArgumentException("Template has no field named " + name);
+        }
+        return slot;
+    }
+
+    /**
+     * Creates a reusable value holder for this template. Data objects are
+     * not thread-safe; use one per thread.
+     */
+    public Data newData() {
+        return new Data(this);
+    }
+
+    Segment[] segments(boolean ansi) {
+        return ansi ? ansiSegments : plainSegments;
+    }
+
+    /**
+     * Values for one rendering of a template. Fields inside a {#section} are
+     * set on the row most recently added with {@link #addRow(int)}.
+     */
+    public static final class Data {
+        private final ReceiptTemplate template;
+        private final double[] numbers;
+        private final CharSequence[] texts;
+        private final boolean[] flags;
+        private final int[] rowCounts;
+        private final double[][] rowNumbers;
+        private final CharSequence[][] rowTexts;
+        private CurrencyFormat currency;
+
+        private Data(ReceiptTemplate template) {
+            int size = template.sectionOf.length;
+            this.template = template;
+            this.numbers = new double[size];
+            this.texts = new CharSequence[size];
+            this.flags = new boolean[size];
+            this.rowCounts = new int[size];
+            this.rowNumbers = new double[size][];
+            this.rowTexts = new CharSequence[size][];
+            for (int slot = 0; slot < size; slot++) {
+                if (template.sectionOf[slot] >= 0) {
+                    rowNumbers[slot] = new double[8];
+                    rowTexts[slot] = new CharSequence[8];
+                }
+            }
+        }
+
+        /**
+         * Clears all rows and flags so the holder can be reused.
+         */
+        public Data clear() {
+            currency = null;
+            Arrays.fill(flags, false);
+            Arrays.fill(rowCounts, 0);
+            Arrays.fill(texts, null);
+            for (CharSequence[] column : rowTexts) {
+                if (column != null) {
+                    Arrays.fill(column, null);
+                }
+            }
+            return this;
+        }
+
+        public Data set(int slot, double value) {
+            int section = template.sectionOf[slot];
+            if (section < 0) {
+                numbers[slot] = value;
+            } else {
+                rowNumbers[slot][currentRow(section, slot)] = value;
+            }
+            return this;
+        }
+
+        public Data set(int slot, CharSequence value) {
+            int section = template.sectionOf[slot];
+            if (section < 0) {
+                texts[slot] = value;
+            } else {
+                rowTexts[slot][currentRow(section, slot)] = value;
+            }
+            return this;
+        }
+
+        /**
+         * Sets the currency money fields are written in; dollars until set.
+         */
+        public Data setCurrency(CurrencyFormat currency) {
+            this.currency = currency;
+            return this;
+        }
+
+        CurrencyFormat currency() {
+            return currency;
+        }
+
+        public Data setFlag(int slot, boolean value) {
+            flags[slot] = value;
+            return this;
+        }
+
+        /**
+         * Starts a new row of a section.
+         *
+         * @return Index of the new row
+         */
+        public int addRow(int sectionSlot) {
+            int row = rowCounts[sectionSlot]++;
+            for (int slot = 0; slot < template.sectionOf.length; slot++) {
+                if (template.sectionOf[slot] == sectionSlot && row >= rowNumbers[slot].length) {
+                    rowNumbers[slot] = Arrays.copyOf(rowNumbers[slot], row * 2);
+                    rowTexts[slot] = Arrays.copyOf(rowTexts[slot], row * 2);
+                }
+            }
+            return row;
+        }
+
+        private int currentRow(int section, int slot) {
+            int row = rowCounts[section] - 1;
+            if (row < 0) {
+                throw new IllegalStateException("Call addRow before setting row field " + slot);
+            }
+            return row;
+        }
+
+        boolean flag(int slot) {
+            return flags[slot];
+        }
+
+        int rowCount(int slot) {
+            return rowCounts[slot];
+        }
+
+        double number(int slot, int row) {
+            return row < 0 ? numbers[slot] : rowNumbers[slot][row];
+        }
+
+        CharSequence text(int slot, int row) {
+            return row < 0 ? texts[slot] : rowTexts[slot][row];
+        }
+    }
+
+    /**
+     * Single-use parser turning template text into segments.
+     */
+    private static final class Compiler {
+        private final String source;
+        private final Charset charset;
+        private final Map<String, Integer> slots = new HashMap<>();
+        private final List<Integer> sectionOf = new ArrayList<>();
+        private int position;
+
+        Compiler(String source, Charset charset) {
+            this.source = source;
+            this.charset = charset;
+        }
+
+        void reset() {
+            position = 0;
+        }
+
+        Segment[] compile(boolean ansi) {
+            Segment[] segments = compileUntil(null, -1, ansi);
+            if (position < source.length()) {
+                throw new IllegalArgumentException("Unexpected text at " + position);
+            }
+            return segments;
+        }
+
+        private Segment[] compileUntil(String closing, int section, boolean ansi) {
+            List<Segment> segments = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            while (position < source.length()) {
+                char c = source.charAt(position);
+                if (c != '{') {
+                    literal.append(c);
+                    position++;
+                    continue;
+                }
+                int end = source.indexOf('}', position);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed '{' at " + position);
+                }
+                String token = source.substring(position + 1, end);
+                position = end + 1;
+
+                if (token.startsWith("/")) {
+                    if (!token.substring(1).equals(closing)) {
+                        throw new IllegalArgumentException("Unexpected {" + token + "}");
+                    }
+                    flush(literal, segments);
+                    return segments.toArray(new Segment[0]);
+                } else if (token.startsWith("@")) {
+                    String style = STYLES.get(token.substring(1));
+                    if (style == null) {
+                        throw new IllegalArgumentException("Unknown style {" + token + "}");
+                    }
+                    if (ansi) {
+                        literal.append(style);
+                    }
+                } else if (token.startsWith("%")) {
+                    String[] parts = token.substring(1).split(":");
+                    literal.append(ConsoleFormatter.createSeparator(parts[0].charAt(0), Integer.parseInt(parts[1])));
+                } else if (token.startsWith("'")) {
+                    int quote = token.indexOf('\'', 1);
+                    String text = token.substring(1, quote);
+                    int width = token.length() > quote + 1 ? parseWidth(token.substring(quote + 2)) : 0;
+                    appendPadded(literal, text, width);
+                } else if (token.startsWith("#") || token.startsWith("?")) {
+                    flush(literal, segments);
+                    String name = token.substring(1);
+                    int slot = slotFor(name, section);
+                    boolean repeated = token.startsWith("#");
+                    Segment[] children = compileUntil(name, repeated ? slot : section, ansi);
+                    segments.add(new Segment(repeated ? SECTION : CONDITIONAL, null, slot, 0, children));
+                } else {
+                    flush(literal, segments);
+                    segments.add(field(token, section));
+                }
+            }
+            if (closing != null) {
+                throw new IllegalArgumentException("Missing {/" + closing + "}");
+            }
+            flush(literal, segments);
+            return segments.toArray(new Segment[0]);
+        }
+
+        private Segment field(String token, int section) {
+            String[] parts = token.split(":");
+            int type = TEXT;
+            int width = 0;
+            for (int i = 1; i < parts.length; i++) {
+                String part = parts[i];
+                if (part.startsWith("<") || part.startsWith(">")) {
+                    width = parseWidth(part);
+                } else if (part.equals("int")) {
+                    type = INT;
+                } else if (part.equals("money")) {
+                    type = MONEY;
+                } else if (part.equals("-money")) {
+                    type = NEGATIVE_MONEY;
+                } else if (part.equals("dollars")) {
+                    type = DOLLARS;
+                } else if (part.equals("weight")) {
+                    type = WEIGHT;
+                } else {
+                    throw new IllegalArgumentException("Unknown field format '" + part + "' in {" + token + "}");
+                }
+            }
+            return new Segment(type, null, slotFor(parts[0], section), width, null);
+        }
+
+        private int slotFor(String name, int section) {
+            Integer slot = slots.get(name);
+            if (slot == null) {
+                slot = slots.size();
+                slots.put(name, slot);
+                sectionOf.add(section);
+            }
+            return slot;
+        }
+
+        private static int parseWidth(String spec) {
+            int width = Integer.parseInt(spec.substring(1));
+            return spec.charAt(0) == '<' ? -width : width;
+        }
+
+        private static void appendPadded(StringBuilder out, String text, int width) {
+            int padding = Math.abs(width) - text.length();
+            if (width > 0) {
+                out.append(" ".repeat(Math.max(0, padding)));
+            }
+            out.append(text);
+            if (width < 0) {
+                out.append(" ".repeat(Math.max(0, padding)));
+            }
+        }
+
+        private void flush(StringBuilder literal, List<Segment> segments) {
+            if (literal.length() > 0) {
+                segments.add(new Segment(LITERAL, literal.toString().getBytes(charset), -1, 0, null));
+                literal.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-negative counter split into per-core shards, for stock that thousands of
+ * threads take from at once. Each thread takes from its own shard, so in the
+ * common case a decrement is one uncontended CAS on a cache line no other core
+ * writes. When a shard runs dry it steals half of another shard's units; only
+ * when no single shard can cover a request are all shards drained together, and
+ * a request is refused only if every shard together holds too little.
+ *
+ * Units being moved between shards are counted in a shared in-flight total
+ * from before they leave one shard until after they reach the other, so
+ * readers never see them vanish, and a refusal is only decided on a total
+ * read while no move was in flight.
+ */
+public class ShardedCounter implements StockCounter {
+    // Shards sit 64 bytes apart so that neighbouring shards never share a cache line
+    private static final int PADDING = 16;
+
+    private final int shards;
+    private final AtomicIntegerArray values;
+    // Units taken out of one shard and not yet put into another; both only change on the slow path
+    private final AtomicLong moving = new AtomicLong();
+    // Bumped when a move starts and when it ends
+    private final AtomicLong moves = new AtomicLong();
+
+    /**
+     * Creates a counter with one shard per available processor.
+     *
+     * @param initialValue Starting value, spread evenly over the shards
+     */
+    public ShardedCounter(int initialValue) {
+        this(initialValue, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a counter.
+     *
+     * @param initialValue Starting value, spread evenly over the shards
+     * @param shardCount Number of shards, rounded up to a power of two
+     */
+    public ShardedCounter(int initialValue, int shardCount) {
+        if (initialValue < 0) {
+            throw new IllegalArgumentException("Initial value cannot be negative");
+        }
+        int size = 1;
+        while (size < shardCount) {
+            size <<= 1;
+        }
+        this.shards = size;
+        this.values = new AtomicIntegerArray(shards * PADDING);
+        for (int i = 0; i < shards; i++) {
+            values.set(i * PADDING, initialValue / shards + (i < initialValue % shards ? 1 : 0));
+        }
+    }
+
+    public int getShardCount() {
+        return shards;
+    }
+
+    /**
+     * Gets the total over all shards, including units being moved between them.
+     * Only a snapshot while other threads are updating.
+     */
+    @Override
+    public int get() {
+        return (int) Math.min(shardTotal() + moving.get(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Adds units to the calling thread's shard.
+     */
+    @Override
+    public void add(int amount) {
+        if (amount > 0) {
+            values.getAndAdd(homeShard() * PADDING, amount);
+        }
+    }
+
+    /**
+     * Takes units out of the counter, all or nothing.
+     *
+     * @return true if the units were taken, false if the counter holds fewer
+     */
+    @Override
+    public boolean tryTake(int amount) {
+        if (amount <= 0) {
+            return amount == 0;
+        }
+        int home = homeShard();
+        while (true) {
+            if (take(home, amount)) {
+                return true;
+            }
+            if (!steal(home, amount)) {
+                break;
+            }
+        }
+        // No shard holds enough on its own; units spread thinly over many shards
+        while (true) {
+            long before = moves.get();
+            long total = shardTotal();
+            if (total >= amount) {
+                if (gather(home, amount)) {
+                    return true;
+                }
+            } else if (moving.get() == 0 && moves.get() == before) {
+                // No units were between shards while the total was read
+                return false;
+            }
+            // Another thread is moving units; let it finish
+            Thread.yield();
+        }
+    }
+
+    private boolean take(int shard, int amount) {
+        int index = shard * PADDING;
+        while (true) {
+            int current = values.get(index);
+            if (current < amount) {
+                return false;
+            }
+            if (values.compareAndSet(index, current, current - amount)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves half of the first shard that can cover the request into the home shard.
+     *
+     * @return true if units were moved
+     */
+    private boolean steal(int home, int amount) {
+        for (int offset = 1; offset < shards; offset++) {
+            int index = ((home + offset) & (shards - 1)) * PADDING;
+            int current;
+            while ((current = values.get(index)) >= amount) {
+                int stolen = Math.max(amount, current / 2);
+                beginMove(stolen);
+                if (values.compareAndSet(index, current, current - stolen)) {
+                    values.getAndAdd(home * PADDING, stolen);
+                    endMove(stolen);
+                    return true;
+                }
+                endMove(stolen);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drains shards until the request is covered, leaving the rest in the home shard.
+     *
+     * @return true if the request was covered; otherwise everything drained is put back
+     */
+    private boolean gather(int home, int amount) {
+        int collected = 0;
+        for (int i = 0; i < shards && collected < amount; i++) {
+            int index = ((home + i) & (shards - 1)) * PADDING;
+            int current;
+            while ((current = values.get(index)) > 0) {
+                beginMove(current);
+                if (values.compareAndSet(index, current, 0)) {
+                    collected += current;
+                    break;
+                }
+                endMove(current);
+            }
+        }
+        boolean covered = collected >= amount;
+        int rest = covered ? collected - amount : collected;
+        if (rest > 0) {
+            values.getAndAdd(home * PADDING, rest);
+        }
+        endMove(collected);
+        return covered;
+    }
+
+    private long shardTotal() {
+        long sum = 0;
+        for (int i = 0; i < shards; i++) {
+            sum += values.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Counts units as in flight before they are taken out of a shard.
+     */
+    private void beginMove(int units) {
+        moves.incrementAndGet();
+        moving.addAndGet(units);
+    }
+
+    /**
+     * Stops counting units as in flight once they are in a shard or handed out.
+     */
+    private void endMove(int units) {
+        moving.addAndGet(-units);
+        moves.incrementAndGet();
+    }
+
+    private int homeShard() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (shards - 1);
+    }
+}
@@ -0,0 +1,166 @@
+package utils;
+
+/**
+ * Ids ordered by a long key, held in two parallel primitive arrays, for range
+ * lookups by binary search. Equal keys are ordered by id, so every range comes
+ * back in a stable order. Doubles can be indexed through {@link #sortableBits}.
+ * Instances are immutable once built.
+ */
+public class SortedLongIndex {
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final long[] keys;
+    private final int[] ids;
+
+    /**
+     * Builds an index over ids 0 to count - 1.
+     *
+     * @param keysById Key of each id; only the first count entries are read
+     * @param count Number of ids to index
+     */
+    public SortedLongIndex(long[] keysById, int count) {
+        this.keys = new long[count];
+        this.ids = new int[count];
+        System.arraycopy(keysById, 0, keys, 0, count);
+        for (int i = 0; i < count; i++) {
+            ids[i] = i;
+        }
+        sort(0, count - 1);
+    }
+
+    /**
+     * Maps a double to a long with the same ordering, so that doubles can be indexed.
+     */
+    public static long sortableBits(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Gets the id at a position in key order.
+     */
+    public int idAt(int position) {
+        return ids[position];
+    }
+
+    /**
+     * Gets the first position whose key is at least the given key.
+     */
+    public int lowerBound(long key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the first position whose key is greater than the given key.
+     */
+    public int upperBound(long key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets each id's position in key order.
+     *
+     * @return Array indexed by id
+     */
+    public int[] positionsById() {
+        int[] positions = new int[ids.length];
+        for (int position = 0; position < ids.length; position++) {
+            positions[ids[position]] = position;
+        }
+        return positions;
+    }
+
+    /**
+     * Quicksorts keys and ids together, recursing into the smaller half so the stack stays O(log n).
+     */
+    private void sort(int low, int high) {
+        while (high - low >= INSERTION_SORT_THRESHOLD) {
+            int mid = (low + high) >>> 1;
+            // Median of three as the pivot, left at mid
+            if (less(mid, low)) {
+                swap(mid, low);
+            }
+            if (less(high, low)) {
+                swap(high, low);
+            }
+            if (less(high, mid)) {
+                swap(high, mid);
+            }
+            long pivotKey = keys[mid];
+            int pivotId = ids[mid];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (less(keys[i], ids[i], pivotKey, pivotId)) {
+                    i++;
+                }
+                while (less(pivotKey, pivotId, keys[j], ids[j])) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+        for (int i = low + 1; i <= high; i++) {
+            long key = keys[i];
+            int id = ids[i];
+            int j = i - 1;
+            while (j >= low && less(key, id, keys[j], ids[j])) {
+                keys[j + 1] = keys[j];
+                ids[j + 1] = ids[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            ids[j + 1] = id;
+        }
+    }
+
+    private boolean less(int a, int b) {
+        return less(keys[a], ids[a], keys[b], ids[b]);
+    }
+
+    private static boolean less(long keyA, int idA, long keyB, int idB) {
+        return keyA < keyB || (keyA == keyB && idA < idB);
+    }
+
+    private void swap(int a, int b) {
+        long key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+    }
+}
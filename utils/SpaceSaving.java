@@ -0,0 +1,196 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Space-Saving summary of the heaviest keys in a weighted stream, in fixed memory.
+ * At most capacity keys are counted. When a new key arrives and the summary is
+ * full, it takes over the counter of the lightest key, inheriting that count as
+ * its possible overestimate. Any key whose true total exceeds total / capacity
+ * is guaranteed to be present, and each reported count is at most its error
+ * above the true total.
+ *
+ * Counters sit in a min-heap on their counts, so each update is O(log capacity).
+ * Each counter knows its heap position, so reordering the heap needs no hash
+ * lookups. Not thread-safe.
+ *
+ * @param <K> Type of the keys
+ */
+public class SpaceSaving<K> {
+    private final int capacity;
+    private final Slot<K>[] heap;
+    private final HashMap<K, Slot<K>> slots;
+    private int size;
+    private long total;
+
+    /**
+     * Creates an empty summary.
+     *
+     * @param capacity Number of keys counted at once
+     */
+    @SuppressWarnings("unchecked")
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.heap = (Slot<K>[]) new Slot<?>[capacity];
+        this.slots = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Adds weight to a key.
+     *
+     * @param key Key seen in the stream
+     * @param weight Weight of this occurrence, e.g. units sold
+     */
+    public void add(K key, long weight) {
+        if (weight <= 0) {
+            return;
+        }
+        total += weight;
+        Slot<K> slot = slots.get(key);
+        if (slot != null) {
+            slot.count += weight;
+            siftDown(slot.position);
+        } else if (size < capacity) {
+            slot = new Slot<>(key, weight, size);
+            heap[size] = slot;
+            slots.put(key, slot);
+            siftUp(size++);
+        } else {
+            // Take over the lightest counter; its count becomes our possible overestimate
+            slot = heap[0];
+            slots.remove(slot.key);
+            slot.key = key;
+            slot.error = slot.count;
+            slot.count += weight;
+            slots.put(key, slot);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Gets the total weight added, including keys no longer counted.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        slots.clear();
+        Arrays.fill(heap, null);
+        size = 0;
+        total = 0;
+    }
+
+    /**
+     * Gets the heaviest keys.
+     *
+     * @param n Maximum number of keys to return
+     * @return Counters, heaviest first
+     */
+    public List<Counter<K>> top(int n) {
+        List<Counter<K>> counters = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            counters.add(new Counter<>(heap[i].key, heap[i].count, heap[i].error));
+        }
+        counters.sort((a, b) -> Long.compare(b.count, a.count));
+        return new ArrayList<>(counters.subList(0, Math.min(n, counters.size())));
+    }
+
+    private void siftUp(int position) {
+        Slot<K> slot = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (heap[parent].count <= slot.count) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(slot, position);
+    }
+
+    private void siftDown(int position) {
+        Slot<K> slot = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (slot.count <= heap[child].count) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(slot, position);
+    }
+
+    private void place(Slot<K> slot, int position) {
+        heap[position] = slot;
+        slot.position = position;
+    }
+
+    /**
+     * One counter; it knows its heap position, so moving it needs no hash lookups.
+     */
+    private static final class Slot<K> {
+        K key;
+        long count;
+        long error;
+        int position;
+
+        Slot(K key, long count, int position) {
+            this.key = key;
+            this.count = count;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Estimated total of one key.
+     *
+     * @param <K> Type of the key
+     */
+    public static final class Counter<K> {
+        private final K key;
+        private final long count;
+        private final long error;
+
+        Counter(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         * Gets the estimated total; never below the true total.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the most by which the count may exceed the true total.
+         */
+        public long getError() {
+            return error;
+        }
+    }
+}
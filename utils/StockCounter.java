@@ -0,0 +1,27 @@
+package utils;
+
+/**
+ * Non-negative stock count shared by many threads. Implementations trade
+ * memory and read cost for less contention than a single locked field.
+ */
+public interface StockCounter {
+    /**
+     * Gets the current count. Only a snapshot while other threads are updating.
+     */
+    int get();
+
+    /**
+     * Takes units out of the count, all or nothing.
+     *
+     * @param amount Number of units to take
+     * @return true if the units were taken, false if the count is lower
+     */
+    boolean tryTake(int amount);
+
+    /**
+     * Adds units to the count.
+     *
+     * @param amount Number of units to add; ignored unless positive
+     */
+    void add(int amount);
+}
@@ -0,0 +1,241 @@
+package utils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical timing wheel for very large numbers of timeouts, such as one
+ * per reserved cart line. Four levels of 64 slots each cover 2^24 ticks; a
+ * timeout sits in the coarsest level that fits its delay and cascades down to
+ * finer levels as time approaches it, so scheduling and cancelling are O(1)
+ * however many timeouts are outstanding.
+ *
+ * Any thread may schedule or cancel. Both only enqueue work for the single
+ * wheel thread, which owns the slots, moves timeouts between them and runs
+ * expired tasks. Tasks therefore run on the wheel thread and should be short.
+ */
+public class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = 1L << (SLOT_BITS * LEVELS);
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timeout[][] wheel = new Timeout[LEVELS][SLOTS]; // sentinel heads of circular lists
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long currentTick; // owned by the wheel thread
+
+    /**
+     * Creates a wheel and starts its thread.
+     *
+     * @param tickDuration Resolution of the wheel; timeouts fire up to one tick late
+     * @param unit Unit of tickDuration
+     * @param name Name of the wheel thread
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, String name) {
+        this.tickNanos = Math.max(1, unit.toNanos(tickDuration));
+        this.startNanos = System.nanoTime();
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Timeout head = new Timeout(this, null, 0);
+                head.prev = head;
+                head.next = head;
+                wheel[level][slot] = head;
+            }
+        }
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules a task to run once the delay has passed.
+     *
+     * @param task Task to run on the wheel thread
+     * @param delay Delay before the task runs
+     * @param unit Unit of delay
+     * @return Handle that can cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (!running) {
+            throw new IllegalStateException("Timing wheel has been stopped");
+        }
+        long deadlineTick = (System.nanoTime() - startNanos + unit.toNanos(Math.max(0, delay)) + tickNanos - 1)
+            / tickNanos;
+        Timeout timeout = new Timeout(this, task, deadlineTick);
+        pending.incrementAndGet();
+        scheduled.offer(timeout);
+        return timeout;
+    }
+
+    /**
+     * Gets the number of scheduled tasks that have neither run nor been cancelled.
+     */
+    public long getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the wheel thread. Outstanding tasks never run.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    private void run() {
+        while (running) {
+            long targetTick = (System.nanoTime() - startNanos) / tickNanos;
+            drainQueues();
+            while (currentTick < targetTick) {
+                currentTick++;
+                cascade();
+                expire(wheel[0][(int) (currentTick & SLOT_MASK)]);
+                drainQueues();
+            }
+            long nextTickNanos = startNanos + (currentTick + 1) * tickNanos;
+            LockSupport.parkNanos(nextTickNanos - System.nanoTime());
+        }
+    }
+
+    private void drainQueues() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            timeout.unlink();
+        }
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.state == Timeout.PENDING) {
+                place(timeout, currentTick + 1);
+            }
+        }
+    }
+
+    /**
+     * Puts a timeout into the coarsest level whose slot span still separates it from now.
+     *
+     * @param earliestTick First tick whose slot has not been expired yet
+     */
+    private void place(Timeout timeout, long earliestTick) {
+        long deadline = Math.max(timeout.deadlineTick, earliestTick);
+        long delta = deadline - currentTick;
+        if (delta >= MAX_TICKS) {
+            // Beyond the wheel's range: park in the furthest slot and re-place when it comes round
+            deadline = currentTick + MAX_TICKS - 1;
+            delta = MAX_TICKS - 1;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+        timeout.linkBefore(wheel[level][slot]);
+    }
+
+    /**
+     * When a level completes a full turn, spreads the next slot of the level above over the finer levels.
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                return;
+            }
+            Timeout head = wheel[level][(int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK)];
+            for (Timeout timeout = head.next; timeout != head; ) {
+                Timeout next = timeout.next;
+                timeout.unlink();
+                place(timeout, currentTick);
+                timeout = next;
+            }
+        }
+    }
+
+    private void expire(Timeout head) {
+        for (Timeout timeout = head.next; timeout != head; ) {
+            Timeout next = timeout.next;
+            timeout.unlink();
+            if (timeout.deadlineTick > currentTick) {
+                place(timeout, currentTick + 1);
+            } else if (Timeout.STATE.compareAndSet(timeout, Timeout.PENDING, Timeout.EXPIRED)) {
+                pending.decrementAndGet();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Timing wheel task failed: " + e);
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Handle to a scheduled task.
+     */
+    public static final class Timeout {
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+        // Field updater rather than an AtomicInteger per timeout; there may be millions of them
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadlineTick;
+        private volatile int state = PENDING;
+        private Timeout prev; // slot links, only touched by the wheel thread
+        private Timeout next;
+
+        Timeout(TimingWheel wheel, Runnable task, long deadlineTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Cancels the task if it has not run yet.
+         *
+         * @return true if this call cancelled the task
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            wheel.pending.decrementAndGet();
+            wheel.cancelled.offer(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        void linkBefore(Timeout head) {
+            prev = head.prev;
+            next = head;
+            head.prev.next = this;
+            head.prev = this;
+        }
+
+        void unlink() {
+            if (prev != null) {
+                prev.next = next;
+                next.prev = prev;
+                prev = null;
+                next = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running sums over a sliding window of time, for several series at once.
+ * Time is cut into fixed-width buckets kept in a ring; each bucket holds one
+ * striped {@link LongAdder} per series, so threads adding at the same moment
+ * don't contend. When time moves on to a slot whose bucket is from an earlier
+ * turn of the ring, a fresh bucket replaces it with one CAS, so old totals drop
+ * out of the window without any cleanup pass.
+ *
+ * Adding and reading are lock-free. A window of n buckets covers the current,
+ * partly filled bucket and the n - 1 before it.
+ */
+public class WindowedSums {
+    private final int series;
+    private final long bucketNanos;
+    private final long startNanos;
+    private final AtomicReferenceArray<Bucket> ring;
+
+    /**
+     * Creates a ring of empty buckets.
+     *
+     * @param series Number of independent sums
+     * @param bucketDuration Width of one bucket
+     * @param unit Unit of bucketDuration
+     * @param buckets Number of buckets kept, i.e. the longest window that can be read
+     */
+    public WindowedSums(int series, long bucketDuration, TimeUnit unit, int buckets) {
+        this.series = series;
+        this.bucketNanos = Math.max(1, unit.toNanos(bucketDuration));
+        this.startNanos = System.nanoTime();
+        this.ring = new AtomicReferenceArray<>(buckets);
+    }
+
+    public int getBucketCount() {
+        return ring.length();
+    }
+
+    /**
+     * Gets the width of one bucket in nanoseconds.
+     */
+    public long getBucketNanos() {
+        return bucketNanos;
+    }
+
+    /**
+     * Gets the bucket for the current time, starting a new one if time has moved on.
+     * Callers adding several values at once should fetch the bucket once.
+     */
+    public Bucket currentBucket() {
+        long epoch = epoch();
+        int slot = (int) (epoch % ring.length());
+        while (true) {
+            Bucket bucket = ring.get(slot);
+            if (bucket != null && bucket.epoch >= epoch) {
+                return bucket;
+            }
+            Bucket fresh = new Bucket(epoch, series);
+            if (ring.compareAndSet(slot, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    /**
+     * Adds to one series in the current bucket.
+     */
+    public void add(int index, long amount) {
+        currentBucket().add(index, amount);
+    }
+
+    /**
+     * Sums one series over the most recent buckets.
+     *
+     * @param index Series to sum
+     * @param buckets Window length in buckets, at most the ring size
+     */
+    public long sum(int index, int buckets) {
+        long epoch = epoch();
+        long total = 0;
+        for (int i = 0; i < ring.length(); i++) {
+            Bucket bucket = ring.get(i);
+            if (bucket != null && bucket.epoch > epoch - buckets && bucket.epoch <= epoch) {
+                total += bucket.sums[index].sum();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Sums every series over the most recent buckets.
+     *
+     * @param buckets Window length in buckets, at most the ring size
+     * @return Sum of each series, indexed like the series
+     */
+    public long[] sums(int buckets) {
+        long epoch = epoch();
+        long[] totals = new long[series];
+        for (int i = 0; i < ring.length(); i++) {
+            Bucket bucket = ring.get(i);
+            if (bucket != null && bucket.epoch > epoch - buckets && bucket.epoch <= epoch) {
+                for (int s = 0; s < series; s++) {
+                    totals[s] += bucket.sums[s].sum();
+                }
+            }
+        }
+        return totals;
+    }
+
+    private long epoch() {
+        return (System.nanoTime() - startNanos) / bucketNanos;
+    }
+
+    /**
+     * Sums of every series for one stretch of time.
+     */
+    public static final class Bucket {
+        private final long epoch;
+        private final LongAdder[] sums;
+
+        Bucket(long epoch, int series) {
+            this.epoch = epoch;
+            this.sums = new LongAdder[series];
+            for (int i = 0; i < series; i++) {
+                sums[i] = new LongAdder();
+            }
+        }
+
+        public void add(int index, long amount) {
+            sums[index].add(amount);
+        }
+    }
+}